@@ -0,0 +1,49 @@
+package benchmark;
+
+import models.ParticleStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import physics.Collision;
+
+/**
+ * About: Collision narrow phase on a pair of touching particles.
+ * The inputs change every operation so the JIT cannot hoist the work out of the loop.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class CollisionBenchmark {
+    private ParticleStore pair;
+    private int k;
+
+    @Setup
+    public void setup(){
+        pair = new ParticleStore(2);
+        pair.add(100, 100, 1, 0, 10, 10);
+        pair.add(115, 100, -1, 0, 10, 10);
+    }
+
+    @Benchmark
+    public boolean isColliding(){
+        pair.getX()[1] = 100 + (k++ & 31);
+        return Collision.isColliding(pair, 0, 1);
+    }
+
+    @Benchmark
+    public double resolveCollision(){
+        //the second particle may have been moved out of reach by isColliding
+        pair.getX()[1] = 115;
+        Collision.resolveCollision(pair, 0, 1);
+        double vx = pair.getXVelocity()[0];
+        //flip the pair back so it keeps approaching
+        pair.getXVelocity()[0] = 1;
+        pair.getXVelocity()[1] = -1;
+        return vx;
+    }
+}
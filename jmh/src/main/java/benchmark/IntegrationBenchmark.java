@@ -0,0 +1,57 @@
+package benchmark;
+
+import models.ParticleStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import physics.IntegrationKernel;
+
+import java.util.Random;
+
+/**
+ * About: Integration and wall reflection alone, the scalar kernel against the preferred one (vectorized when
+ * the forked JVM has jdk.incubator.vector, which the fork adds). One operation is one pass over all particles.
+ */
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector,jdk.incubator.foreign")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class IntegrationBenchmark {
+    //random particles in a box large enough that a few percent of them hit a wall per pass
+    private static final double SIDE = 2000;
+
+    //in cache and far out of it
+    @Param({"1000", "100000"})
+    public int particles;
+
+    @Param({"scalar", "preferred"})
+    public String kernel;
+
+    private IntegrationKernel integrationKernel;
+    private ParticleStore store;
+    private final double[] sums = new double[IntegrationKernel.SUMS];
+
+    @Setup
+    public void setup(){
+        integrationKernel = (kernel.equals("scalar"))? IntegrationKernel.scalar() : IntegrationKernel.preferred();
+        Random random = new Random(42);
+        store = new ParticleStore(particles);
+        for (int i = 0; i < particles; i++) {
+            double angle = random.nextDouble() * 2 * Math.PI;
+            store.add(10 + random.nextDouble() * (SIDE - 20), 10 + random.nextDouble() * (SIDE - 20),
+                    Math.cos(angle) * 10, Math.sin(angle) * 10, 10, 10);
+        }
+    }
+
+    @Benchmark
+    public double integrate(){
+        integrationKernel.integrate(store.getX(), store.getY(), store.getXVelocity(), store.getYVelocity(), store.getRadius(), store.getMass(),
+                0, particles, 1, SIDE, SIDE, sums, 0);
+        return sums[IntegrationKernel.KINETIC_ENERGY];
+    }
+}
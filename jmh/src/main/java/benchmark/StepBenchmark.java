@@ -0,0 +1,69 @@
+package benchmark;
+
+import models.IdealParticleSystem;
+import models.OffHeapParticleStore;
+import models.OffHeapParticleSystem;
+import models.ParticleSystem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * About: Full simulation steps of the ideal gas, ParticleSystem.updateParticlePositions at several particle
+ * counts and box sizes (dense to dilute), time-stepped, event-driven and off the heap (OffHeapParticleSystem).
+ * One operation is one step.
+ */
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector,jdk.incubator.foreign")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class StepBenchmark {
+    @Param({"100", "300"})
+    public int particles;
+
+    //width x height of the box
+    @Param({"600x450", "1200x900", "2400x1800"})
+    public String box;
+
+    @Param({"sequential", "eventDriven", "offHeap"})
+    public String engine;
+
+    private ParticleSystem particleSystem;
+    //set for the offHeap engine, whose heap store is only a copy
+    private OffHeapParticleStore offHeapStore;
+    private double xBounds;
+    private double yBounds;
+
+    @Setup
+    public void setup(){
+        String[] size = box.split("x");
+        xBounds = Double.parseDouble(size[0]);
+        yBounds = Double.parseDouble(size[1]);
+        if(engine.equals("offHeap")){
+            OffHeapParticleSystem system = new OffHeapParticleSystem();
+            offHeapStore = system.getOffHeapParticleStore();
+            particleSystem = system;
+        }else{
+            IdealParticleSystem system = new IdealParticleSystem();
+            system.setEventDriven(engine.equals("eventDriven"));
+            particleSystem = system;
+        }
+        particleSystem.setSeed(42);
+        particleSystem.setNumberOfParticles(particles);
+        particleSystem.init(xBounds, yBounds);
+    }
+
+    @Benchmark
+    public double step(){
+        particleSystem.updateParticlePositions(xBounds, yBounds);
+        if(offHeapStore != null){
+            return offHeapStore.get(OffHeapParticleStore.X, 0);
+        }
+        return particleSystem.getParticleStore().getX()[0];
+    }
+}
@@ -0,0 +1,48 @@
+package benchmark;
+
+import models.VanderWaalsParticleSystem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * About: Full simulation steps of the Van der Waals gas, with the Lennard-Jones pairs taken from the Verlet
+ * neighbor list against searching the grid every step. One operation is one step.
+ */
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector,jdk.incubator.foreign")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class VanderWaalsStepBenchmark {
+    private static final double X_BOUNDS = 600;
+    private static final double Y_BOUNDS = 450;
+
+    @Param({"100", "300"})
+    public int particles;
+
+    @Param({"neighborList", "grid"})
+    public String pairs;
+
+    private VanderWaalsParticleSystem particleSystem;
+
+    @Setup
+    public void setup(){
+        particleSystem = new VanderWaalsParticleSystem();
+        particleSystem.setSeed(42);
+        particleSystem.setNumberOfParticles(particles);
+        particleSystem.init(X_BOUNDS, Y_BOUNDS);
+        //a negative skin picks the default neighbor list skin, 0 turns the list off
+        particleSystem.setNeighborSkin(pairs.equals("grid")? 0 : -1);
+    }
+
+    @Benchmark
+    public double step(){
+        particleSystem.updateParticlePositions(X_BOUNDS, Y_BOUNDS);
+        return particleSystem.getParticleStore().getX()[0];
+    }
+}
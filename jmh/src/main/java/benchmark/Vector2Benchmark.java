@@ -0,0 +1,64 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import physics.Vector2;
+
+/**
+ * About: Vector2 operations. Every operation moves a, so results cannot be computed once for the whole run;
+ * the allocating ones (multiply, subtract) show up in the gc profiler's allocation rate.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class Vector2Benchmark {
+    private Vector2 a;
+    private Vector2 b;
+    private Vector2 vector;
+    private int k;
+
+    @Setup
+    public void setup(){
+        a = new Vector2(3, 4);
+        b = new Vector2(-1, 2);
+        vector = new Vector2();
+    }
+
+    @Benchmark
+    public double distance(){
+        a.setX(k++ & 1023);
+        return Vector2.distance(a, b);
+    }
+
+    @Benchmark
+    public double dotProduct(){
+        a.setX(k++ & 1023);
+        return Vector2.dotProduct(a, b);
+    }
+
+    @Benchmark
+    public Vector2 multiply(){
+        a.setX(k++ & 1023);
+        return Vector2.multiply(a, 1.5);
+    }
+
+    @Benchmark
+    public Vector2 subtract(){
+        a.setX(k++ & 1023);
+        return Vector2.subtract(a, b);
+    }
+
+    @Benchmark
+    public double normalize(){
+        vector.setX(k++ & 1023);
+        vector.setY(4);
+        vector.normalize();
+        return vector.getX();
+    }
+}
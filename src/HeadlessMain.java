@@ -0,0 +1,215 @@
+import distributed.DistributedParticleSystem;
+import engine.HeadlessEngine;
+import io.TrajectoryWriter;
+import metrics.Phase;
+import metrics.SimulationMetrics;
+import models.IdealParticleSystem;
+import models.OffHeapParticleStore;
+import models.OffHeapParticleSystem;
+import models.ParticleSystem;
+import models.VanderWaalsParticleSystem;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+
+/**
+ * Command-line batch runner, steps a particle system without JavaFX and reports throughput.
+ * usage: HeadlessMain [--particles N] [--width W] [--height H] [--steps S] [--warmup S] [--seed X] [--threads T] [--skin S] [--trajectory FILE] [--every N] [--float32] [--velocities] [--checkpoint FILE] [--restore FILE] [--metrics] [--event-driven] [--vanderwaals] [--temperature T] [--no-substeps] [--workers N] [--off-heap]
+ */
+public class HeadlessMain {
+
+    public static void main(String[] args) {
+        int particles = 150;
+        double width = 1000;
+        double height = 750;
+        long steps = 10000;
+        long warmup = 1000;
+        Long seed = null;
+        int threads = 0;
+        double skin = -1;
+        String trajectory = null;
+        long every = 10;
+        boolean float32 = false;
+        boolean velocities = false;
+        String checkpoint = null;
+        String restore = null;
+        boolean metricsEnabled = false;
+        boolean eventDriven = false;
+        boolean vanderWaals = false;
+        double temperature = -1;
+        boolean substeps = true;
+        int workers = 0;
+        boolean offHeap = false;
+
+        //parse options
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--particles": particles = Integer.parseInt(args[++i]); break;
+                    case "--width": width = Double.parseDouble(args[++i]); break;
+                    case "--height": height = Double.parseDouble(args[++i]); break;
+                    case "--steps": steps = Long.parseLong(args[++i]); break;
+                    case "--warmup": warmup = Long.parseLong(args[++i]); break;
+                    case "--seed": seed = Long.parseLong(args[++i]); break;
+                    case "--threads": threads = Integer.parseInt(args[++i]); break;
+                    case "--skin": skin = Double.parseDouble(args[++i]); break;
+                    case "--trajectory": trajectory = args[++i]; break;
+                    case "--every": every = Long.parseLong(args[++i]); break;
+                    case "--float32": float32 = true; break;
+                    case "--velocities": velocities = true; break;
+                    case "--checkpoint": checkpoint = args[++i]; break;
+                    case "--restore": restore = args[++i]; break;
+                    case "--metrics": metricsEnabled = true; break;
+                    case "--event-driven": eventDriven = true; break;
+                    case "--vanderwaals": vanderWaals = true; break;
+                    case "--temperature": temperature = Double.parseDouble(args[++i]); break;
+                    case "--no-substeps": substeps = false; break;
+                    case "--workers": workers = Integer.parseInt(args[++i]); break;
+                    case "--off-heap": offHeap = true; break;
+                    default: usage("unknown option " + args[i]); return;
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            usage("invalid arguments: " + e.getMessage());
+            return;
+        }
+
+        if (workers > 0 && (vanderWaals || eventDriven || threads > 0)) {
+            usage("--workers steps the ideal gas in worker processes, it cannot be combined with --vanderwaals, --event-driven or --threads");
+            return;
+        }
+        if (offHeap && (vanderWaals || eventDriven || threads > 0 || workers > 0)) {
+            usage("--off-heap steps the ideal gas sequentially, it cannot be combined with --vanderwaals, --event-driven, --threads or --workers");
+            return;
+        }
+        if (offHeap && !OffHeapParticleStore.isAvailable()) {
+            usage("--off-heap needs --add-modules " + OffHeapParticleStore.MODULE);
+            return;
+        }
+        ParticleSystem particleSystem;
+        if (workers > 0) {
+            particleSystem = new DistributedParticleSystem(workers, particles);
+        } else if (offHeap) {
+            particleSystem = new OffHeapParticleSystem(particles);
+        } else {
+            particleSystem = (vanderWaals)? new VanderWaalsParticleSystem(particles) : new IdealParticleSystem(particles);
+        }
+        particleSystem.setParallelism(threads);
+        particleSystem.setNeighborSkin(skin);
+        particleSystem.setAdaptiveSubstepping(substeps);
+        if (eventDriven) {
+            if (!(particleSystem instanceof IdealParticleSystem)) {
+                usage("--event-driven is only available for the ideal gas");
+                return;
+            }
+            ((IdealParticleSystem) particleSystem).setEventDriven(true);
+        }
+
+        HeadlessEngine engine;
+        if (restore != null) {
+            //continue the saved run as it was, a warmup would advance it
+            try {
+                engine = HeadlessEngine.restore(particleSystem, Paths.get(restore));
+            } catch (IOException e) {
+                usage("cannot restore " + restore + ": " + e.getMessage());
+                return;
+            }
+            width = engine.getXBounds();
+            height = engine.getYBounds();
+            particles = particleSystem.getNumberOfParticles();
+        } else {
+            engine = new HeadlessEngine(particleSystem, width, height);
+            engine.init(particles);
+            //let the JIT settle before measuring
+            try {
+                engine.run(warmup);
+            } catch (IllegalArgumentException | UncheckedIOException e) {
+                usage("cannot run: " + e.getMessage());
+                return;
+            }
+            //seed right before the measured run so the same seed always starts from the same positions
+            if (seed != null) {
+                particleSystem.setSeed(seed);
+            }
+            engine.init(particles);
+            if (temperature >= 0) {
+                particleSystem.setTemperature(temperature);
+            }
+        }
+        //attached after the warmup, so only the measured steps count
+        SimulationMetrics metrics = null;
+        if (metricsEnabled) {
+            metrics = new SimulationMetrics();
+            metrics.register("headless");
+            particleSystem.setMetrics(metrics);
+        }
+        TrajectoryWriter trajectoryWriter = null;
+        if (trajectory != null) {
+            try {
+                trajectoryWriter = new TrajectoryWriter(Paths.get(trajectory), particles, width, height, float32, velocities);
+            } catch (IOException e) {
+                usage("cannot write " + trajectory + ": " + e.getMessage());
+                return;
+            }
+            engine.setTrajectoryWriter(trajectoryWriter, every);
+        }
+        try {
+            engine.run(steps);
+        } catch (IllegalArgumentException | UncheckedIOException e) {
+            usage("cannot run: " + e.getMessage());
+            return;
+        }
+        if (trajectoryWriter != null) {
+            try {
+                trajectoryWriter.close();
+            } catch (IOException e) {
+                System.err.println("could not finish " + trajectory + ": " + e.getMessage());
+            }
+        }
+        if (checkpoint != null) {
+            try {
+                engine.checkpoint(Paths.get(checkpoint));
+            } catch (IOException e) {
+                System.err.println("could not save " + checkpoint + ": " + e.getMessage());
+            }
+        }
+
+        System.out.println("system:          " + particleSystem.getClass().getSimpleName());
+        System.out.println("particles:       " + particleSystem.getNumberOfParticles());
+        System.out.println("box:             " + width + " x " + height);
+        System.out.println("engine:          " + ((eventDriven)? "event-driven" : (workers > 0)? workers + " worker processes" : (threads > 0)? threads + " threads" : (offHeap)? "sequential, off-heap" : "sequential"));
+        System.out.println("steps:           " + engine.getTotalSteps() + ((restore != null)? " (from step " + (engine.getStep() - engine.getTotalSteps()) + ")" : ""));
+        System.out.printf("steps/second:    %.1f%n", engine.getStepsPerSecond());
+        System.out.printf("kinetic energy:  %.6f%n", particleSystem.getKineticEnergy());
+        System.out.printf("pressure:        %.6f (last %d steps)%n", particleSystem.getPressure(), particleSystem.getObservables().getWindow());
+        System.out.printf("temperature:     %.6f%n", particleSystem.getTemperature());
+        System.out.printf("total energy:    %.6f%n", particleSystem.getObservables().getEnergy());
+        System.out.println("volume:          " + particleSystem.getVolume());
+        System.out.printf("checksum:        %016x%n", particleSystem.getParticleStore().checksum());
+        if (metrics != null) {
+            long measured = Math.max(1, metrics.getSteps());
+            System.out.printf("step time:       %.4f ms%n", metrics.getStepMillis());
+            for (Phase phase : Phase.values()) {
+                if (metrics.getPhaseMillisPerStep(phase) > 0) {
+                    System.out.printf("  %-14s %.4f ms%n", phase.getLabel() + ":", metrics.getPhaseMillisPerStep(phase));
+                }
+            }
+            System.out.printf("pairs/step:      %.1f%n", metrics.getPairsTested() / (double) measured);
+            System.out.printf("collisions/step: %.2f (walls %.2f)%n", metrics.getCollisions() / (double) measured, metrics.getWallCollisions() / (double) measured);
+            System.out.printf("allocated/step:  %.1f bytes%n", metrics.getAllocatedBytes() / (double) measured);
+        }
+        if (particleSystem instanceof DistributedParticleSystem) {
+            ((DistributedParticleSystem) particleSystem).close();
+        }
+        if (trajectoryWriter != null) {
+            System.out.println("trajectory:      " + trajectoryWriter.getFrameCount() + " frames of " + trajectoryWriter.getFrameSize() + " bytes in " + trajectory);
+        }
+    }
+
+    private static void usage(String error) {
+        System.err.println(error);
+        System.err.println("usage: HeadlessMain [--particles N] [--width W] [--height H] [--steps S] [--warmup S] [--seed X] [--threads T] [--skin S] [--trajectory FILE] [--every N] [--float32] [--velocities] [--checkpoint FILE] [--restore FILE] [--metrics] [--event-driven] [--vanderwaals] [--temperature T] [--no-substeps] [--workers N] [--off-heap]");
+        System.exit(1);
+    }
+}
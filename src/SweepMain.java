@@ -0,0 +1,94 @@
+import engine.ParameterSweep;
+
+import java.util.List;
+
+/**
+ * Command-line parameter sweep, runs a headless system for every combination of volume, temperature and particle count
+ * in parallel and prints measured P*V against N k T.
+ * usage: SweepMain [--volumes V[,V...]] [--temperatures T[,T...]] [--particles N[,N...]] [--steps S] [--warmup S] [--workers W] [--seed X] [--event-driven] [--vanderwaals]
+ */
+public class SweepMain {
+
+    public static void main(String[] args) {
+        //an isotherm of 100 particles by default, from dense to dilute
+        double[] volumes = {250_000, 500_000, 1_000_000, 2_000_000, 4_000_000};
+        double[] temperatures = {10};
+        int[] particleCounts = {100};
+        long steps = ParameterSweep.DEFAULT_STEPS;
+        long warmup = ParameterSweep.DEFAULT_WARMUP;
+        int workers = Runtime.getRuntime().availableProcessors();
+        long seed = 42;
+        boolean eventDriven = false;
+        boolean vanderWaals = false;
+
+        //parse options
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--volumes": volumes = parseDoubles(args[++i]); break;
+                    case "--temperatures": temperatures = parseDoubles(args[++i]); break;
+                    case "--particles":
+                        double[] counts = parseDoubles(args[++i]);
+                        particleCounts = new int[counts.length];
+                        for (int k = 0; k < counts.length; k++) { particleCounts[k] = (int) counts[k]; }
+                        break;
+                    case "--steps": steps = Long.parseLong(args[++i]); break;
+                    case "--warmup": warmup = Long.parseLong(args[++i]); break;
+                    case "--workers": workers = Integer.parseInt(args[++i]); break;
+                    case "--seed": seed = Long.parseLong(args[++i]); break;
+                    case "--event-driven": eventDriven = true; break;
+                    case "--vanderwaals": vanderWaals = true; break;
+                    default: usage("unknown option " + args[i]); return;
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            usage("invalid arguments: " + e.getMessage());
+            return;
+        }
+        if (eventDriven && vanderWaals) {
+            usage("--event-driven is only available for the ideal gas");
+            return;
+        }
+
+        ParameterSweep sweep = new ParameterSweep(vanderWaals);
+        sweep.setSteps(steps);
+        sweep.setWarmup(warmup);
+        sweep.setWorkers(workers);
+        sweep.setSeed(seed);
+        sweep.setEventDriven(eventDriven);
+
+        long start = System.nanoTime();
+        List<ParameterSweep.Point> points;
+        try {
+            points = sweep.run(volumes, temperatures, particleCounts);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%-12s %-10s %-10s %12s %12s %14s %14s %10s %12s%n",
+                "volume", "particles", "T target", "T measured", "pressure", "P*V", "N*k*T", "PV/NkT", "steps/s");
+        for (ParameterSweep.Point point : points) {
+            System.out.printf("%-12.0f %-10d %-10.3f %12.4f %12.6f %14.4f %14.4f %10.4f %12.1f%n",
+                    point.getVolume(), point.getParticles(), point.getTargetTemperature(), point.getTemperature(),
+                    point.getPressure(), point.getPV(), point.getNkT(), point.getCompressibility(), point.getStepsPerSecond());
+        }
+        System.out.printf("%d runs of %d steps on %d workers in %.2f s%n", points.size(), steps + warmup, sweep.getWorkers(), seconds);
+    }
+
+    private static double[] parseDoubles(String list) {
+        String[] values = list.split(",");
+        double[] parsed = new double[values.length];
+        for (int k = 0; k < values.length; k++) {
+            parsed[k] = Double.parseDouble(values[k].trim());
+        }
+        return parsed;
+    }
+
+    private static void usage(String error) {
+        System.err.println(error);
+        System.err.println("usage: SweepMain [--volumes V[,V...]] [--temperatures T[,T...]] [--particles N[,N...]] [--steps S] [--warmup S] [--workers W] [--seed X] [--event-driven] [--vanderwaals]");
+        System.exit(1);
+    }
+}
@@ -1,13 +1,34 @@
 package animation;
 
+import engine.SimulationLoop;
 import javafx.animation.*;
 import javafx.scene.layout.Pane;
-import javafx.util.Duration;
+import metrics.SimulationMetrics;
 import models.ParticleSystem;
 
 public class ParticleAnimationService{
     private static ParticleAnimationService particleAnimationService;
-    private final Timeline timeline = new Timeline();
+    private ParticleRenderer particleRenderer = new ParticleNodeRenderer();
+    private SimulationLoop simulationLoop;
+    private Pane animationPane;
+    //speed distribution chart, only drawn when a pane for it was given
+    private final SpeedHistogramRenderer speedHistogramRenderer = new SpeedHistogramRenderer();
+    private Pane speedHistogramPane;
+
+    //runs on every FX pulse, draws the latest snapshot published by the simulation thread
+    private final AnimationTimer renderTimer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            //hand the current pane size to the physics thread
+            simulationLoop.setBounds(animationPane.getWidth(), animationPane.getHeight());
+            //draw the latest state once per frame
+            particleRenderer.render(simulationLoop.getSnapshotBuffer().acquire());
+            //redrawn only when the simulation thread published a new sample
+            if(speedHistogramPane != null){
+                speedHistogramRenderer.render(simulationLoop.getSpeedDistribution());
+            }
+        }
+    };
 
     /**
      * Private constructor of particle animation service
@@ -34,32 +55,69 @@ public class ParticleAnimationService{
      * @param animationPane, the pane where the animation will be drawn
      */
     public void animate(ParticleSystem particleSystem, Pane animationPane){
-        timeline.getKeyFrames().clear();
+        this.animationPane = animationPane;
         //init starting position of particles
         particleSystem.init(animationPane.getWidth(), animationPane.getHeight());
-        animationPane.getChildren().addAll(particleSystem.getParticles());
+        particleRenderer.attach(particleSystem, animationPane);
+        //the engine keeps the speed histogram up to date through the collisions, only while it is shown
+        particleSystem.setSpeedHistogramEnabled(speedHistogramPane != null);
+        //-Dgaslaws.metrics=true publishes step timing and counters over JMX
+        if(Boolean.getBoolean(SimulationMetrics.ENABLE_PROPERTY) && particleSystem.getMetrics() == null){
+            SimulationMetrics metrics = new SimulationMetrics();
+            metrics.register(particleSystem.getClass().getSimpleName());
+            particleSystem.setMetrics(metrics);
+        }
 
-        //set animation loop to run continuously (unless we call timeline.stop())
-        timeline.setCycleCount(Timeline.INDEFINITE);
+        //physics runs on its own thread at a fixed time step, independent of the frame rate
+        simulationLoop = new SimulationLoop(particleSystem, animationPane.getWidth(), animationPane.getHeight());
+        simulationLoop.start();
+        //begin render loop
+        renderTimer.start();
 
-        //Particle Updates Calculated Every 60 seconds In This KeyFrame
-        KeyFrame kf = new KeyFrame(Duration.seconds(0.017), event -> {
-                //updating particle position
-                particleSystem.updateParticlePositions(animationPane.getWidth(), animationPane.getHeight());
-            }
-        );
-        timeline.getKeyFrames().add(kf);
-        //begin simulation loop
-        timeline.playFromStart();
+    }
 
+    /**
+     * show the speed distribution of the running system, with the Maxwell-Boltzmann curve, in the given pane
+     * @param speedHistogramPane, pane to draw the chart into, takes effect on the next call to animate
+     */
+    public void setSpeedHistogramPane(Pane speedHistogramPane){
+        if(this.speedHistogramPane == null && speedHistogramPane != null){
+            speedHistogramRenderer.attach(speedHistogramPane);
+        }
+        this.speedHistogramPane = speedHistogramPane;
     }
 
     /**
-     * stop the current timeline animation
+     * change the number of particles while the animation runs, without restarting it: the simulation thread adds or
+     * removes particles between steps and the renderer picks up the new count with the next snapshot
+     * @param numberOfParticles, total number of particles
+     * @return false if no animation is running, the count then takes effect on the next call to animate
+     */
+    public boolean setNumberOfParticles(int numberOfParticles){
+        if(simulationLoop == null || !simulationLoop.isRunning()){
+            return false;
+        }
+        simulationLoop.setNumberOfParticles(numberOfParticles);
+        return true;
+    }
+
+    /**
+     * choose how particles are drawn, takes effect on the next call to animate
+     * @param particleRenderer, node-per-particle or canvas renderer
+     */
+    public void setRenderer(ParticleRenderer particleRenderer){
+        this.particleRenderer = particleRenderer;
+    }
+
+    /**
+     * stop the current animation
      * @param animationPane, pane where animation is running
      */
     public void stopAnimation(Pane animationPane){
-        timeline.stop();
+        renderTimer.stop();
+        if(simulationLoop != null){
+            simulationLoop.stop();
+        }
         animationPane.getChildren().clear();
     }
 }
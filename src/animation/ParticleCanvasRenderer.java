@@ -0,0 +1,82 @@
+package animation;
+
+import engine.ParticleSnapshot;
+import javafx.geometry.Bounds;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.effect.DropShadow;
+import javafx.scene.image.Image;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Circle;
+import models.ParticleSystem;
+
+/**
+ * About: Draws every particle into a single Canvas in one pass.
+ * The shaded particle is rendered once into a sprite image, each frame is then just one drawImage per particle,
+ * so there are no per-particle nodes, effects or caches for the scene graph to lay out.
+ */
+public class ParticleCanvasRenderer implements ParticleRenderer {
+    private final Canvas canvas = new Canvas();
+    private Color color;
+    private Color strokeColor;
+
+    //pre-rendered particle, and where its top left corner sits relative to the particle center
+    private Image sprite;
+    private double spriteRadius = -1;
+    private double spriteOffsetX;
+    private double spriteOffsetY;
+
+    @Override
+    public void attach(ParticleSystem particleSystem, Pane animationPane) {
+        this.color = Color.web(particleSystem.getColor());
+        this.strokeColor = Color.web(particleSystem.getStrokeColor());
+        //the system color may have changed since the last run
+        this.spriteRadius = -1;
+        canvas.widthProperty().bind(animationPane.widthProperty());
+        canvas.heightProperty().bind(animationPane.heightProperty());
+        animationPane.getChildren().add(canvas);
+    }
+
+    @Override
+    public void render(ParticleSnapshot snapshot) {
+        GraphicsContext graphics = canvas.getGraphicsContext2D();
+        graphics.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+
+        double[] x = snapshot.getX();
+        double[] y = snapshot.getY();
+        double[] radius = snapshot.getRadius();
+        for(int i = 0; i < snapshot.size(); i++){
+            //only re-render the sprite when the particle size changes
+            if(radius[i] != spriteRadius){
+                renderSprite(radius[i]);
+            }
+            graphics.drawImage(sprite, x[i] + spriteOffsetX, y[i] + spriteOffsetY);
+        }
+    }
+
+    /**
+     * render one shaded particle of the given radius into the sprite image
+     * @param radius, particle radius
+     */
+    private void renderSprite(double radius){
+        Circle particle = new Circle(radius);
+        particle.setFill(color);
+        particle.setStroke(strokeColor);
+        //Coool shadow effect! (gives the particles depth)
+        DropShadow particleShadow = new DropShadow();
+        particleShadow.setRadius(radius);
+        particleShadow.setOffsetX(1);
+        particleShadow.setOffsetY(1);
+        particle.setEffect(particleShadow);
+
+        SnapshotParameters parameters = new SnapshotParameters();
+        parameters.setFill(Color.TRANSPARENT);
+        Bounds bounds = particle.getBoundsInParent();
+        this.sprite = particle.snapshot(parameters, null);
+        this.spriteOffsetX = bounds.getMinX();
+        this.spriteOffsetY = bounds.getMinY();
+        this.spriteRadius = radius;
+    }
+}
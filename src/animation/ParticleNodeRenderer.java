@@ -0,0 +1,128 @@
+package animation;
+
+import engine.ParticleSnapshot;
+import javafx.scene.effect.DropShadow;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import models.Particle;
+import models.ParticleStore;
+import models.ParticleSystem;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * About: Draws a particle system as one Circle node per particle.
+ * The nodes are a pure view of the ParticleStore and are synced once per rendered frame.
+ * Nodes are pooled: a run reuses the nodes of earlier runs, and when the particle count changes while running only
+ * the nodes of the particles added or removed enter or leave the pane.
+ */
+public class ParticleNodeRenderer implements ParticleRenderer {
+    //every node created so far, node i shows the particle with id i; the first shown of them are in the pane
+    private final ArrayList<Particle> particles = new ArrayList<Particle>();
+    private int shown;
+    private Pane animationPane;
+    //index of the first node among the pane's children
+    private int firstChild;
+    private Color color;
+    private Color strokeColor;
+
+    @Override
+    public void attach(ParticleSystem particleSystem, Pane animationPane) {
+        this.animationPane = animationPane;
+        this.firstChild = animationPane.getChildren().size();
+        List<Particle> nodes = createNodes(particleSystem);
+        animationPane.getChildren().addAll(nodes);
+        this.shown = nodes.size();
+    }
+
+    @Override
+    public void render(ParticleSnapshot snapshot) {
+        show(snapshot);
+        sync(snapshot);
+    }
+
+    /**
+     * style a node for every particle currently in the system, node i shows the particle with id i.
+     * Nodes left from earlier runs are restyled instead of built again
+     * @param particleSystem, the system to draw
+     * @return the nodes to add to the animation pane
+     */
+    public List<Particle> createNodes(ParticleSystem particleSystem){
+        ParticleStore store = particleSystem.getParticleStore();
+        this.color = Color.web(particleSystem.getColor());
+        this.strokeColor = Color.web(particleSystem.getStrokeColor());
+        for(int particleId = 0; particleId < store.size(); particleId++){
+            int i = store.indexOf(particleId);
+            Particle particle = node(particleId, store.getRadius()[i]);
+            particle.sync(store, i);
+        }
+        return particles.subList(0, store.size());
+    }
+
+    /**
+     * add or remove nodes at the end so the pane shows exactly the particles of the snapshot
+     * @param snapshot, particle state published by the simulation thread
+     */
+    private void show(ParticleSnapshot snapshot){
+        int size = snapshot.size();
+        if(size == shown || animationPane == null){
+            return;
+        }
+        if(size > shown){
+            double[] radius = snapshot.getRadius();
+            for(int particleId = shown; particleId < size; particleId++){
+                node(particleId, radius[particleId]);
+            }
+            animationPane.getChildren().addAll(particles.subList(shown, size));
+        } else {
+            animationPane.getChildren().remove(firstChild + size, firstChild + shown);
+        }
+        shown = size;
+    }
+
+    /**
+     * the pooled node for a particle, created on first use, styled for the current system
+     * @param particleId, id of the particle the node shows
+     * @param radius, radius of the particle
+     * @return the node
+     */
+    private Particle node(int particleId, double radius){
+        if(particleId == particles.size()){
+            Particle particle = new Particle(radius);
+            //Coool shadow effect! (gives the particles depth)
+            DropShadow particleShadow = new DropShadow();
+            particleShadow.setOffsetX(1);
+            particleShadow.setOffsetY(1);
+            particle.setEffect(particleShadow);
+            particle.setCache(true);
+            particles.add(particle);
+        }
+        Particle particle = particles.get(particleId);
+        particle.setColor(color);
+        particle.setStroke(strokeColor);
+        particle.setRadius(radius);
+        ((DropShadow) particle.getEffect()).setRadius(radius);
+        return particle;
+    }
+
+    /**
+     * copy the positions of a published snapshot onto the nodes
+     * @param snapshot, particle state published by the simulation thread
+     */
+    public void sync(ParticleSnapshot snapshot){
+        double[] x = snapshot.getX();
+        double[] y = snapshot.getY();
+        int size = Math.min(snapshot.size(), shown);
+        for(int i = 0; i < size; i++){
+            particles.get(i).setPosition(x[i], y[i]);
+        }
+    }
+
+    /**
+     * @return the nodes shown for the current system
+     */
+    public List<Particle> getParticles() {
+        return particles.subList(0, shown);
+    }
+}
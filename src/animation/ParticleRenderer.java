@@ -0,0 +1,24 @@
+package animation;
+
+import engine.ParticleSnapshot;
+import javafx.scene.layout.Pane;
+import models.ParticleSystem;
+
+/**
+ * About: Draws the snapshots published by the simulation thread into the animation pane.
+ */
+public interface ParticleRenderer {
+
+    /**
+     * set up whatever the renderer draws into and add it to the pane
+     * @param particleSystem, the system that will be drawn
+     * @param animationPane, the pane where the animation will be drawn
+     */
+    void attach(ParticleSystem particleSystem, Pane animationPane);
+
+    /**
+     * draw one frame, called on every FX pulse
+     * @param snapshot, particle state published by the simulation thread
+     */
+    void render(ParticleSnapshot snapshot);
+}
@@ -0,0 +1,98 @@
+package animation;
+
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import physics.SpeedDistribution;
+
+/**
+ * About: Draws the speed histogram as bars with the Maxwell-Boltzmann curve of the same temperature on top,
+ * into one Canvas. Only redraws when a new sample was published, a few times a second.
+ */
+public class SpeedHistogramRenderer {
+    //samples along the theoretical curve
+    private static final int CURVE_POINTS = 100;
+    private static final double LABEL_HEIGHT = 14;
+    private final Canvas canvas = new Canvas();
+    private final Color barColor = Color.web("steelblue");
+    private final Color curveColor = Color.web("indianred");
+    private final Color textColor = Color.web("black");
+    private final Font font = new Font("Comic Sans MS", 10);
+    private SpeedDistribution drawn;
+
+    /**
+     * draw into the given pane from now on, the chart follows the pane's size
+     * @param pane, pane to draw into
+     */
+    public void attach(Pane pane){
+        canvas.widthProperty().bind(pane.widthProperty());
+        canvas.heightProperty().bind(pane.heightProperty());
+        pane.getChildren().add(canvas);
+    }
+
+    /**
+     * draw the given sample, does nothing if it was already drawn
+     * @param distribution, sample to draw, null clears the chart
+     */
+    public void render(SpeedDistribution distribution){
+        if(distribution == drawn){
+            return;
+        }
+        drawn = distribution;
+        GraphicsContext graphics = canvas.getGraphicsContext2D();
+        double width = canvas.getWidth();
+        double height = canvas.getHeight();
+        graphics.clearRect(0, 0, width, height);
+        if(distribution == null || distribution.getParticles() == 0){
+            return;
+        }
+
+        int bins = distribution.getBins();
+        double chartHeight = height - LABEL_HEIGHT;
+        double barWidth = width / bins;
+        //scale to the tallest bar or the top of the curve, whichever is higher
+        double mostProbable = Math.sqrt(distribution.getTemperature() / distribution.getMass());
+        double curvePeak = distribution.getParticles() * distribution.getBinWidth() * distribution.getDensity(mostProbable);
+        double top = curvePeak;
+        for(int bin = 0; bin < bins; bin++){
+            top = Math.max(top, distribution.getCount(bin));
+        }
+        if(top <= 0){
+            return;
+        }
+        double scale = chartHeight / top;
+
+        graphics.setFill(barColor);
+        for(int bin = 0; bin < bins; bin++){
+            double barHeight = distribution.getCount(bin) * scale;
+            graphics.fillRect(bin * barWidth, chartHeight - barHeight, Math.max(1, barWidth - 1), barHeight);
+        }
+
+        //the curve as expected particles per bin: N * bin width * f(v)
+        double maxSpeed = bins * distribution.getBinWidth();
+        graphics.setStroke(curveColor);
+        graphics.setLineWidth(2);
+        graphics.beginPath();
+        for(int k = 0; k <= CURVE_POINTS; k++){
+            double speed = maxSpeed * k / CURVE_POINTS;
+            double expected = distribution.getParticles() * distribution.getBinWidth() * distribution.getDensity(speed);
+            double px = width * k / CURVE_POINTS;
+            double py = chartHeight - expected * scale;
+            if(k == 0){
+                graphics.moveTo(px, py);
+            } else {
+                graphics.lineTo(px, py);
+            }
+        }
+        graphics.stroke();
+
+        graphics.setStroke(textColor);
+        graphics.setLineWidth(1);
+        graphics.strokeLine(0, chartHeight, width, chartHeight);
+        graphics.setFill(textColor);
+        graphics.setFont(font);
+        graphics.fillText(String.format("speed (T = %.2f)", distribution.getTemperature()), 2, height - 2);
+    }
+}
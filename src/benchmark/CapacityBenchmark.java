@@ -0,0 +1,129 @@
+package benchmark;
+
+import engine.HeadlessEngine;
+import models.IdealParticleSystem;
+import models.OffHeapParticleStore;
+import models.OffHeapParticleSystem;
+import models.ParticleStore;
+import models.ParticleSystem;
+
+/**
+ * About: Runs the simulation headless at large particle counts and checks it still behaves.
+ * The box grows with the particle count so every run has the same packing fraction (same physics, more of it),
+ * and after each run the energy, particle count and positions are validated before throughput and memory are reported.
+ * --off-heap steps an OffHeapParticleSystem (run with --add-modules jdk.incubator.foreign), whose particles are not on the heap.
+ * usage: CapacityBenchmark [--particles N[,N...]] [--steps S] [--packing F] [--threads T] [--event-driven] [--no-reorder] [--off-heap]
+ */
+public class CapacityBenchmark {
+    private static final long SEED = 42;
+    //particle radius set by ParticleSystem.init
+    private static final double RADIUS = 10;
+    //the kinetic energy may drift by this fraction before a run is reported as failed
+    private static final double ENERGY_TOLERANCE = 1e-6;
+
+    public static void main(String[] args) {
+        int[] particleCounts = {10_000, 100_000, 1_000_000};
+        long steps = 100;
+        double packing = 0.05;
+        int threads = 0;
+        boolean eventDriven = false;
+        boolean reordering = true;
+        boolean offHeap = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--particles":
+                        String[] counts = args[++i].split(",");
+                        particleCounts = new int[counts.length];
+                        for (int k = 0; k < counts.length; k++) { particleCounts[k] = Integer.parseInt(counts[k].trim()); }
+                        break;
+                    case "--steps": steps = Long.parseLong(args[++i]); break;
+                    case "--packing": packing = Double.parseDouble(args[++i]); break;
+                    case "--threads": threads = Integer.parseInt(args[++i]); break;
+                    case "--event-driven": eventDriven = true; break;
+                    case "--no-reorder": reordering = false; break;
+                    case "--off-heap": offHeap = true; break;
+                    default: usage("unknown option " + args[i]); return;
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            usage("invalid arguments: " + e.getMessage());
+            return;
+        }
+        if (offHeap && (eventDriven || threads > 0)) {
+            usage("--off-heap steps the time-stepped ideal gas on one thread");
+            return;
+        }
+        if (offHeap && !OffHeapParticleStore.isAvailable()) {
+            usage("--off-heap needs --add-modules " + OffHeapParticleStore.MODULE);
+            return;
+        }
+
+        System.out.printf("%-10s %-16s %12s %12s %12s %12s %10s%n", "particles", "box", "steps/s", "ms/step", "heap MB", "energy drift", "valid");
+        boolean allValid = true;
+        for (int particles : particleCounts) {
+            //square box holding the particles at the requested packing fraction
+            double side = Math.ceil(Math.sqrt(particles * Math.PI * RADIUS * RADIUS / packing));
+
+            System.gc();
+            long heapBefore = usedHeap();
+            ParticleSystem particleSystem;
+            if (offHeap) {
+                particleSystem = new OffHeapParticleSystem(particles);
+            } else {
+                IdealParticleSystem idealSystem = new IdealParticleSystem(particles);
+                idealSystem.setParallelism(threads);
+                idealSystem.setEventDriven(eventDriven);
+                idealSystem.setReordering(reordering);
+                particleSystem = idealSystem;
+            }
+            particleSystem.setSeed(SEED);
+            HeadlessEngine engine = new HeadlessEngine(particleSystem, side, side);
+            engine.init(particles);
+
+            double energyBefore = particleSystem.getKineticEnergy();
+            //one step first so the grid and engine buffers are sized before memory is sampled
+            engine.run(1);
+            long heapUsed = usedHeap() - heapBefore;
+            long nanos = engine.run(steps);
+            double drift = Math.abs(particleSystem.getKineticEnergy() - energyBefore) / energyBefore;
+
+            boolean valid = particleSystem.getNumberOfParticles() == particles
+                    && drift < ENERGY_TOLERANCE
+                    && inBounds(particleSystem, side, side);
+            allValid &= valid;
+            double stepsPerSecond = steps / (nanos / 1e9);
+            System.out.printf("%-10d %-16s %12.1f %12.3f %12.1f %12.2e %10s%n",
+                    particles, (long) side + "x" + (long) side, stepsPerSecond, 1000 / stepsPerSecond, heapUsed / 1e6, drift, valid);
+        }
+        if (!allValid) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * every particle center must be inside the box (a particle that tunnels through a wall ends up outside it for good)
+     */
+    private static boolean inBounds(ParticleSystem particleSystem, double xBounds, double yBounds) {
+        ParticleStore store = particleSystem.getParticleStore();
+        double[] x = store.getX();
+        double[] y = store.getY();
+        for (int i = 0; i < store.size(); i++) {
+            if (!(x[i] >= 0 && x[i] <= xBounds && y[i] >= 0 && y[i] <= yBounds)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void usage(String error) {
+        System.err.println(error);
+        System.err.println("usage: CapacityBenchmark [--particles N[,N...]] [--steps S] [--packing F] [--threads T] [--event-driven] [--no-reorder] [--off-heap]");
+        System.exit(1);
+    }
+}
@@ -0,0 +1,308 @@
+package benchmark;
+
+import distributed.DistributedParticleSystem;
+import engine.HeadlessEngine;
+import models.IdealParticleSystem;
+import models.OffHeapParticleStore;
+import models.OffHeapParticleSystem;
+import models.ParticleStore;
+import models.ParticleSystem;
+import models.VanderWaalsParticleSystem;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * About: Regression suite of fixed, seeded scenarios. Every scenario is run several times from the same seed and checked:
+ * all runs must end in the same state (ParticleStore.checksum), that state must match the checksum stored in the baselines
+ * file, the energy must be conserved and every particle must still be in the box. The steps/second of the fastest run are
+ * compared with the stored baseline as well, so a speed-up that changes the physics shows up as a checksum failure and a
+ * slow-down as a performance failure, instead of the two being confused.
+ *
+ * Checksums hold on any machine with the same JDK (the vector kernel and the thread count do not change them);
+ * steps/second only mean something on the machine that recorded them. The off-heap scenario only runs with --add-modules jdk.incubator.foreign. Run with --record to store the current results;
+ * without it the baselines file must exist.
+ * usage: GoldenRuns [--baselines FILE] [--record] [--tolerance F] [--repeat N] [--filter TEXT]
+ */
+public class GoldenRuns {
+    public static final String DEFAULT_BASELINES = "src/benchmark/golden-runs.properties";
+    //a run is slower than its baseline when its steps/second fall more than this fraction below the recorded ones
+    private static final double DEFAULT_TOLERANCE = 0.3;
+
+    private static final Scenario[] SCENARIOS = {
+            //the dashboard's system: time-stepped with the Verlet neighbor list
+            new Scenario("ideal.sequential", false, false, false, 0, 0, -1, 300, 1000, 750, 20000, 1e-9),
+            new Scenario("ideal.grid", false, false, false, 0, 0, 0, 300, 1000, 750, 20000, 1e-9),
+            //the same run with the particles off the heap, it must end in the same state as ideal.grid
+            new Scenario("ideal.offHeap", false, false, true, 0, 0, 0, 300, 1000, 750, 20000, 1e-9),
+            new Scenario("ideal.parallel", false, false, false, 4, 0, -1, 20000, 11200, 11200, 300, 1e-9),
+            new Scenario("ideal.eventDriven", false, true, false, 0, 0, -1, 300, 1000, 750, 20000, 1e-9),
+            //the parallel box split into slabs, each stepped by a worker process
+            new Scenario("ideal.distributed", false, false, false, 0, 4, -1, 20000, 11200, 11200, 300, 1e-9),
+            //velocity Verlet conserves the total energy only up to the integration error
+            new Scenario("vanderwaals", true, false, false, 0, 0, -1, 300, 600, 450, 2000, 1e-2),
+            new Scenario("vanderwaals.parallel", true, false, false, 4, 0, -1, 5000, 2500, 2500, 200, 1e-2),
+    };
+
+    public static void main(String[] args) {
+        String baselinesFile = DEFAULT_BASELINES;
+        boolean record = false;
+        double tolerance = DEFAULT_TOLERANCE;
+        int repeat = 3;
+        String filter = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--baselines": baselinesFile = args[++i]; break;
+                    case "--record": record = true; break;
+                    case "--tolerance": tolerance = Double.parseDouble(args[++i]); break;
+                    case "--repeat": repeat = Integer.parseInt(args[++i]); break;
+                    case "--filter": filter = args[++i]; break;
+                    default: usage("unknown option " + args[i]); return;
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            usage("invalid arguments: " + e.getMessage());
+            return;
+        }
+        if (repeat < 2) {
+            usage("--repeat must be at least 2, the first run only warms up");
+            return;
+        }
+
+        Path baselinesPath = Paths.get(baselinesFile);
+        Properties baselines = new Properties();
+        if (!Files.exists(baselinesPath) && !record) {
+            //without baselines every checksum would pass unchecked
+            usage("cannot find " + baselinesPath.toAbsolutePath() + ", run from the repository root, pass --baselines FILE, or --record to create it");
+            return;
+        }
+        if (Files.exists(baselinesPath)) {
+            try (BufferedReader reader = Files.newBufferedReader(baselinesPath, StandardCharsets.UTF_8)) {
+                baselines.load(reader);
+            } catch (IOException e) {
+                usage("cannot read " + baselinesFile + ": " + e.getMessage());
+                return;
+            }
+        }
+
+        System.out.printf("%-22s %-18s %12s %12s %8s %12s  %s%n", "scenario", "checksum", "steps/s", "baseline", "ratio", "energy drift", "result");
+        boolean allPassed = true;
+        for (Scenario scenario : SCENARIOS) {
+            if (filter != null && !scenario.name.contains(filter)) {
+                continue;
+            }
+            if (scenario.offHeap && !OffHeapParticleStore.isAvailable()) {
+                System.out.printf("%-22s skipped, needs --add-modules %s%n", scenario.name, OffHeapParticleStore.MODULE);
+                continue;
+            }
+            Result result = run(scenario, repeat);
+            String expectedChecksum = baselines.getProperty(scenario.name + ".checksum");
+            double baselineSpeed = Double.parseDouble(baselines.getProperty(scenario.name + ".stepsPerSecond", "0"));
+
+            //a run that does not repeat itself, loses energy or loses particles is broken, whatever the baselines say
+            boolean energyConserved = result.energyDrift <= scenario.energyTolerance;
+            boolean particlesKept = result.particles == scenario.particles && result.inBounds;
+            boolean broken = !result.repeatable || !energyConserved || !particlesKept;
+            boolean checksumMatches = expectedChecksum == null || expectedChecksum.equals(hex(result.checksum));
+            double ratio = (baselineSpeed > 0)? result.stepsPerSecond / baselineSpeed : 0;
+            boolean slower = baselineSpeed > 0 && ratio < 1 - tolerance;
+
+            StringBuilder failures = new StringBuilder();
+            if (!result.repeatable) {
+                failures.append(" NOT-REPEATABLE");
+            }
+            if (!checksumMatches) {
+                failures.append(" CHECKSUM");
+            }
+            if (!energyConserved) {
+                failures.append(" ENERGY");
+            }
+            if (!particlesKept) {
+                failures.append(" PARTICLES");
+            }
+            if (slower) {
+                failures.append(" SLOWER");
+            }
+            //recording accepts a new state or speed on purpose, never a broken run
+            boolean passed = (record)? !broken : failures.length() == 0;
+            allPassed &= passed;
+            String status = (failures.length() == 0)? ((expectedChecksum == null)? "new" : "ok") : failures.toString().trim();
+            System.out.printf("%-22s %-18s %12.1f %12.1f %8.2f %12.2e  %s%n", scenario.name, hex(result.checksum),
+                    result.stepsPerSecond, baselineSpeed, ratio, result.energyDrift, status);
+            if (!checksumMatches) {
+                System.out.printf("%-22s %-18s (expected)%n", "", expectedChecksum);
+            }
+
+            if (record && passed) {
+                baselines.setProperty(scenario.name + ".checksum", hex(result.checksum));
+                baselines.setProperty(scenario.name + ".stepsPerSecond", String.format(Locale.ROOT, "%.1f", result.stepsPerSecond));
+            }
+        }
+
+        if (record) {
+            try {
+                write(baselines, baselinesPath);
+                System.out.println("baselines written to " + baselinesFile);
+            } catch (IOException e) {
+                System.err.println("could not write " + baselinesFile + ": " + e.getMessage());
+                System.exit(1);
+            }
+        }
+        if (!allPassed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * run a scenario the given number of times from its seed, the first run only warms up the JIT
+     */
+    private static Result run(Scenario scenario, int repeat) {
+        Result result = new Result();
+        result.repeatable = true;
+        for (int attempt = 0; attempt < repeat; attempt++) {
+            ParticleSystem particleSystem;
+            if (scenario.workers > 0) {
+                particleSystem = new DistributedParticleSystem(scenario.workers, scenario.particles);
+            } else if (scenario.offHeap) {
+                particleSystem = new OffHeapParticleSystem(scenario.particles);
+            } else {
+                particleSystem = (scenario.vanderWaals)? new VanderWaalsParticleSystem(scenario.particles) : new IdealParticleSystem(scenario.particles);
+            }
+            particleSystem.setSeed(scenario.seed);
+            particleSystem.setParallelism(scenario.threads);
+            particleSystem.setNeighborSkin(scenario.skin);
+            if (scenario.eventDriven) {
+                ((IdealParticleSystem) particleSystem).setEventDriven(true);
+            }
+            HeadlessEngine engine = new HeadlessEngine(particleSystem, scenario.width, scenario.height);
+            engine.init(scenario.particles);
+
+            //the first step fills in the observables, potential energy included, so the drift is measured from there
+            engine.run(1);
+            double kineticEnergy = particleSystem.getObservables().getKineticEnergy();
+            double energy = particleSystem.getObservables().getEnergy();
+            long nanos = engine.run(scenario.steps - 1);
+            double drift = Math.abs(particleSystem.getObservables().getEnergy() - energy) / kineticEnergy;
+            long checksum = particleSystem.getParticleStore().checksum();
+            particleSystem.setParallelism(0);
+            //the final state was gathered for the checksum, the workers are not needed any more
+            if (particleSystem instanceof DistributedParticleSystem) {
+                ((DistributedParticleSystem) particleSystem).close();
+            }
+
+            if (attempt == 0) {
+                result.checksum = checksum;
+                result.particles = particleSystem.getNumberOfParticles();
+                result.inBounds = inBounds(particleSystem, scenario.width, scenario.height);
+                result.energyDrift = drift;
+            } else {
+                result.repeatable &= checksum == result.checksum;
+                result.stepsPerSecond = Math.max(result.stepsPerSecond, (scenario.steps - 1) / (nanos / 1e9));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * every particle center must be inside the box (a particle that tunnels through a wall ends up outside it for good)
+     */
+    private static boolean inBounds(ParticleSystem particleSystem, double xBounds, double yBounds) {
+        ParticleStore store = particleSystem.getParticleStore();
+        double[] x = store.getX();
+        double[] y = store.getY();
+        for (int i = 0; i < store.size(); i++) {
+            if (!(x[i] >= 0 && x[i] <= xBounds && y[i] >= 0 && y[i] <= yBounds)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * write the baselines sorted by key, so a re-recorded file diffs cleanly
+     */
+    private static void write(Properties baselines, Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("# Golden runs: final-state checksum and steps/second of every scenario in benchmark.GoldenRuns.");
+            writer.newLine();
+            writer.write("# Written by GoldenRuns --record; checksums hold for any machine, steps/second only for the one that recorded them.");
+            writer.newLine();
+            for (String key : new TreeSet<>(baselines.stringPropertyNames())) {
+                writer.write(key + "=" + baselines.getProperty(key));
+                writer.newLine();
+            }
+        }
+    }
+
+    private static String hex(long value) {
+        return String.format("%016x", value);
+    }
+
+    private static void usage(String error) {
+        System.err.println(error);
+        System.err.println("usage: GoldenRuns [--baselines FILE] [--record] [--tolerance F] [--repeat N] [--filter TEXT]");
+        System.exit(1);
+    }
+
+
+    /**
+     * About: A fixed run: system, engine, box, length and seed.
+     */
+    private static class Scenario {
+        private static final long SEED = 42;
+        private final String name;
+        private final boolean vanderWaals;
+        private final boolean eventDriven;
+        //particles kept off the heap, see OffHeapParticleSystem
+        private final boolean offHeap;
+        private final int threads;
+        //worker processes, 0 to step in this JVM
+        private final int workers;
+        private final double skin;
+        private final int particles;
+        private final double width;
+        private final double height;
+        private final long steps;
+        private final long seed;
+        //largest allowed change of the total energy over the run, relative to the kinetic energy
+        private final double energyTolerance;
+
+        Scenario(String name, boolean vanderWaals, boolean eventDriven, boolean offHeap, int threads, int workers, double skin, int particles,
+                 double width, double height, long steps, double energyTolerance){
+            this.name = name;
+            this.vanderWaals = vanderWaals;
+            this.eventDriven = eventDriven;
+            this.offHeap = offHeap;
+            this.threads = threads;
+            this.workers = workers;
+            this.skin = skin;
+            this.particles = particles;
+            this.width = width;
+            this.height = height;
+            this.steps = steps;
+            this.seed = SEED;
+            this.energyTolerance = energyTolerance;
+        }
+    }
+
+    /**
+     * About: What the runs of one scenario ended with.
+     */
+    private static class Result {
+        private long checksum;
+        private boolean repeatable;
+        private int particles;
+        private boolean inBounds;
+        private double energyDrift;
+        private double stepsPerSecond;
+    }
+}
@@ -0,0 +1,415 @@
+package distributed;
+
+import metrics.Phase;
+import models.ParticleSystem;
+import models.ParticleStore;
+import physics.IntegrationKernel;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * About: Ideal gas stepped by several worker processes, each owning a vertical slab of the box (see SlabWorker), so a
+ * run is no longer limited to the memory and cores of one JVM. This object is the coordinator: it places the particles
+ * like any other system, hands every worker the particles of its slab, and each step sends the step to all workers and
+ * sums up the wall impulse, kinetic energy and collisions they report into the observables.
+ *
+ * Between steps the particles live in the workers. getParticleStore gathers them back, with their ids, when it is asked for,
+ * and anything that changes the particles from outside a step (init, setTemperature, a restored checkpoint, a new particle
+ * count, a new box size) gathers them and hands them out again. With the same seed and number of workers a run is
+ * repeatable; the pairs are resolved in a different order than in one JVM, so the trajectory differs from the
+ * sequential and parallel engines'.
+ *
+ * Workers are started on this machine and talk over loopback sockets. They stop with close(), or on their own when the
+ * coordinator's JVM exits and their connection drops.
+ */
+public class DistributedParticleSystem extends ParticleSystem implements AutoCloseable {
+    //how long to wait for the worker processes to start and connect
+    private static final int CONNECT_TIMEOUT_MILLIS = 60_000;
+
+    private final int workers;
+    private final List<String> workerOptions = new ArrayList<String>();
+    private final List<Process> processes = new ArrayList<Process>();
+    private Link[] links;
+
+    //the workers hold the current particles, and the store does
+    private boolean workersCurrent;
+    private boolean storeCurrent = true;
+    //box the slabs were laid out for
+    private double slabXBounds = -1;
+    private double slabYBounds = -1;
+    //id of every gathered particle, in the order gathered
+    private int[] gatheredIds = new int[0];
+    //largest (|v| / radius)^2 the workers reported at the end of the last step, NaN right after handing the particles out
+    private double workerSpeedRatio = Double.NaN;
+
+    /**
+     * @param workers, number of worker processes (slabs), at least 1
+     * @param maxParticles, total maximum allowed particles
+     */
+    public DistributedParticleSystem(int workers, int maxParticles){
+        super(maxParticles);
+        if(workers < 1){
+            throw new IllegalArgumentException("a distributed system needs at least one worker, got " + workers);
+        }
+        this.workers = workers;
+        //the slabs keep the particles of a worker close together anyway
+        super.setReordering(false);
+    }
+
+    /**
+     * JVM options for the worker processes, e.g. -Xmx8g, takes effect when the workers are started (the first step)
+     * @param options, options placed before the worker's main class
+     */
+    public void setWorkerOptions(String... options){
+        workerOptions.clear();
+        workerOptions.addAll(Arrays.asList(options));
+    }
+
+    /**
+     * the particles are sorted by slab in the workers, sorting the coordinator's copy would only cost time
+     */
+    @Override
+    public void setReordering(boolean reordering) {
+    }
+
+    @Override
+    public void init(double xBounds, double yBounds) {
+        ensureStoreCurrent();
+        super.init(xBounds, yBounds);
+        workersCurrent = false;
+    }
+
+    /**
+     * send the step to every worker and record what they report, handing the particles out first if they changed
+     */
+    @Override
+    protected void advance(double xBounds, double yBounds, double dt) {
+        try {
+            if(!workersCurrent || xBounds != slabXBounds || yBounds != slabYBounds){
+                ensureStoreCurrent();
+                distribute(xBounds, yBounds);
+            }
+            int substeps = (Double.isNaN(workerSpeedRatio))? substeps(dt) : substeps(workerSpeedRatio, dt);
+            for(Link link : links){
+                ByteBuffer message = link.buffer(16);
+                message.putInt(SlabWorker.STEP).putDouble(dt).putInt(substeps);
+                link.send(message);
+            }
+            double wallImpulse = 0;
+            double kineticEnergy = 0;
+            double maxSpeedRatio = 0;
+            long wallCollisions = 0;
+            long particleCollisions = 0;
+            int particles = 0;
+            //summed in slab order, so a run is repeatable
+            for(Link link : links){
+                ByteBuffer result = expect(link, SlabWorker.RESULT);
+                wallImpulse += result.getDouble();
+                kineticEnergy += result.getDouble();
+                maxSpeedRatio = Math.max(maxSpeedRatio, result.getDouble());
+                wallCollisions += result.getLong();
+                particleCollisions += result.getLong();
+                particles += result.getInt();
+            }
+            storeCurrent = false;
+            workerSpeedRatio = maxSpeedRatio;
+            profiler.lap(Phase.EXCHANGE);
+            profiler.addCollisions(particleCollisions, wallCollisions);
+            if(particles != store.size()){
+                throw new IllegalStateException("the workers hold " + particles + " particles, the system " + store.size());
+            }
+            observables.record(dt, wallImpulse, kineticEnergy, 0, particles, xBounds, yBounds);
+        } catch (IOException e) {
+            throw new UncheckedIOException("distributed step failed", e);
+        }
+    }
+
+    /**
+     * lay the slabs out for the box and hand every worker the particles in its slab, starting the workers first if needed
+     * @throws IllegalArgumentException if the slabs would be narrower than two particle diameters
+     */
+    private void distribute(double xBounds, double yBounds) throws IOException {
+        double[] x = store.getX();
+        double[] radius = store.getRadius();
+        int size = store.size();
+        double maxRadius = 0;
+        for(int i = 0; i < size; i++){
+            maxRadius = Math.max(maxRadius, radius[i]);
+        }
+        //a particle must not be within reach of both seams of its slab, see SlabWorker
+        double reach = 2 * maxRadius;
+        double slabWidth = xBounds / workers;
+        if(slabWidth < 2 * reach){
+            throw new IllegalArgumentException("a box " + xBounds + " wide is too narrow for " + workers + " slabs of particles with radius " + maxRadius);
+        }
+        if(links == null){
+            start();
+        }
+
+        int[] slabSizes = new int[workers];
+        int[] slabOf = new int[size];
+        for(int i = 0; i < size; i++){
+            //against the same edges the workers compare with, whatever the rounding of the division
+            int slab = Math.max(0, Math.min(workers - 1, (int) (x[i] / slabWidth)));
+            while(slab > 0 && x[i] < slab * slabWidth){
+                slab--;
+            }
+            while(slab < workers - 1 && x[i] >= (slab + 1) * slabWidth){
+                slab++;
+            }
+            slabOf[i] = slab;
+            slabSizes[slabOf[i]]++;
+        }
+        ByteBuffer[] messages = new ByteBuffer[workers];
+        for(int slab = 0; slab < workers; slab++){
+            Link link = links[slab];
+            ByteBuffer setup = link.buffer(4 + 5 * 8);
+            //the last slab ends exactly at the wall, whatever the rounding
+            double xMax = (slab == workers - 1)? xBounds : (slab + 1) * slabWidth;
+            setup.putInt(SlabWorker.SETUP).putDouble(slab * slabWidth).putDouble(xMax).putDouble(xBounds).putDouble(yBounds).putDouble(reach);
+            link.send(setup);
+            messages[slab] = link.buffer(8 + slabSizes[slab] * SlabWorker.PARTICLE_BYTES);
+            messages[slab].putInt(SlabWorker.SCATTER).putInt(slabSizes[slab]);
+        }
+        int[] id = store.getId();
+        for(int i = 0; i < size; i++){
+            messages[slabOf[i]].putInt(id[i])
+                    .putDouble(x[i]).putDouble(store.getY()[i])
+                    .putDouble(store.getXVelocity()[i]).putDouble(store.getYVelocity()[i])
+                    .putDouble(radius[i]).putDouble(store.getMass()[i]);
+        }
+        for(int slab = 0; slab < workers; slab++){
+            links[slab].send(messages[slab]);
+        }
+        slabXBounds = xBounds;
+        slabYBounds = yBounds;
+        workersCurrent = true;
+        //the next step's substeps are worked out from the particles just handed out
+        workerSpeedRatio = Double.NaN;
+        speedsChanged();
+    }
+
+    /**
+     * fetch the particles back from the workers, if they moved since the store was last current
+     */
+    private void ensureStoreCurrent(){
+        if(storeCurrent){
+            return;
+        }
+        try {
+            for(Link link : links){
+                ByteBuffer message = link.buffer(4);
+                message.putInt(SlabWorker.GATHER);
+                link.send(message);
+            }
+            int size = store.size();
+            store.setSize(size);
+            double[] x = store.getX();
+            double[] y = store.getY();
+            double[] vx = store.getXVelocity();
+            double[] vy = store.getYVelocity();
+            double[] radius = store.getRadius();
+            double[] mass = store.getMass();
+            if(gatheredIds.length < size){
+                gatheredIds = new int[store.getCapacity()];
+            }
+            //slab by slab in the order the workers hold them, so handing them out again (e.g. after a checkpoint) gives
+            //every worker the same order and the run goes on exactly as it would have
+            int i = 0;
+            for(Link link : links){
+                ByteBuffer particles = expect(link, SlabWorker.PARTICLES);
+                int count = particles.getInt();
+                for(int k = 0; k < count; k++, i++){
+                    gatheredIds[i] = particles.getInt();
+                    x[i] = particles.getDouble();
+                    y[i] = particles.getDouble();
+                    vx[i] = particles.getDouble();
+                    vy[i] = particles.getDouble();
+                    radius[i] = particles.getDouble();
+                    mass[i] = particles.getDouble();
+                }
+            }
+            if(i != size){
+                throw new IllegalStateException("the workers hold " + i + " particles, the system " + size);
+            }
+            store.setIds(gatheredIds);
+            storeCurrent = true;
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not gather the particles from the workers", e);
+        }
+    }
+
+    /**
+     * launch the worker processes and wire every worker to its neighbors
+     */
+    private void start() throws IOException {
+        InetAddress host = InetAddress.getLoopbackAddress();
+        Link[] connected = new Link[workers];
+        int[] peerPorts = new int[workers];
+        try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress(host, 0), workers)) {
+            int port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+            for(int slab = 0; slab < workers; slab++){
+                processes.add(new ProcessBuilder(workerCommand(port, slab)).inheritIO().start());
+            }
+            server.socket().setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+            for(int k = 0; k < workers; k++){
+                Link link = new Link(server.socket().accept().getChannel(), "coordinator-" + k);
+                ByteBuffer hello = expect(link, SlabWorker.HELLO);
+                int slab = hello.getInt();
+                connected[slab] = link;
+                peerPorts[slab] = hello.getInt();
+            }
+        } catch (SocketTimeoutException e) {
+            destroyWorkers();
+            throw new IOException("the worker processes did not connect within " + CONNECT_TIMEOUT_MILLIS + " ms", e);
+        }
+        for(int slab = 0; slab < workers; slab++){
+            ByteBuffer connect = connected[slab].buffer(12);
+            connect.putInt(SlabWorker.CONNECT).putInt(workers).putInt((slab > 0)? peerPorts[slab - 1] : -1);
+            connected[slab].send(connect);
+        }
+        for(Link link : connected){
+            expect(link, SlabWorker.READY);
+        }
+        this.links = connected;
+    }
+
+    /**
+     * the same java, class path and vector setting as this JVM, plus the worker options
+     */
+    private List<String> workerCommand(int port, int slab){
+        List<String> command = new ArrayList<String>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        if(ModuleLayer.boot().findModule(IntegrationKernel.VECTOR_MODULE).isPresent()){
+            command.add("--add-modules");
+            command.add(IntegrationKernel.VECTOR_MODULE);
+        }
+        String vector = System.getProperty(IntegrationKernel.VECTOR_PROPERTY);
+        if(vector != null){
+            command.add("-D" + IntegrationKernel.VECTOR_PROPERTY + "=" + vector);
+        }
+        command.addAll(workerOptions);
+        command.add(SlabWorker.class.getName());
+        command.add("--coordinator");
+        command.add(Integer.toString(port));
+        command.add("--slab");
+        command.add(Integer.toString(slab));
+        return command;
+    }
+
+    private static ByteBuffer expect(Link link, int type) throws IOException {
+        ByteBuffer message = link.receive();
+        int received = message.getInt();
+        if(received != type){
+            throw new IOException("expected message " + type + " from a worker, got " + received);
+        }
+        return message;
+    }
+
+    /**
+     * stop the worker processes, the particles gathered last stay in the store
+     */
+    @Override
+    public void close() {
+        if(links == null){
+            return;
+        }
+        ensureStoreCurrent();
+        for(Link link : links){
+            try {
+                ByteBuffer message = link.buffer(4);
+                message.putInt(SlabWorker.SHUTDOWN);
+                link.send(message);
+                link.close();
+            } catch (IOException e) {
+                //the worker is gone already
+            }
+        }
+        for(Process process : processes){
+            try {
+                process.waitFor();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        processes.clear();
+        links = null;
+        workersCurrent = false;
+    }
+
+    private void destroyWorkers(){
+        for(Process process : processes){
+            process.destroyForcibly();
+        }
+        processes.clear();
+    }
+
+
+    /* PARTICLES CHANGED OUTSIDE A STEP */
+    /**
+     * gathered first, so the whole state is saved
+     */
+    @Override
+    public void writeState(ByteBuffer buffer) {
+        ensureStoreCurrent();
+        super.writeState(buffer);
+    }
+    @Override
+    public void readState(ByteBuffer buffer) {
+        storeCurrent = true;
+        super.readState(buffer);
+        workersCurrent = false;
+    }
+    @Override
+    public void setTemperature(double temperature) {
+        ensureStoreCurrent();
+        super.setTemperature(temperature);
+        workersCurrent = false;
+    }
+    @Override
+    public boolean add(double xPos, double yPos, double weight) {
+        ensureStoreCurrent();
+        workersCurrent = false;
+        return super.add(xPos, yPos, weight);
+    }
+    @Override
+    public void removeParticles(int numberOfParticlesToRemove) {
+        ensureStoreCurrent();
+        workersCurrent = false;
+        super.removeParticles(numberOfParticlesToRemove);
+    }
+    @Override
+    public void setNumberOfParticles(int numberOfParticles, double xBounds, double yBounds) {
+        ensureStoreCurrent();
+        super.setNumberOfParticles(numberOfParticles, xBounds, yBounds);
+        workersCurrent = false;
+    }
+
+    /**
+     * @return the particles as of the last step, gathered from the workers; read them only, changes are not handed back
+     */
+    @Override
+    public ParticleStore getParticleStore() {
+        ensureStoreCurrent();
+        return store;
+    }
+    public int getWorkers() {
+        return workers;
+    }
+
+    @Override
+    public void calculateParticleVelocities() {
+    }
+}
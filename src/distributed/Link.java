@@ -0,0 +1,136 @@
+package distributed;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * About: Message connection between two processes of a distributed run, over a TCP socket.
+ * A message is a length-prefixed block of bytes: the sender fills a buffer taken from buffer() and hands it to send.
+ * Messages are written by a sender thread of the link, so a process can send to both of its neighbors before reading
+ * from either without the two ever waiting on each other's full socket buffers. Sent buffers are recycled.
+ */
+class Link implements Closeable {
+    //bytes of the length prefix
+    private static final int HEADER = 4;
+    //queued after the last message, stops the sender thread
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final SocketChannel channel;
+    private final BlockingQueue<ByteBuffer> outgoing = new LinkedBlockingQueue<ByteBuffer>();
+    private final ConcurrentLinkedQueue<ByteBuffer> recycled = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final Thread sender;
+    //why the sender thread stopped, reported by the next send
+    private volatile IOException failure;
+
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER);
+    private ByteBuffer incoming = ByteBuffer.allocate(1 << 16);
+
+    /**
+     * @param channel, connected socket, in blocking mode
+     * @param name, names the sender thread
+     * @throws IOException if the socket options cannot be set
+     */
+    Link(SocketChannel channel, String name) throws IOException {
+        this.channel = channel;
+        //messages are small and answered right away, waiting to batch them only adds latency
+        channel.socket().setTcpNoDelay(true);
+        this.sender = new Thread(this::write, name);
+        this.sender.setDaemon(true);
+        this.sender.start();
+    }
+
+    /**
+     * a buffer to write the next message into, positioned after the room for the length prefix
+     * @param capacity, bytes the message needs at most
+     * @return an empty buffer of at least that capacity
+     */
+    ByteBuffer buffer(int capacity){
+        ByteBuffer buffer = recycled.poll();
+        if(buffer == null || buffer.capacity() < HEADER + capacity){
+            buffer = ByteBuffer.allocate(HEADER + Math.max(capacity, 256));
+        }
+        buffer.clear();
+        buffer.position(HEADER);
+        return buffer;
+    }
+
+    /**
+     * queue a message, the buffer belongs to the link from now on
+     * @param message, buffer from buffer(), filled up to its position
+     * @throws IOException if an earlier message could not be written
+     */
+    void send(ByteBuffer message) throws IOException {
+        if(failure != null){
+            throw failure;
+        }
+        message.putInt(0, message.position() - HEADER);
+        message.flip();
+        outgoing.add(message);
+    }
+
+    /**
+     * wait for the next message
+     * @return the message, positioned at its first byte; valid until the next call
+     * @throws IOException if the connection failed or the other side closed it
+     */
+    ByteBuffer receive() throws IOException {
+        header.clear();
+        readFully(header);
+        int length = header.getInt(0);
+        if(incoming.capacity() < length){
+            incoming = ByteBuffer.allocate(Math.max(length, 2 * incoming.capacity()));
+        }
+        incoming.clear();
+        incoming.limit(length);
+        readFully(incoming);
+        incoming.flip();
+        return incoming;
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()){
+            if(channel.read(buffer) < 0){
+                throw new EOFException("connection closed by the other process");
+            }
+        }
+    }
+
+    private void write(){
+        try {
+            while(true){
+                ByteBuffer message = outgoing.take();
+                if(message == END){
+                    return;
+                }
+                while(message.hasRemaining()){
+                    channel.write(message);
+                }
+                recycled.add(message);
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * write the queued messages, then close the connection
+     */
+    @Override
+    public void close() throws IOException {
+        outgoing.add(END);
+        try {
+            sender.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+}
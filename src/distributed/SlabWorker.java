@@ -0,0 +1,407 @@
+package distributed;
+
+import models.ParticleStore;
+import physics.Collision;
+import physics.IntegrationKernel;
+import physics.SpatialGrid;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * About: One worker process of a distributed run. It owns the particles in the vertical slab xMin..xMax of the box
+ * and steps them like the time-stepped engine does, one substep at a time:
+ * collisions inside the slab; collisions across the seam to the right neighbor, with the neighbor's particles within
+ * reach of the seam as ghosts (the left neighbor does the same for the seam on the left, and hands back the new
+ * velocities of this slab's particles); integration; and finally every particle that left the slab is handed to the
+ * neighbor it moved into. A pair across a seam is resolved by one worker only, after both workers have resolved the
+ * pairs inside their slabs, so every pair sees the current velocities of both particles and energy is conserved exactly.
+ *
+ * The coordinator (DistributedParticleSystem) starts the workers, sends the commands and sums up what the slabs report.
+ * usage: SlabWorker --coordinator PORT --slab K
+ */
+public class SlabWorker {
+    //coordinator -> worker
+    static final int CONNECT = 1;
+    static final int SETUP = 2;
+    static final int SCATTER = 3;
+    static final int STEP = 4;
+    static final int GATHER = 5;
+    static final int SHUTDOWN = 6;
+    //worker -> coordinator
+    static final int HELLO = 11;
+    static final int READY = 12;
+    static final int RESULT = 13;
+    static final int PARTICLES = 14;
+    //bytes of a particle sent with its id (id, x, y, vx, vy, radius, mass), without it, and of a velocity
+    static final int PARTICLE_BYTES = 4 + 6 * 8;
+    private static final int GHOST_BYTES = 6 * 8;
+    private static final int VELOCITY_BYTES = 2 * 8;
+
+    private final int slab;
+    private final Link coordinator;
+    private final ServerSocketChannel peerServer;
+    private Link left;
+    private Link right;
+
+    //slab and box, set by SETUP
+    private double xMin;
+    private double xMax;
+    private double xBounds;
+    private double yBounds;
+    //no pair further apart than this across a seam can collide (two max radii)
+    private double reach;
+    private int slabs;
+
+    //owned particles, and the id every one has in the whole system
+    private final ParticleStore store = new ParticleStore(1024);
+    private int[] globalId = new int[1024];
+    private final SpatialGrid grid = new SpatialGrid();
+    private final IntegrationKernel kernel = IntegrationKernel.preferred();
+    private final double[] sums = new double[IntegrationKernel.SUMS];
+    private long particleCollisions;
+    private final SpatialGrid.PairVisitor collisionResolver;
+
+    //pairs across the right seam: owned particles near it first, then the right neighbor's ghosts
+    private final ParticleStore seam = new ParticleStore(256);
+    private final SpatialGrid seamGrid = new SpatialGrid();
+    private int seamOwned;
+    private int[] seamIndex = new int[256];
+    private final SpatialGrid.PairVisitor seamResolver;
+    //owned particles sent to the left neighbor as ghosts, their velocities come back in the same order
+    private int[] stripIndex = new int[256];
+    private int stripSize;
+    //particles leaving to either side
+    private int[] leaving = new int[256];
+
+    private SlabWorker(int slab, Link coordinator, ServerSocketChannel peerServer){
+        this.slab = slab;
+        this.coordinator = coordinator;
+        this.peerServer = peerServer;
+        this.collisionResolver = (i, j) -> {
+            if(Collision.isColliding(store, i, j)){
+                Collision.resolveCollision(store, i, j);
+                particleCollisions++;
+            }
+        };
+        this.seamResolver = (i, j) -> {
+            //only pairs across the seam, the pairs on either side were resolved by their own slab
+            if((i < seamOwned) != (j < seamOwned) && Collision.isColliding(seam, i, j)){
+                Collision.resolveCollision(seam, i, j);
+                particleCollisions++;
+            }
+        };
+    }
+
+    public static void main(String[] args) {
+        int port = -1;
+        int slab = -1;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--coordinator": port = Integer.parseInt(args[i + 1]); break;
+                case "--slab": slab = Integer.parseInt(args[i + 1]); break;
+                default: break;
+            }
+        }
+        if (port < 0 || slab < 0) {
+            System.err.println("usage: SlabWorker --coordinator PORT --slab K");
+            System.exit(1);
+        }
+        try {
+            InetAddress host = InetAddress.getLoopbackAddress();
+            ServerSocketChannel peerServer = ServerSocketChannel.open().bind(new InetSocketAddress(host, 0));
+            Link coordinator = new Link(SocketChannel.open(new InetSocketAddress(host, port)), "slab-" + slab + "-coordinator");
+            new SlabWorker(slab, coordinator, peerServer).run();
+            System.exit(0);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("slab " + slab + " failed: " + e);
+            System.exit(1);
+        }
+    }
+
+    private void run() throws IOException {
+        ByteBuffer hello = coordinator.buffer(12);
+        hello.putInt(HELLO).putInt(slab).putInt(((InetSocketAddress) peerServer.getLocalAddress()).getPort());
+        coordinator.send(hello);
+        while(true){
+            ByteBuffer message = coordinator.receive();
+            int command = message.getInt();
+            switch(command){
+                case CONNECT: connect(message); break;
+                case SETUP: setup(message); break;
+                case SCATTER: receiveParticles(message); break;
+                case STEP: step(message.getDouble(), message.getInt()); break;
+                case GATHER: sendParticles(); break;
+                case SHUTDOWN: close(); return;
+                default: throw new IOException("unknown command " + command);
+            }
+        }
+    }
+
+    /**
+     * connect to the left neighbor's server and take the right neighbor's connection. Connecting first cannot block,
+     * the connection waits in the server's backlog until the neighbor accepts it
+     */
+    private void connect(ByteBuffer message) throws IOException {
+        slabs = message.getInt();
+        int leftPort = message.getInt();
+        if(leftPort >= 0){
+            left = new Link(SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), leftPort)), "slab-" + slab + "-left");
+        }
+        if(slab < slabs - 1){
+            right = new Link(peerServer.accept(), "slab-" + slab + "-right");
+        }
+        peerServer.close();
+        ByteBuffer ready = coordinator.buffer(4);
+        ready.putInt(READY);
+        coordinator.send(ready);
+    }
+
+    private void setup(ByteBuffer message){
+        xMin = message.getDouble();
+        xMax = message.getDouble();
+        xBounds = message.getDouble();
+        yBounds = message.getDouble();
+        reach = message.getDouble();
+    }
+
+    /**
+     * take over the particles of the slab, replacing any held so far
+     */
+    private void receiveParticles(ByteBuffer message){
+        store.clear();
+        int count = message.getInt();
+        for(int k = 0; k < count; k++){
+            addParticle(message);
+        }
+    }
+
+    private void addParticle(ByteBuffer message){
+        int id = message.getInt();
+        int i = store.add(message.getDouble(), message.getDouble(), message.getDouble(), message.getDouble(), message.getDouble(), message.getDouble());
+        if(globalId.length < store.getCapacity()){
+            int[] grown = new int[store.getCapacity()];
+            System.arraycopy(globalId, 0, grown, 0, globalId.length);
+            globalId = grown;
+        }
+        globalId[i] = id;
+    }
+
+    private void sendParticles() throws IOException {
+        ByteBuffer message = coordinator.buffer(8 + store.size() * PARTICLE_BYTES);
+        message.putInt(PARTICLES).putInt(store.size());
+        for(int i = 0; i < store.size(); i++){
+            putParticle(message, i);
+        }
+        coordinator.send(message);
+    }
+
+    private void putParticle(ByteBuffer message, int i){
+        message.putInt(globalId[i]);
+        putGhost(message, store, i);
+    }
+
+    private static void putGhost(ByteBuffer message, ParticleStore store, int i){
+        message.putDouble(store.getX()[i]).putDouble(store.getY()[i])
+                .putDouble(store.getXVelocity()[i]).putDouble(store.getYVelocity()[i])
+                .putDouble(store.getRadius()[i]).putDouble(store.getMass()[i]);
+    }
+
+    /**
+     * advance the slab by dt in the given number of substeps and report the sums to the coordinator.
+     * The coordinator picks the substeps for the whole box, so every worker takes the same ones and the seams stay in step
+     */
+    private void step(double dt, int substeps) throws IOException {
+        double substep = dt / substeps;
+        double wallImpulse = 0;
+        long wallCollisions = 0;
+        particleCollisions = 0;
+        for(int k = 0; k < substeps; k++){
+            //collisions inside the slab
+            grid.rebuild(store, xMin, xMax, yBounds, 0);
+            grid.forEachPair(collisionResolver);
+            //collisions across the seams: ours on the right, the left neighbor's on the left
+            if(left != null){
+                sendStrip();
+            }
+            if(right != null){
+                resolveSeam();
+            }
+            if(left != null){
+                receiveStripVelocities();
+            }
+            //move and bounce off the walls of the box
+            kernel.integrate(store.getX(), store.getY(), store.getXVelocity(), store.getYVelocity(), store.getRadius(), store.getMass(),
+                    0, store.size(), substep, xBounds, yBounds, sums, 0);
+            wallImpulse += sums[IntegrationKernel.WALL_IMPULSE];
+            wallCollisions += (long) sums[IntegrationKernel.WALL_COLLISIONS];
+            migrate();
+        }
+        ByteBuffer result = coordinator.buffer(4 + 3 * 8 + 2 * 8 + 4);
+        result.putInt(RESULT)
+                .putDouble(wallImpulse)
+                .putDouble(sums[IntegrationKernel.KINETIC_ENERGY])
+                .putDouble(sums[IntegrationKernel.MAX_SPEED_RATIO])
+                .putLong(wallCollisions)
+                .putLong(particleCollisions)
+                .putInt(store.size());
+        coordinator.send(result);
+    }
+
+    /**
+     * send the particles within reach of the left seam to the left neighbor
+     */
+    private void sendStrip() throws IOException {
+        double[] x = store.getX();
+        int size = store.size();
+        stripSize = 0;
+        for(int i = 0; i < size; i++){
+            if(x[i] < xMin + reach){
+                if(stripSize == stripIndex.length){
+                    stripIndex = grow(stripIndex);
+                }
+                stripIndex[stripSize++] = i;
+            }
+        }
+        ByteBuffer message = left.buffer(4 + stripSize * GHOST_BYTES);
+        message.putInt(stripSize);
+        for(int k = 0; k < stripSize; k++){
+            putGhost(message, store, stripIndex[k]);
+        }
+        left.send(message);
+    }
+
+    /**
+     * the left neighbor resolved the pairs across the left seam, take over the new velocities of the strip sent to it
+     */
+    private void receiveStripVelocities() throws IOException {
+        ByteBuffer message = left.receive();
+        int count = message.getInt();
+        if(count != stripSize){
+            throw new IOException("left neighbor returned " + count + " velocities for " + stripSize + " particles");
+        }
+        double[] vx = store.getXVelocity();
+        double[] vy = store.getYVelocity();
+        for(int k = 0; k < count; k++){
+            vx[stripIndex[k]] = message.getDouble();
+            vy[stripIndex[k]] = message.getDouble();
+        }
+    }
+
+    /**
+     * resolve the pairs across the right seam: the particles within reach of it on this side, and the right neighbor's
+     * strip as ghosts. The owned particles keep their new velocities, the ghosts' go back to the right neighbor
+     */
+    private void resolveSeam() throws IOException {
+        ByteBuffer strip = right.receive();
+        int ghosts = strip.getInt();
+        seam.clear();
+        double[] x = store.getX();
+        int size = store.size();
+        for(int i = 0; i < size; i++){
+            if(x[i] >= xMax - reach){
+                if(seam.size() == seamIndex.length){
+                    seamIndex = grow(seamIndex);
+                }
+                seamIndex[seam.size()] = i;
+                seam.add(x[i], store.getY()[i], store.getXVelocity()[i], store.getYVelocity()[i], store.getRadius()[i], store.getMass()[i]);
+            }
+        }
+        seamOwned = seam.size();
+        for(int k = 0; k < ghosts; k++){
+            seam.add(strip.getDouble(), strip.getDouble(), strip.getDouble(), strip.getDouble(), strip.getDouble(), strip.getDouble());
+        }
+        seamGrid.rebuild(seam, xMax - reach, xMax + reach, yBounds, 0);
+        seamGrid.forEachPair(seamResolver);
+
+        double[] vx = store.getXVelocity();
+        double[] vy = store.getYVelocity();
+        for(int a = 0; a < seamOwned; a++){
+            vx[seamIndex[a]] = seam.getXVelocity()[a];
+            vy[seamIndex[a]] = seam.getYVelocity()[a];
+        }
+        ByteBuffer message = right.buffer(4 + ghosts * VELOCITY_BYTES);
+        message.putInt(ghosts);
+        for(int a = seamOwned; a < seam.size(); a++){
+            message.putDouble(seam.getXVelocity()[a]).putDouble(seam.getYVelocity()[a]);
+        }
+        right.send(message);
+    }
+
+    /**
+     * hand every particle that moved out of the slab to the neighbor on that side, and take in the ones that moved in.
+     * A substep moves a particle at most half its radius (see ParticleSystem.substeps), so it only ever reaches the next slab
+     */
+    private void migrate() throws IOException {
+        if(left != null){
+            sendLeaving(left, true);
+        }
+        if(right != null){
+            sendLeaving(right, false);
+        }
+        if(left != null){
+            receiveArriving(left);
+        }
+        if(right != null){
+            receiveArriving(right);
+        }
+    }
+
+    private void sendLeaving(Link neighbor, boolean toLeft) throws IOException {
+        double[] x = store.getX();
+        int count = 0;
+        //from the back, so the particle a removal moves into the hole has already been looked at
+        for(int i = store.size() - 1; i >= 0; i--){
+            if((toLeft)? x[i] < xMin : x[i] >= xMax){
+                if(count == leaving.length){
+                    leaving = grow(leaving);
+                }
+                leaving[count++] = i;
+            }
+        }
+        ByteBuffer message = neighbor.buffer(4 + count * PARTICLE_BYTES);
+        message.putInt(count);
+        for(int k = 0; k < count; k++){
+            putParticle(message, leaving[k]);
+            remove(leaving[k]);
+        }
+        neighbor.send(message);
+    }
+
+    private void receiveArriving(Link neighbor) throws IOException {
+        ByteBuffer message = neighbor.receive();
+        int count = message.getInt();
+        for(int k = 0; k < count; k++){
+            addParticle(message);
+        }
+    }
+
+    /**
+     * remove the particle at index i, the particle stored last moves into its slot (see ParticleStore.remove)
+     */
+    private void remove(int i){
+        int last = store.size() - 1;
+        store.remove(store.getId()[i]);
+        globalId[i] = globalId[last];
+    }
+
+    private static int[] grow(int[] values){
+        int[] grown = new int[2 * values.length];
+        System.arraycopy(values, 0, grown, 0, values.length);
+        return grown;
+    }
+
+    private void close() throws IOException {
+        if(left != null){
+            left.close();
+        }
+        if(right != null){
+            right.close();
+        }
+        coordinator.close();
+    }
+}
@@ -0,0 +1,156 @@
+package engine;
+
+import io.Checkpoint;
+import io.TrajectoryWriter;
+import models.OffHeapParticleSystem;
+import models.ParticleSystem;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+
+/**
+ * About: Steps a particle system without a window, Timeline or any other JavaFX class,
+ * as fast as the CPU allows, and keeps track of the achieved throughput.
+ */
+public class HeadlessEngine {
+    private final ParticleSystem particleSystem;
+    private final double xBounds;
+    private final double yBounds;
+
+    private long totalSteps;
+    private long totalNanos;
+    //step number the run started from, 0 unless it was restored from a checkpoint
+    private long firstStep;
+
+    //trajectory recording, null when not recording
+    private TrajectoryWriter trajectoryWriter;
+    private long recordInterval;
+
+    /**
+     * instantiates a headless engine for the given system and box
+     * @param particleSystem, the system of particles to simulate
+     * @param xBounds, width of the box
+     * @param yBounds, height of the box
+     */
+    public HeadlessEngine(ParticleSystem particleSystem, double xBounds, double yBounds){
+        this.particleSystem = particleSystem;
+        this.xBounds = xBounds;
+        this.yBounds = yBounds;
+    }
+
+    /**
+     * fill the box with particles in random positions
+     * @param numberOfParticles, total number of particles that should be in the system
+     */
+    public void init(int numberOfParticles){
+        particleSystem.setNumberOfParticles(numberOfParticles);
+        particleSystem.init(xBounds, yBounds);
+        totalSteps = 0;
+        totalNanos = 0;
+        firstStep = 0;
+    }
+
+    /**
+     * continue a run saved with checkpoint, instead of filling a box anew
+     * @param particleSystem, system to restore into, of the same class as the saved one
+     * @param file, checkpoint to restore
+     * @return engine for the box the checkpoint was saved in, counting steps from the saved step
+     * @throws IOException if the checkpoint cannot be read or was saved from another kind of system
+     */
+    public static HeadlessEngine restore(ParticleSystem particleSystem, Path file) throws IOException {
+        Checkpoint checkpoint = Checkpoint.restore(particleSystem, file);
+        HeadlessEngine engine = new HeadlessEngine(particleSystem, checkpoint.getXBounds(), checkpoint.getYBounds());
+        engine.firstStep = checkpoint.getStep();
+        return engine;
+    }
+
+    /**
+     * save the run so far, restore continues it exactly
+     * @param file, file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void checkpoint(Path file) throws IOException {
+        Checkpoint.save(particleSystem, xBounds, yBounds, getStep(), file);
+    }
+
+    /**
+     * advance the simulation by the given number of steps
+     * @param steps, number of steps to run
+     * @return wall-clock time spent stepping, in nanoseconds
+     */
+    public long run(long steps){
+        long start = System.nanoTime();
+        for(long step = 0; step < steps; step++){
+            particleSystem.updateParticlePositions(xBounds, yBounds);
+            long stepNumber = firstStep + totalSteps + step + 1;
+            if(trajectoryWriter != null && stepNumber % recordInterval == 0){
+                record(stepNumber);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        totalSteps += steps;
+        totalNanos += elapsed;
+        return elapsed;
+    }
+
+
+    /**
+     * record a frame every interval steps from now on, the current state is recorded right away
+     * @param writer, trajectory to append to, null to stop recording
+     * @param interval, steps between frames
+     */
+    public void setTrajectoryWriter(TrajectoryWriter writer, long interval){
+        this.trajectoryWriter = writer;
+        this.recordInterval = Math.max(1, interval);
+        if(writer != null){
+            record(getStep());
+        }
+    }
+
+    private void record(long stepNumber){
+        try {
+            //a step is one frame of the original 60Hz animation, one unit of simulation time
+            if(particleSystem instanceof OffHeapParticleSystem){
+                //straight from the segment, without the heap copy getParticleStore would make
+                trajectoryWriter.writeFrame(((OffHeapParticleSystem) particleSystem).getOffHeapParticleStore(), stepNumber, stepNumber);
+            } else {
+                trajectoryWriter.writeFrame(particleSystem.getParticleStore(), stepNumber, stepNumber);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not record step " + stepNumber, e);
+        }
+    }
+
+
+    /* GET METHODS */
+    public ParticleSystem getParticleSystem() {
+        return particleSystem;
+    }
+    public double getXBounds() {
+        return xBounds;
+    }
+    public double getYBounds() {
+        return yBounds;
+    }
+    /**
+     * @return step number of the run, counting the steps before a restored checkpoint
+     */
+    public long getStep() {
+        return firstStep + totalSteps;
+    }
+    /**
+     * steps run since the last init
+     * @return
+     */
+    public long getTotalSteps() {
+        return totalSteps;
+    }
+    /**
+     * average throughput since the last init
+     * @return steps per second
+     */
+    public double getStepsPerSecond() {
+        return totalNanos == 0 ? 0 : totalSteps / (totalNanos / 1e9);
+    }
+}
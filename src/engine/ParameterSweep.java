@@ -0,0 +1,229 @@
+package engine;
+
+import models.IdealParticleSystem;
+import models.ParticleSystem;
+import models.VanderWaalsParticleSystem;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * About: Runs many independent headless systems over a grid of volumes, temperatures and particle counts at once,
+ * and measures the pressure of each, so a whole isotherm (or any other gas-law curve) comes out of one call.
+ * Every point gets its own system and engine and is stepped sequentially; the points run side by side on a fixed pool
+ * of worker threads, one per core by default, so the machine is saturated without systems competing for the same cores.
+ *
+ * Units are simulation units with k = 1: the volume is the area of the square box, pressure is force per unit wall length,
+ * so an ideal gas measures P V = N k T.
+ */
+public class ParameterSweep {
+    public static final long DEFAULT_STEPS = 5000;
+    public static final long DEFAULT_WARMUP = 1000;
+
+    private final boolean vanderWaals;
+    private boolean eventDriven;
+    private long steps;
+    private long warmup;
+    private int workers;
+    private long seed;
+
+    /**
+     * @param vanderWaals, true to sweep the Van der Waals system, false for the ideal gas
+     */
+    public ParameterSweep(boolean vanderWaals){
+        this.vanderWaals = vanderWaals;
+        this.steps = DEFAULT_STEPS;
+        this.warmup = DEFAULT_WARMUP;
+        this.workers = Runtime.getRuntime().availableProcessors();
+        this.seed = 42;
+    }
+
+    /**
+     * run every combination of the given values, all at once
+     * @param volumes, box areas (the box is square)
+     * @param temperatures, kinetic temperatures the particles start at (simulation units)
+     * @param particleCounts, numbers of particles
+     * @return one point per combination, in the order volume, then temperature, then particle count
+     * @throws InterruptedException if interrupted while waiting for the runs
+     */
+    public List<Point> run(double[] volumes, double[] temperatures, int[] particleCounts) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<Point>> futures = new ArrayList<>();
+            long pointSeed = seed;
+            for(double volume : volumes){
+                for(double temperature : temperatures){
+                    for(int particles : particleCounts){
+                        //each point seeded on its own, so a point gives the same result whatever else runs next to it
+                        long runSeed = pointSeed++;
+                        futures.add(executor.submit(() -> runPoint(volume, temperature, particles, runSeed)));
+                    }
+                }
+            }
+            List<Point> points = new ArrayList<>(futures.size());
+            for(Future<Point> future : futures){
+                try {
+                    points.add(future.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("sweep point failed", e.getCause());
+                }
+            }
+            return points;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * equilibrate one system, then measure it over the full run
+     */
+    private Point runPoint(double volume, double temperature, int particles, long runSeed){
+        ParticleSystem particleSystem = (vanderWaals)? new VanderWaalsParticleSystem(particles) : new IdealParticleSystem(particles);
+        if(eventDriven && particleSystem instanceof IdealParticleSystem){
+            ((IdealParticleSystem) particleSystem).setEventDriven(true);
+        }
+        particleSystem.setSeed(runSeed);
+        double side = Math.sqrt(volume);
+        HeadlessEngine engine = new HeadlessEngine(particleSystem, side, side);
+        engine.init(particles);
+        //after init, so the Van der Waals potential keeps the calibration of the default temperature and the sweep moves along it
+        particleSystem.setTemperature(temperature);
+        engine.run(warmup);
+        //a window as long as the run turns the windowed averages into averages over the whole measurement,
+        //every system records its observables once per step (see ParticleSystem.advance)
+        particleSystem.getObservables().setWindow((int) Math.min(steps, Integer.MAX_VALUE));
+        long recorded = particleSystem.getObservables().getSteps();
+        long nanos = engine.run(steps);
+        recorded = particleSystem.getObservables().getSteps() - recorded;
+        if(recorded != steps){
+            throw new IllegalStateException(particleSystem.getClass().getSimpleName() + " recorded " + recorded + " times in " + steps + " steps, the averages would not cover the whole run");
+        }
+        return new Point(volume, temperature, particles,
+                particleSystem.getPressure(), particleSystem.getTemperature(), particleSystem.getObservables().getWindowEnergy(),
+                (nanos > 0)? steps / (nanos / 1e9) : 0);
+    }
+
+
+    /* UPDATE METHODS */
+    /**
+     * @param eventDriven, true to run the ideal gas with the event-driven engine
+     */
+    public void setEventDriven(boolean eventDriven) {
+        this.eventDriven = eventDriven;
+    }
+    /**
+     * @param steps, steps each point is measured over
+     */
+    public void setSteps(long steps) {
+        this.steps = Math.max(1, steps);
+    }
+    /**
+     * @param warmup, steps each point runs before it is measured, so it can reach equilibrium
+     */
+    public void setWarmup(long warmup) {
+        this.warmup = Math.max(0, warmup);
+    }
+    /**
+     * @param workers, number of points run at the same time
+     */
+    public void setWorkers(int workers) {
+        this.workers = Math.max(1, workers);
+    }
+    /**
+     * @param seed, seed of the first point, the following points count up from it
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+
+    /* GET METHODS */
+    public boolean isVanderWaals() {
+        return vanderWaals;
+    }
+    public long getSteps() {
+        return steps;
+    }
+    public long getWarmup() {
+        return warmup;
+    }
+    public int getWorkers() {
+        return workers;
+    }
+
+
+    /**
+     * About: Settings and measured values of one run of a sweep.
+     */
+    public static class Point {
+        private final double volume;
+        private final double targetTemperature;
+        private final int particles;
+        private final double pressure;
+        private final double temperature;
+        private final double energy;
+        private final double stepsPerSecond;
+
+        Point(double volume, double targetTemperature, int particles, double pressure, double temperature, double energy, double stepsPerSecond){
+            this.volume = volume;
+            this.targetTemperature = targetTemperature;
+            this.particles = particles;
+            this.pressure = pressure;
+            this.temperature = temperature;
+            this.energy = energy;
+            this.stepsPerSecond = stepsPerSecond;
+        }
+
+        /**
+         * @return P V / N k T, 1 for an ideal gas of point particles
+         */
+        public double getCompressibility() {
+            double nkt = getNkT();
+            return (nkt > 0)? getPV() / nkt : 0;
+        }
+        public double getPV() {
+            return pressure * volume;
+        }
+        /**
+         * @return particles times the measured temperature (k = 1)
+         */
+        public double getNkT() {
+            return particles * temperature;
+        }
+
+        public double getVolume() {
+            return volume;
+        }
+        public double getTargetTemperature() {
+            return targetTemperature;
+        }
+        public int getParticles() {
+            return particles;
+        }
+        /**
+         * @return wall pressure averaged over the measured steps
+         */
+        public double getPressure() {
+            return pressure;
+        }
+        /**
+         * @return kinetic temperature averaged over the measured steps
+         */
+        public double getTemperature() {
+            return temperature;
+        }
+        /**
+         * @return total energy averaged over the measured steps
+         */
+        public double getEnergy() {
+            return energy;
+        }
+        public double getStepsPerSecond() {
+            return stepsPerSecond;
+        }
+    }
+}
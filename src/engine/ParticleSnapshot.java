@@ -0,0 +1,69 @@
+package engine;
+
+import models.ParticleStore;
+
+/**
+ * About: Copy of the particle positions at the end of a physics step, handed from the simulation thread to the renderer.
+ * A snapshot is only filled while the simulation thread owns it, and is never written again while the renderer holds it.
+ * The particles are copied in id order, so entry i is the same particle in every snapshot even when the store was sorted in between.
+ */
+public class ParticleSnapshot {
+    private int size;
+    private long step;
+    private double time;
+    private double[] x = new double[0];
+    private double[] y = new double[0];
+    private double[] radius = new double[0];
+
+    /**
+     * copy the current particle state into this snapshot
+     * @param store, particle state
+     * @param step, number of physics steps taken so far
+     * @param time, simulation time reached so far
+     */
+    void capture(ParticleStore store, long step, double time){
+        int size = store.size();
+        if(x.length < size){
+            x = new double[size];
+            y = new double[size];
+            radius = new double[size];
+        }
+        double[] storeX = store.getX();
+        double[] storeY = store.getY();
+        double[] storeRadius = store.getRadius();
+        int[] index = store.getIndex();
+        for(int particleId = 0; particleId < size; particleId++){
+            int i = index[particleId];
+            x[particleId] = storeX[i];
+            y[particleId] = storeY[i];
+            radius[particleId] = storeRadius[i];
+        }
+        this.size = size;
+        this.step = step;
+        this.time = time;
+    }
+
+
+    /* GET METHODS */
+    /**
+     * @return number of particles captured, only the first size() array entries are meaningful
+     */
+    public int size() {
+        return size;
+    }
+    public long getStep() {
+        return step;
+    }
+    public double getTime() {
+        return time;
+    }
+    public double[] getX() {
+        return x;
+    }
+    public double[] getY() {
+        return y;
+    }
+    public double[] getRadius() {
+        return radius;
+    }
+}
@@ -0,0 +1,196 @@
+package engine;
+
+import metrics.Phase;
+import metrics.PhaseEvent;
+import metrics.SimulationMetrics;
+import models.ParticleSystem;
+import physics.SpeedDistribution;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * About: Runs the physics on a dedicated thread with a fixed time step, decoupled from the frame rate.
+ * Several physics steps are taken per rendered frame, and the state after each batch is published
+ * through a SnapshotBuffer for the renderer to pick up.
+ */
+public class SimulationLoop implements Runnable {
+    //physics steps per second of wall-clock time
+    public static final double DEFAULT_STEPS_PER_SECOND = 240;
+    //simulation time per step, 1 = one frame of the original 60Hz animation, so 240 steps/s keeps the original speed
+    public static final double DEFAULT_TIME_STEP = 0.25;
+    //never try to catch up more than this many steps at once, drop the backlog instead of spiralling
+    private static final int MAX_STEPS_PER_BATCH = 32;
+    //the speed distribution changes slowly, publishing it 10 times a second is plenty for the chart
+    public static final long SPEED_DISTRIBUTION_INTERVAL_NANOS = 100_000_000L;
+
+    private final ParticleSystem particleSystem;
+    private final SnapshotBuffer snapshotBuffer;
+    private final double stepsPerSecond;
+    private final double timeStep;
+
+    private volatile double xBounds;
+    private volatile double yBounds;
+    //particle count asked for from another thread, applied between steps, -1 when there is no request
+    private final AtomicInteger requestedParticles = new AtomicInteger(-1);
+    private volatile boolean running;
+    private Thread thread;
+    private long steps;
+    //latest sample of the speed histogram, replaced as a whole so the reader needs no lock
+    private volatile SpeedDistribution speedDistribution;
+    private long lastSpeedDistribution;
+
+    /**
+     * instantiates a simulation loop running at the default physics rate
+     * @param particleSystem, the system of particles to simulate
+     * @param xBounds, initial width of the box
+     * @param yBounds, initial height of the box
+     */
+    public SimulationLoop(ParticleSystem particleSystem, double xBounds, double yBounds){
+        this(particleSystem, xBounds, yBounds, DEFAULT_STEPS_PER_SECOND, DEFAULT_TIME_STEP);
+    }
+
+    /**
+     * instantiates a simulation loop
+     * @param particleSystem, the system of particles to simulate
+     * @param xBounds, initial width of the box
+     * @param yBounds, initial height of the box
+     * @param stepsPerSecond, physics steps per second of wall-clock time
+     * @param timeStep, simulation time advanced by each step
+     */
+    public SimulationLoop(ParticleSystem particleSystem, double xBounds, double yBounds, double stepsPerSecond, double timeStep){
+        this.particleSystem = particleSystem;
+        this.snapshotBuffer = new SnapshotBuffer();
+        this.xBounds = xBounds;
+        this.yBounds = yBounds;
+        this.stepsPerSecond = stepsPerSecond;
+        this.timeStep = timeStep;
+    }
+
+    /**
+     * start stepping on a new simulation thread
+     */
+    public synchronized void start(){
+        if(running){ return; }
+        running = true;
+        //publish the initial state so the renderer has something to draw right away
+        publishSnapshot();
+        speedDistribution = particleSystem.getSpeedDistribution();
+        lastSpeedDistribution = System.nanoTime();
+        thread = new Thread(this, "particle-simulation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * stop the simulation thread and wait for it to finish its current step
+     */
+    public synchronized void stop(){
+        if(!running){ return; }
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    @Override
+    public void run() {
+        long stepNanos = (long) (1e9 / stepsPerSecond);
+        long nextStep = System.nanoTime();
+        while(running){
+            //resize between steps, the system is only ever touched by this thread
+            int particles = requestedParticles.getAndSet(-1);
+            if(particles >= 0){
+                particleSystem.setNumberOfParticles(Math.min(particles, particleSystem.getMAX_PARTICLES()), xBounds, yBounds);
+            }
+            //take every step that is due, then publish the state once for the renderer
+            int batch = 0;
+            long now = System.nanoTime();
+            long frameStart = now;
+            while(now - nextStep >= 0 && batch < MAX_STEPS_PER_BATCH){
+                particleSystem.step(xBounds, yBounds, timeStep);
+                steps++;
+                nextStep += stepNanos;
+                batch++;
+            }
+            if(batch == MAX_STEPS_PER_BATCH){
+                nextStep = System.nanoTime();
+            }
+            if(batch > 0){
+                publishSnapshot();
+                SimulationMetrics metrics = particleSystem.getMetrics();
+                if(metrics != null){
+                    metrics.recordFrame(System.nanoTime() - frameStart);
+                }
+                if(now - lastSpeedDistribution >= SPEED_DISTRIBUTION_INTERVAL_NANOS){
+                    speedDistribution = particleSystem.getSpeedDistribution();
+                    lastSpeedDistribution = now;
+                }
+            }
+            LockSupport.parkNanos(nextStep - System.nanoTime());
+        }
+    }
+
+    private void publishSnapshot(){
+        SimulationMetrics metrics = particleSystem.getMetrics();
+        long start = (metrics != null)? System.nanoTime() : 0;
+        PhaseEvent event = new PhaseEvent();
+        event.begin();
+        snapshotBuffer.getBack().capture(particleSystem.getParticleStore(), steps, steps * timeStep);
+        snapshotBuffer.publish();
+        event.end();
+        if(event.shouldCommit()){
+            event.phase = Phase.RENDER_SYNC.getLabel();
+            event.particles = particleSystem.getNumberOfParticles();
+            event.commit();
+        }
+        if(metrics != null){
+            metrics.recordPhase(Phase.RENDER_SYNC, System.nanoTime() - start);
+        }
+    }
+
+
+    /* GET METHODS */
+    /**
+     * @return the buffer the renderer reads snapshots from
+     */
+    public SnapshotBuffer getSnapshotBuffer() {
+        return snapshotBuffer;
+    }
+    /**
+     * @return the speed histogram as of at most SPEED_DISTRIBUTION_INTERVAL_NANOS ago, null if the system does not keep one.
+     *         Safe to call from any thread, a new object is published every time
+     */
+    public SpeedDistribution getSpeedDistribution() {
+        return speedDistribution;
+    }
+    public ParticleSystem getParticleSystem() {
+        return particleSystem;
+    }
+    public boolean isRunning() {
+        return running;
+    }
+
+    /* SET METHODS */
+    /**
+     * update the box size, picked up by the next physics step
+     * @param xBounds, width of the box
+     * @param yBounds, height of the box
+     */
+    public void setBounds(double xBounds, double yBounds){
+        this.xBounds = xBounds;
+        this.yBounds = yBounds;
+    }
+    /**
+     * change the number of particles of the running system, picked up before the next physics step.
+     * Particles are added or removed in place (see ParticleSystem.setNumberOfParticles), nothing is re-initialized
+     * @param numberOfParticles, total number of particles, capped at the capacity of the system
+     */
+    public void setNumberOfParticles(int numberOfParticles){
+        this.requestedParticles.set(numberOfParticles);
+    }
+}
@@ -0,0 +1,46 @@
+package engine;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * About: Lock-free triple buffer between one writer (the simulation thread) and one reader (the FX pulse).
+ * The writer fills its back snapshot and swaps it with the published one, the reader swaps its front snapshot
+ * with the published one only when something new was published. Neither side ever blocks or sees a half-written snapshot.
+ */
+public class SnapshotBuffer {
+    private static final int INDEX_MASK = 0b011;
+    private static final int FRESH = 0b100;
+
+    private final ParticleSnapshot[] snapshots = {new ParticleSnapshot(), new ParticleSnapshot(), new ParticleSnapshot()};
+    //index of the published snapshot, plus the FRESH bit while the reader has not picked it up yet
+    private final AtomicInteger published = new AtomicInteger(1);
+    //owned by the writer
+    private int back = 0;
+    //owned by the reader
+    private int front = 2;
+
+    /**
+     * @return the snapshot the writer may fill, only call from the writer thread
+     */
+    public ParticleSnapshot getBack(){
+        return snapshots[back];
+    }
+
+    /**
+     * publish the back snapshot and take the previously published one as the new back snapshot
+     */
+    public void publish(){
+        back = published.getAndSet(back | FRESH) & INDEX_MASK;
+    }
+
+    /**
+     * get the most recently published snapshot, only call from the reader thread
+     * @return latest snapshot, or the one returned last time if nothing new was published
+     */
+    public ParticleSnapshot acquire(){
+        if((published.get() & FRESH) != 0){
+            front = published.getAndSet(front) & INDEX_MASK;
+        }
+        return snapshots[front];
+    }
+}
@@ -0,0 +1,132 @@
+package io;
+
+import models.ParticleSystem;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * About: Saves the full state of a particle system to a file and restores it, so a run can be stopped and resumed
+ * (or a warmed-up system reused) and continue exactly as if it had never stopped.
+ * The file is memory-mapped: the state is written straight into the mapping and read straight out of it, so saving or
+ * restoring millions of particles needs no buffer of the file's size on or off the heap, just the copy of the arrays.
+ * An OffHeapParticleSystem keeps its particles in the layout of the file's particle block and copies each column in one piece.
+ * save forces the mapping to disk before it returns.
+ *
+ * file: magic (int), version (int), system class name (int length + UTF-8 bytes), x bounds (double), y bounds (double),
+ *       step (long), state size (int), then the system state (see ParticleSystem.writeState), little endian
+ */
+public class Checkpoint {
+    public static final int MAGIC = 0x54504B43; //"CKPT" read as little endian bytes
+    public static final int VERSION = 2;
+
+    private final double xBounds;
+    private final double yBounds;
+    private final long step;
+
+    private Checkpoint(double xBounds, double yBounds, long step){
+        this.xBounds = xBounds;
+        this.yBounds = yBounds;
+        this.step = step;
+    }
+
+    /**
+     * write the state of the system to a file, replacing it
+     * @param particleSystem, system to save
+     * @param xBounds, width of the box the system runs in
+     * @param yBounds, height of the box the system runs in
+     * @param step, step count of the run
+     * @param file, file to write
+     * @throws IOException if the file cannot be written
+     */
+    public static void save(ParticleSystem particleSystem, double xBounds, double yBounds, long step, Path file) throws IOException {
+        byte[] type = particleSystem.getClass().getName().getBytes(StandardCharsets.UTF_8);
+        int stateSize = particleSystem.getStateSize();
+        long fileSize = 4 + 4 + 4 + type.length + 8 + 8 + 8 + 4 + (long) stateSize;
+        if(stateSize < 0 || fileSize > Integer.MAX_VALUE){
+            throw new IOException("the state of " + particleSystem.getNumberOfParticles() + " particles does not fit in one checkpoint");
+        }
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)){
+            //mapping past the end grows the file to its final size
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(type.length);
+            buffer.put(type);
+            buffer.putDouble(xBounds);
+            buffer.putDouble(yBounds);
+            buffer.putLong(step);
+            buffer.putInt(stateSize);
+            particleSystem.writeState(buffer);
+            //a saved checkpoint is on disk when save returns, not just in the page cache
+            buffer.force();
+        }
+    }
+
+    /**
+     * replace the state of the system with the one saved in a file
+     * @param particleSystem, system to restore into, must be of the class that was saved
+     * @param file, file to read
+     * @return the box and step count saved with the state
+     * @throws IOException if the file cannot be read, is not a checkpoint or was saved from another kind of system
+     */
+    public static Checkpoint restore(ParticleSystem particleSystem, Path file) throws IOException {
+        ByteBuffer buffer;
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            if(channel.size() > Integer.MAX_VALUE){
+                throw new IOException(file + " is too large to be a checkpoint");
+            }
+            //the mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        try {
+            if(buffer.getInt() != MAGIC){
+                throw new IOException(file + " is not a checkpoint");
+            }
+            int version = buffer.getInt();
+            if(version != VERSION){
+                throw new IOException(file + " has checkpoint version " + version + ", expected " + VERSION);
+            }
+            int typeLength = buffer.getInt();
+            if(typeLength < 0 || typeLength > buffer.remaining()){
+                throw new IOException(file + " is not a valid checkpoint");
+            }
+            byte[] type = new byte[typeLength];
+            buffer.get(type);
+            String typeName = new String(type, StandardCharsets.UTF_8);
+            if(!typeName.equals(particleSystem.getClass().getName())){
+                throw new IOException(file + " holds a " + typeName + ", not a " + particleSystem.getClass().getName());
+            }
+            Checkpoint checkpoint = new Checkpoint(buffer.getDouble(), buffer.getDouble(), buffer.getLong());
+            int stateSize = buffer.getInt();
+            if(buffer.remaining() < stateSize){
+                throw new IOException(file + " is truncated");
+            }
+            particleSystem.readState(buffer);
+            return checkpoint;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException(file + " is not a valid checkpoint: " + e.getMessage(), e);
+        }
+    }
+
+
+    /* GET METHODS */
+    public double getXBounds() {
+        return xBounds;
+    }
+    public double getYBounds() {
+        return yBounds;
+    }
+    public long getStep() {
+        return step;
+    }
+}
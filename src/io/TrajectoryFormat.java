@@ -0,0 +1,58 @@
+package io;
+
+/**
+ * About: Layout of a binary trajectory file, shared by the writer and the reader.
+ *
+ * The file is a 64 byte header followed by frames that all have the same size, so frame k starts at
+ * HEADER_SIZE + k * frameSize and can be read without looking at any other frame. Everything is little endian.
+ *
+ * header: magic (int), version (int), flags (int), particles (int), frame size in bytes (int), reserved (int),
+ *         x bounds (double), y bounds (double), frame count (long), zero padding up to 64 bytes
+ * frame:  step (long), time (double), then all x, all y, and with FLAG_VELOCITIES all x velocities and all y velocities,
+ *         each value a double, or a float with FLAG_FLOAT32
+ */
+public final class TrajectoryFormat {
+    public static final int MAGIC = 0x4A415254; //"TRAJ" read as little endian bytes
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 64;
+    public static final int FRAME_HEADER_SIZE = 16;
+
+    //values are stored as 32 bit floats (half the size, ~7 significant digits)
+    public static final int FLAG_FLOAT32 = 1;
+    //frames also hold the velocities
+    public static final int FLAG_VELOCITIES = 2;
+
+    //header field offsets
+    static final int OFFSET_MAGIC = 0;
+    static final int OFFSET_VERSION = 4;
+    static final int OFFSET_FLAGS = 8;
+    static final int OFFSET_PARTICLES = 12;
+    static final int OFFSET_FRAME_SIZE = 16;
+    static final int OFFSET_X_BOUNDS = 24;
+    static final int OFFSET_Y_BOUNDS = 32;
+    static final int OFFSET_FRAME_COUNT = 40;
+
+    //files are mapped in windows of about this size, always holding whole frames
+    static final long WINDOW_SIZE = 64L << 20;
+
+    private TrajectoryFormat(){
+    }
+
+    /**
+     * @param particles, particles per frame
+     * @param flags, FLAG_ bits
+     * @return size of one frame in bytes
+     */
+    public static long frameSize(int particles, int flags){
+        int valueSize = ((flags & FLAG_FLOAT32) != 0)? 4 : 8;
+        int valuesPerParticle = ((flags & FLAG_VELOCITIES) != 0)? 4 : 2;
+        return FRAME_HEADER_SIZE + (long) particles * valuesPerParticle * valueSize;
+    }
+
+    /**
+     * @return number of frames mapped together
+     */
+    static long framesPerWindow(long frameSize){
+        return Math.max(1, WINDOW_SIZE / frameSize);
+    }
+}
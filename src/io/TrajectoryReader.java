@@ -0,0 +1,160 @@
+package io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static io.TrajectoryFormat.*;
+
+/**
+ * About: Random access to the frames of a binary trajectory file (see TrajectoryFormat).
+ * Frames have a fixed size, so frame k is found by arithmetic alone; the window of the file around it is memory-mapped
+ * and kept, so reading frames in order maps each part of the file once.
+ */
+public class TrajectoryReader implements Closeable {
+    private final FileChannel channel;
+    private final int flags;
+    private final int particles;
+    private final long frameSize;
+    private final long framesPerWindow;
+    private final double xBounds;
+    private final double yBounds;
+    private final long frameCount;
+
+    private MappedByteBuffer window;
+    private long windowFirstFrame = -1;
+
+    /**
+     * open a trajectory file, the frames written so far are available
+     * @param file, file to read
+     * @throws IOException if the file cannot be read or is not a trajectory
+     */
+    public TrajectoryReader(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while(header.hasRemaining()){
+            if(channel.read(header, header.position()) < 0){
+                channel.close();
+                throw new IOException(file + " is too short to be a trajectory");
+            }
+        }
+        if(header.getInt(OFFSET_MAGIC) != MAGIC){
+            channel.close();
+            throw new IOException(file + " is not a trajectory");
+        }
+        if(header.getInt(OFFSET_VERSION) != VERSION){
+            channel.close();
+            throw new IOException(file + " has trajectory version " + header.getInt(OFFSET_VERSION) + ", expected " + VERSION);
+        }
+        this.flags = header.getInt(OFFSET_FLAGS);
+        this.particles = header.getInt(OFFSET_PARTICLES);
+        this.frameSize = header.getInt(OFFSET_FRAME_SIZE);
+        this.xBounds = header.getDouble(OFFSET_X_BOUNDS);
+        this.yBounds = header.getDouble(OFFSET_Y_BOUNDS);
+        this.framesPerWindow = framesPerWindow(frameSize);
+        //a writer that did not close cleanly leaves the header count behind the data, the file length is the other bound
+        this.frameCount = Math.min(header.getLong(OFFSET_FRAME_COUNT), (channel.size() - HEADER_SIZE) / frameSize);
+    }
+
+    /**
+     * read the positions (and velocities, if recorded) of frame k into the given arrays
+     * @param frame, index of the frame, 0 is the first
+     * @param x, receives the x positions, at least getParticles() long
+     * @param y, receives the y positions
+     * @param xVelocity, receives the x velocities, may be null
+     * @param yVelocity, receives the y velocities, may be null
+     * @throws IOException if the file cannot be mapped
+     */
+    public void readFrame(long frame, double[] x, double[] y, double[] xVelocity, double[] yVelocity) throws IOException {
+        MappedByteBuffer buffer = frameBuffer(frame);
+        int start = buffer.position() + FRAME_HEADER_SIZE;
+        int valueSize = isFloat32()? 4 : 8;
+        int block = particles * valueSize;
+        get(buffer, start, x);
+        get(buffer, start + block, y);
+        if(hasVelocities()){
+            if(xVelocity != null){ get(buffer, start + 2 * block, xVelocity); }
+            if(yVelocity != null){ get(buffer, start + 3 * block, yVelocity); }
+        }
+    }
+
+    /**
+     * @param frame, index of the frame
+     * @return step number stored with the frame
+     */
+    public long getStep(long frame) throws IOException {
+        MappedByteBuffer buffer = frameBuffer(frame);
+        return buffer.getLong(buffer.position());
+    }
+
+    /**
+     * @param frame, index of the frame
+     * @return simulation time stored with the frame
+     */
+    public double getTime(long frame) throws IOException {
+        MappedByteBuffer buffer = frameBuffer(frame);
+        return buffer.getDouble(buffer.position() + 8);
+    }
+
+    private void get(MappedByteBuffer buffer, int offset, double[] values){
+        if(isFloat32()){
+            for(int i = 0; i < particles; i++){
+                values[i] = buffer.getFloat(offset + 4 * i);
+            }
+        } else {
+            for(int i = 0; i < particles; i++){
+                values[i] = buffer.getDouble(offset + 8 * i);
+            }
+        }
+    }
+
+    /**
+     * the mapped window holding the given frame, positioned at the frame's start
+     */
+    private MappedByteBuffer frameBuffer(long frame) throws IOException {
+        if(frame < 0 || frame >= frameCount){
+            throw new IndexOutOfBoundsException("frame " + frame + " of " + frameCount);
+        }
+        long first = frame - frame % framesPerWindow;
+        if(first != windowFirstFrame){
+            long frames = Math.min(framesPerWindow, frameCount - first);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + first * frameSize, frames * frameSize);
+            window.order(ByteOrder.LITTLE_ENDIAN);
+            windowFirstFrame = first;
+        }
+        window.position((int) ((frame - first) * frameSize));
+        return window;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+
+    /* GET METHODS */
+    public int getParticles() {
+        return particles;
+    }
+    public long getFrameCount() {
+        return frameCount;
+    }
+    public double getXBounds() {
+        return xBounds;
+    }
+    public double getYBounds() {
+        return yBounds;
+    }
+    public boolean isFloat32() {
+        return (flags & FLAG_FLOAT32) != 0;
+    }
+    public boolean hasVelocities() {
+        return (flags & FLAG_VELOCITIES) != 0;
+    }
+}
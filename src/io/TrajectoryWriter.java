@@ -0,0 +1,191 @@
+package io;
+
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+import models.OffHeapParticleStore;
+import models.ParticleStore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static io.TrajectoryFormat.*;
+
+/**
+ * About: Appends frames of a particle store to a binary trajectory file (see TrajectoryFormat).
+ * Frames are written straight into a memory-mapped window of the file, the next window is mapped when one fills up,
+ * so recording a frame costs a copy of the particle arrays and nothing is allocated per particle or per frame.
+ * The position and velocity blocks of a frame have the layout of the columns of an OffHeapParticleStore, so a frame of
+ * off-heap particles in doubles is one bulk copy per column into the mapping.
+ */
+public class TrajectoryWriter implements Closeable {
+    private final FileChannel channel;
+    private final int particles;
+    private final int flags;
+    private final long frameSize;
+    private final long framesPerWindow;
+
+    private MappedByteBuffer header;
+    private MappedByteBuffer window;
+    //the window as a segment, taken when off-heap particles are first recorded into it
+    private MemorySegment windowSegment;
+    private long windowFirstFrame = -1;
+    private long frameCount;
+
+    /**
+     * create (or overwrite) a trajectory file
+     * @param file, file to write
+     * @param particles, particles per frame
+     * @param xBounds, width of the box, stored for readers
+     * @param yBounds, height of the box, stored for readers
+     * @param float32, store values as floats instead of doubles
+     * @param velocities, store the velocities as well as the positions
+     * @throws IOException if the file cannot be created
+     */
+    public TrajectoryWriter(Path file, int particles, double xBounds, double yBounds, boolean float32, boolean velocities) throws IOException {
+        this.particles = particles;
+        this.flags = ((float32)? FLAG_FLOAT32 : 0) | ((velocities)? FLAG_VELOCITIES : 0);
+        this.frameSize = frameSize(particles, flags);
+        if(frameSize > Integer.MAX_VALUE){
+            throw new IllegalArgumentException("a frame of " + particles + " particles does not fit in one mapping");
+        }
+        this.framesPerWindow = framesPerWindow(frameSize);
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(OFFSET_MAGIC, MAGIC);
+        header.putInt(OFFSET_VERSION, VERSION);
+        header.putInt(OFFSET_FLAGS, flags);
+        header.putInt(OFFSET_PARTICLES, particles);
+        header.putInt(OFFSET_FRAME_SIZE, (int) frameSize);
+        header.putDouble(OFFSET_X_BOUNDS, xBounds);
+        header.putDouble(OFFSET_Y_BOUNDS, yBounds);
+        header.putLong(OFFSET_FRAME_COUNT, 0);
+    }
+
+    /**
+     * append the current state of the store as the next frame, the particles in id order so a particle keeps its
+     * place in every frame however the store is sorted
+     * @param store, particles to record, must hold the number of particles the file was created for
+     * @param step, step number of the frame
+     * @param time, simulation time of the frame
+     * @throws IOException if the file cannot grow
+     */
+    public void writeFrame(ParticleStore store, long step, double time) throws IOException {
+        if(store.size() != particles){
+            throw new IllegalArgumentException("store holds " + store.size() + " particles, the trajectory " + particles);
+        }
+        MappedByteBuffer buffer = frameBuffer(frameCount);
+        buffer.putLong(step);
+        buffer.putDouble(time);
+        int[] index = store.getIndex();
+        put(buffer, store.getX(), index);
+        put(buffer, store.getY(), index);
+        if((flags & FLAG_VELOCITIES) != 0){
+            put(buffer, store.getXVelocity(), index);
+            put(buffer, store.getYVelocity(), index);
+        }
+        frameCount++;
+        //readers of a file that is still being written see every complete frame
+        header.putLong(OFFSET_FRAME_COUNT, frameCount);
+    }
+
+    private void put(MappedByteBuffer buffer, double[] values, int[] index){
+        if((flags & FLAG_FLOAT32) != 0){
+            for(int particleId = 0; particleId < particles; particleId++){
+                buffer.putFloat((float) values[index[particleId]]);
+            }
+        } else {
+            for(int particleId = 0; particleId < particles; particleId++){
+                buffer.putDouble(values[index[particleId]]);
+            }
+        }
+    }
+
+    /**
+     * append the current state of off-heap particles as the next frame, like writeFrame for a ParticleStore.
+     * Their index is their id, so in doubles every block is a copy of one column of the store's segment
+     * @param store, particles to record, must hold the number of particles the file was created for
+     * @param step, step number of the frame
+     * @param time, simulation time of the frame
+     * @throws IOException if the file cannot grow
+     */
+    public void writeFrame(OffHeapParticleStore store, long step, double time) throws IOException {
+        if(store.size() != particles){
+            throw new IllegalArgumentException("store holds " + store.size() + " particles, the trajectory " + particles);
+        }
+        MappedByteBuffer buffer = frameBuffer(frameCount);
+        buffer.putLong(step);
+        buffer.putDouble(time);
+        int blocks = ((flags & FLAG_VELOCITIES) != 0)? 4 : 2;
+        //x, y, x velocity and y velocity are the first four columns of the store
+        if((flags & FLAG_FLOAT32) != 0){
+            for(int column = 0; column < blocks; column++){
+                MemorySegment values = store.getColumn(column);
+                for(int particleId = 0; particleId < particles; particleId++){
+                    buffer.putFloat((float) MemoryAccess.getDoubleAtIndex(values, particleId));
+                }
+            }
+        } else {
+            if(windowSegment == null){
+                windowSegment = MemorySegment.ofByteBuffer(window.duplicate().position(0));
+            }
+            for(int column = 0; column < blocks; column++){
+                store.copyColumnTo(column, windowSegment.asSlice(buffer.position() + 8L * particles * column));
+            }
+            buffer.position(buffer.position() + 8 * particles * blocks);
+        }
+        frameCount++;
+        header.putLong(OFFSET_FRAME_COUNT, frameCount);
+    }
+
+    /**
+     * the mapped window holding the given frame, positioned at the frame's start
+     */
+    private MappedByteBuffer frameBuffer(long frame) throws IOException {
+        long first = frame - frame % framesPerWindow;
+        if(first != windowFirstFrame){
+            //mapping past the end grows the file
+            window = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + first * frameSize, framesPerWindow * frameSize);
+            window.order(ByteOrder.LITTLE_ENDIAN);
+            windowSegment = null;
+            windowFirstFrame = first;
+        }
+        window.position((int) ((frame - first) * frameSize));
+        return window;
+    }
+
+    /**
+     * flush the frames to disk and cut the file down to the frames actually written
+     */
+    @Override
+    public void close() throws IOException {
+        if(window != null){
+            window.force();
+        }
+        header.force();
+        window = null;
+        windowSegment = null;
+        header = null;
+        channel.truncate(HEADER_SIZE + frameCount * frameSize);
+        channel.close();
+    }
+
+
+    /* GET METHODS */
+    public long getFrameCount() {
+        return frameCount;
+    }
+    /**
+     * @return size of one frame in bytes
+     */
+    public long getFrameSize() {
+        return frameSize;
+    }
+}
@@ -7,11 +7,14 @@ import javafx.fxml.Initializable;
 import javafx.geometry.Insets;
 import javafx.scene.control.Button;
 import javafx.scene.control.CheckBox;
+import javafx.scene.control.Spinner;
 import javafx.scene.layout.Pane;
 import javafx.scene.paint.Color;
 import models.IdealParticleSystem;
 import models.ParticleSystem;
 import animation.ParticleAnimationService;
+import animation.ParticleCanvasRenderer;
+import animation.ParticleNodeRenderer;
 import models.VanderWaalsParticleSystem;
 
 import java.net.URL;
@@ -22,17 +25,26 @@ public class DashboardFXMLController implements Initializable {
     private IdealParticleSystem idealParticleSystem;
     private VanderWaalsParticleSystem vanderWaalsParticleSystem;
     private ParticleSystem particleSystem;
+    private ParticleNodeRenderer particleNodeRenderer;
+    private ParticleCanvasRenderer particleCanvasRenderer;
     private enum PlayBackStatus { STARTED, STOPPED}
+    //upper bound of the particle count spinner, large counts want the canvas renderer
+    private static final int MAX_PARTICLES = 20000;
 
     @FXML private Button playBackBtn;
     @FXML private Pane animationPane;
     @FXML private CheckBox enableVanderWaalCheckBox;
+    @FXML private CheckBox enableCanvasRendererCheckBox;
+    @FXML private Spinner<Integer> particleCountSpinner;
+    @FXML private Pane speedHistogramPane;
 
     public DashboardFXMLController(){
         //initialize singletons here
         this.particleAnimationService = particleAnimationService.getInstance();
-        this.idealParticleSystem = new IdealParticleSystem();
-        this.vanderWaalsParticleSystem = new VanderWaalsParticleSystem();
+        this.idealParticleSystem = new IdealParticleSystem(MAX_PARTICLES);
+        this.vanderWaalsParticleSystem = new VanderWaalsParticleSystem(MAX_PARTICLES);
+        this.particleNodeRenderer = new ParticleNodeRenderer();
+        this.particleCanvasRenderer = new ParticleCanvasRenderer();
     }
 
     @Override
@@ -46,13 +58,29 @@ public class DashboardFXMLController implements Initializable {
         //enable vander waals checkbox
         this.enableVanderWaalCheckBox.setDisable(false);
 
+        //canvas renderer checkbox (draws all particles in one pass, for large particle counts)
+        this.enableCanvasRendererCheckBox.setDisable(false);
+
+        //particle count spinner, changes the running system in place
+        this.particleCountSpinner.setDisable(false);
+        this.particleCountSpinner.valueProperty().addListener((observable, oldValue, newValue) -> {
+            if(newValue != null && PlayBackStatus.STARTED.equals(playBackBtn.getUserData())){
+                particleAnimationService.setNumberOfParticles(newValue);
+            }
+        });
+
+        //speed distribution chart, filled while the simulation runs
+        particleAnimationService.setSpeedHistogramPane(this.speedHistogramPane);
+
     }
 
     @FXML
     public void startSimulation(){
         //instantiate correct particle system with the proper number of particles
         particleSystem = (enableVanderWaalCheckBox.isSelected())? vanderWaalsParticleSystem : idealParticleSystem;
-        particleSystem.setNumberOfParticles(150);
+        particleSystem.setNumberOfParticles(particleCountSpinner.getValue());
+        //pick how the particles are drawn
+        particleAnimationService.setRenderer((enableCanvasRendererCheckBox.isSelected())? particleCanvasRenderer : particleNodeRenderer);
         //use animation service to start particle animation
         particleAnimationService.animate(particleSystem, this.animationPane);
         //update status of play button
@@ -61,6 +89,7 @@ public class DashboardFXMLController implements Initializable {
         this.playBackBtn.setText("Stop Simulation");
         //disable switching of animation service
         this.enableVanderWaalCheckBox.setDisable(true);
+        this.enableCanvasRendererCheckBox.setDisable(true);
     }
 
     @FXML
@@ -73,6 +102,7 @@ public class DashboardFXMLController implements Initializable {
         this.playBackBtn.setText("Start Simulation");
         //enable switching of animation service
         this.enableVanderWaalCheckBox.setDisable(false);
+        this.enableCanvasRendererCheckBox.setDisable(false);
     }
 
     /* EVENT HANDLERS */
@@ -0,0 +1,31 @@
+package metrics;
+
+/**
+ * About: The parts a simulation step (and the frame around it) is timed in.
+ */
+public enum Phase {
+    //checking the storage order and sorting the particles along the Hilbert curve when it has scattered
+    REORDER("reorder"),
+    //finding the candidate pairs: spatial grid or neighbor list rebuild
+    BROAD_PHASE("broad phase"),
+    //visiting the candidate pairs: collision checks and responses, or pair forces
+    NARROW_PHASE("narrow phase"),
+    //moving the particles, wall bounces included (they are handled in the same pass)
+    INTEGRATION("integration"),
+    //the event-driven engine, which predicts and handles collisions in one loop
+    EVENTS("events"),
+    //a distributed step: waiting for the worker processes, which step their slabs and exchange particles at the seams
+    EXCHANGE("exchange"),
+    //publishing the state to the renderer
+    RENDER_SYNC("render sync");
+
+    private final String label;
+
+    Phase(String label){
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+}
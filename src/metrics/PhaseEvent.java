@@ -0,0 +1,25 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * About: Flight recorder event covering one phase of a simulation step, see Phase.
+ * Costs nothing but a flag check unless a recording has it enabled.
+ */
+@Name("gaslaws.Phase")
+@Label("Simulation Phase")
+@Category("Gas Laws Simulation")
+@Description("Time spent in one phase of a simulation step")
+@StackTrace(false)
+public class PhaseEvent extends Event {
+    @Label("Phase")
+    public String phase;
+
+    @Label("Particles")
+    public int particles;
+}
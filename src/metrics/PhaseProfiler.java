@@ -0,0 +1,186 @@
+package metrics;
+
+import physics.SpatialGrid;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * About: Times the phases of each step of one particle system and counts the work done, for SimulationMetrics and
+ * the flight recorder. A step is bracketed by beginStep and endStep, and lap(phase) marks the end of each phase.
+ * Whether anything is measured is decided once per step: without attached metrics and without a recording that has
+ * the events enabled, every call returns after a single flag check and nothing is counted.
+ */
+public class PhaseProfiler {
+    private SimulationMetrics metrics;
+    //never committed, only asked whether a recording wants the events
+    private final PhaseEvent phaseProbe = new PhaseEvent();
+    private final StepEvent stepProbe = new StepEvent();
+
+    private boolean active;
+    private boolean recordingPhases;
+    private long stepStart;
+    private long lapStart;
+    private long allocationStart;
+    private PhaseEvent phaseEvent;
+    private StepEvent stepEvent;
+    private int particles;
+
+    //counted from the worker threads during parallel steps
+    private final LongAdder pairsTested = new LongAdder();
+    private final LongAdder collisions = new LongAdder();
+    private final LongAdder wallCollisions = new LongAdder();
+
+    //the counting wrapper of the visitor counted last, kept so counting allocates nothing per step
+    private SpatialGrid.PairVisitor countedVisitor;
+    private SpatialGrid.PairVisitor countingVisitor;
+
+    /**
+     * start timing a step
+     * @param particles, number of particles stepped
+     */
+    public void beginStep(int particles){
+        recordingPhases = phaseProbe.isEnabled();
+        boolean recordingSteps = stepProbe.isEnabled();
+        active = metrics != null || recordingPhases || recordingSteps;
+        if(!active){
+            return;
+        }
+        this.particles = particles;
+        pairsTested.reset();
+        collisions.reset();
+        wallCollisions.reset();
+        if(metrics != null){
+            allocationStart = SimulationMetrics.currentThreadAllocatedBytes();
+        }
+        if(recordingSteps){
+            stepEvent = new StepEvent();
+            stepEvent.begin();
+        }
+        if(recordingPhases){
+            phaseEvent = new PhaseEvent();
+            phaseEvent.begin();
+        }
+        stepStart = lapStart = System.nanoTime();
+    }
+
+    /**
+     * the time since the last lap (or the start of the step) was spent in the given phase
+     * @param phase, phase that just ended
+     */
+    public void lap(Phase phase){
+        if(!active){
+            return;
+        }
+        long now = System.nanoTime();
+        if(metrics != null){
+            metrics.recordPhase(phase, now - lapStart);
+        }
+        lapStart = now;
+        if(recordingPhases){
+            phaseEvent.end();
+            phaseEvent.phase = phase.getLabel();
+            phaseEvent.particles = particles;
+            phaseEvent.commit();
+            phaseEvent = new PhaseEvent();
+            phaseEvent.begin();
+        }
+    }
+
+    /**
+     * finish timing a step
+     * @param dt, simulation time the step covered
+     */
+    public void endStep(double dt){
+        if(!active){
+            return;
+        }
+        long nanos = System.nanoTime() - stepStart;
+        long pairs = pairsTested.sum();
+        long stepCollisions = collisions.sum();
+        long stepWallCollisions = wallCollisions.sum();
+        if(metrics != null){
+            long allocated = (allocationStart >= 0)? SimulationMetrics.currentThreadAllocatedBytes() - allocationStart : -1;
+            metrics.recordStep(nanos, pairs, stepCollisions, stepWallCollisions, allocated);
+        }
+        if(stepEvent != null){
+            stepEvent.end();
+            stepEvent.particles = particles;
+            stepEvent.dt = dt;
+            stepEvent.pairsTested = pairs;
+            stepEvent.collisions = stepCollisions;
+            stepEvent.wallCollisions = stepWallCollisions;
+            stepEvent.commit();
+            stepEvent = null;
+        }
+        phaseEvent = null;
+        active = false;
+    }
+
+    /**
+     * @param visitor, pair visitor of the step
+     * @return the visitor itself, or while measuring a visitor that counts the pairs before handing them on
+     */
+    public SpatialGrid.PairVisitor counting(SpatialGrid.PairVisitor visitor){
+        if(!active){
+            return visitor;
+        }
+        if(visitor != countedVisitor){
+            countedVisitor = visitor;
+            countingVisitor = (i, j) -> {
+                pairsTested.increment();
+                visitor.visit(i, j);
+            };
+        }
+        return countingVisitor;
+    }
+
+    /**
+     * count a resolved particle-particle collision, safe from any thread
+     */
+    public void collision(){
+        if(active){
+            collisions.increment();
+        }
+    }
+
+    /**
+     * count collisions handled in bulk, e.g. by the event-driven engine
+     * @param particleCollisions, particle-particle collisions
+     * @param wallBounces, wall bounces
+     */
+    public void addCollisions(long particleCollisions, long wallBounces){
+        if(active){
+            collisions.add(particleCollisions);
+            wallCollisions.add(wallBounces);
+        }
+    }
+
+    /**
+     * count a wall bounce, safe from any thread
+     */
+    public void wallCollision(){
+        if(active){
+            wallCollisions.increment();
+        }
+    }
+
+
+    /* GET METHODS */
+    public SimulationMetrics getMetrics() {
+        return metrics;
+    }
+    /**
+     * @return true while the current step is measured
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    /* SET METHODS */
+    /**
+     * @param metrics, totals to add every step to, null to stop collecting them
+     */
+    public void setMetrics(SimulationMetrics metrics) {
+        this.metrics = metrics;
+    }
+}
@@ -0,0 +1,323 @@
+package metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * About: Running totals and rates of a simulation, filled in by the thread that steps it and exposed as a JMX MBean.
+ * Nothing is measured unless an instance is attached to a particle system (ParticleSystem.setMetrics), so an
+ * uninstrumented run pays one flag check per phase.
+ * Only the stepping thread writes; readers on other threads may see one step's values half updated, never torn ones.
+ */
+public class SimulationMetrics implements SimulationMetricsMBean {
+    //system property that turns metrics on for the dashboard
+    public static final String ENABLE_PROPERTY = "gaslaws.metrics";
+    public static final String DOMAIN = "gaslaws";
+    //step and frame times are counted in buckets of doubling width: < 1us, < 2us, < 4us, ... and an open last bucket
+    public static final int HISTOGRAM_BUCKETS = 24;
+    private static final long RATE_WINDOW_NANOS = 1_000_000_000L;
+    private static final Phase[] PHASES = Phase.values();
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean ALLOCATION_SUPPORTED = allocationSupported();
+
+    private volatile long steps;
+    private volatile long collisions;
+    private volatile long pairsTested;
+    private volatile long wallCollisions;
+    private volatile long stepNanos;
+    private volatile long allocatedBytes;
+    private final AtomicLongArray phaseNanos = new AtomicLongArray(PHASES.length);
+    private final AtomicLongArray stepHistogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+    private final AtomicLongArray frameHistogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+    //reset is requested from the JMX thread and carried out by the stepping thread
+    private volatile boolean resetRequested;
+
+    //rates over the last full window
+    private long windowStart = System.nanoTime();
+    private long windowSteps;
+    private long windowCollisions;
+    private long windowPairs;
+    private long windowAllocated;
+    private volatile double stepsPerSecond;
+    private volatile double collisionsPerSecond;
+    private volatile double pairsPerSecond;
+    private volatile double allocatedBytesPerStep;
+
+    private ObjectName name;
+
+    /**
+     * publish these metrics on the platform MBean server, replacing metrics registered under the same name
+     * @param systemName, name the metrics are listed under, e.g. the particle system's class
+     * @throws IllegalStateException if the MBean server refuses the registration
+     */
+    public void register(String systemName){
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=Simulation,name=" + ObjectName.quote(systemName));
+            if(server.isRegistered(objectName)){
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+            this.name = objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("could not register the metrics of " + systemName, e);
+        }
+    }
+
+    /**
+     * remove these metrics from the platform MBean server
+     */
+    public void unregister(){
+        if(name == null){
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            //already gone
+        }
+        name = null;
+    }
+
+    /**
+     * @return bytes allocated by the current thread so far, -1 if the JVM cannot tell
+     */
+    public static long currentThreadAllocatedBytes(){
+        return (ALLOCATION_SUPPORTED)? ((com.sun.management.ThreadMXBean) THREADS).getCurrentThreadAllocatedBytes() : -1;
+    }
+
+    private static boolean allocationSupported(){
+        if(!(THREADS instanceof com.sun.management.ThreadMXBean)){
+            return false;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+        return threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled();
+    }
+
+
+    /* RECORD METHODS, stepping thread only */
+    /**
+     * add the time one step spent in a phase
+     * @param phase, phase the time was spent in
+     * @param nanos, time spent
+     */
+    public void recordPhase(Phase phase, long nanos){
+        phaseNanos.lazySet(phase.ordinal(), phaseNanos.get(phase.ordinal()) + nanos);
+    }
+
+    /**
+     * add one finished step
+     * @param nanos, time the step took
+     * @param pairs, candidate pairs the step tested
+     * @param stepCollisions, particle-particle collisions the step resolved
+     * @param stepWallCollisions, wall bounces during the step
+     * @param allocated, bytes the stepping thread allocated during the step, negative if unknown
+     */
+    public void recordStep(long nanos, long pairs, long stepCollisions, long stepWallCollisions, long allocated){
+        if(resetRequested){
+            clear();
+        }
+        steps++;
+        stepNanos += nanos;
+        pairsTested += pairs;
+        collisions += stepCollisions;
+        wallCollisions += stepWallCollisions;
+        if(allocated >= 0){
+            allocatedBytes += allocated;
+        }
+        count(stepHistogram, nanos);
+
+        long now = System.nanoTime();
+        long elapsed = now - windowStart;
+        if(elapsed >= RATE_WINDOW_NANOS){
+            long windowStepCount = steps - windowSteps;
+            stepsPerSecond = windowStepCount * 1e9 / elapsed;
+            collisionsPerSecond = (collisions - windowCollisions) * 1e9 / elapsed;
+            pairsPerSecond = (pairsTested - windowPairs) * 1e9 / elapsed;
+            allocatedBytesPerStep = (windowStepCount > 0)? (allocatedBytes - windowAllocated) / (double) windowStepCount : 0;
+            windowStart = now;
+            windowSteps = steps;
+            windowCollisions = collisions;
+            windowPairs = pairsTested;
+            windowAllocated = allocatedBytes;
+        }
+    }
+
+    /**
+     * add one rendered frame: the batch of physics steps taken for it plus handing the state to the renderer
+     * @param nanos, time the frame took on the simulation thread
+     */
+    public void recordFrame(long nanos){
+        count(frameHistogram, nanos);
+    }
+
+    private static void count(AtomicLongArray histogram, long nanos){
+        int bucket = Math.min(HISTOGRAM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(Math.max(0, nanos) / 1000));
+        histogram.lazySet(bucket, histogram.get(bucket) + 1);
+    }
+
+    private void clear(){
+        resetRequested = false;
+        steps = collisions = pairsTested = wallCollisions = stepNanos = allocatedBytes = 0;
+        for(int k = 0; k < PHASES.length; k++){
+            phaseNanos.set(k, 0);
+        }
+        for(int k = 0; k < HISTOGRAM_BUCKETS; k++){
+            stepHistogram.set(k, 0);
+            frameHistogram.set(k, 0);
+        }
+        windowStart = System.nanoTime();
+        windowSteps = windowCollisions = windowPairs = windowAllocated = 0;
+        stepsPerSecond = collisionsPerSecond = pairsPerSecond = allocatedBytesPerStep = 0;
+    }
+
+    @Override
+    public void reset() {
+        resetRequested = true;
+    }
+
+
+    /* GET METHODS */
+    @Override
+    public long getSteps() {
+        return steps;
+    }
+    @Override
+    public double getStepsPerSecond() {
+        return stepsPerSecond;
+    }
+    @Override
+    public long getCollisions() {
+        return collisions;
+    }
+    @Override
+    public double getCollisionsPerSecond() {
+        return collisionsPerSecond;
+    }
+    @Override
+    public long getPairsTested() {
+        return pairsTested;
+    }
+    @Override
+    public double getPairsTestedPerSecond() {
+        return pairsPerSecond;
+    }
+    @Override
+    public long getWallCollisions() {
+        return wallCollisions;
+    }
+    @Override
+    public String[] getPhaseNames() {
+        String[] names = new String[PHASES.length];
+        for(int k = 0; k < PHASES.length; k++){
+            names[k] = PHASES[k].getLabel();
+        }
+        return names;
+    }
+    @Override
+    public double[] getPhaseMillisPerStep() {
+        long stepCount = steps;
+        double[] millis = new double[PHASES.length];
+        for(int k = 0; k < PHASES.length; k++){
+            millis[k] = (stepCount > 0)? phaseNanos.get(k) / 1e6 / stepCount : 0;
+        }
+        return millis;
+    }
+    /**
+     * @param phase, phase to look up
+     * @return average milliseconds per step spent in the phase
+     */
+    public double getPhaseMillisPerStep(Phase phase) {
+        long stepCount = steps;
+        return (stepCount > 0)? phaseNanos.get(phase.ordinal()) / 1e6 / stepCount : 0;
+    }
+    @Override
+    public double getStepMillis() {
+        long stepCount = steps;
+        return (stepCount > 0)? stepNanos / 1e6 / stepCount : 0;
+    }
+    @Override
+    public long[] getHistogramBucketMicros() {
+        long[] bounds = new long[HISTOGRAM_BUCKETS];
+        for(int k = 0; k < HISTOGRAM_BUCKETS; k++){
+            bounds[k] = (k == HISTOGRAM_BUCKETS - 1)? Long.MAX_VALUE : 1L << k;
+        }
+        return bounds;
+    }
+    @Override
+    public long[] getStepTimeHistogram() {
+        return snapshot(stepHistogram);
+    }
+    @Override
+    public long[] getFrameTimeHistogram() {
+        return snapshot(frameHistogram);
+    }
+    @Override
+    public double getFrameTimeMedianMillis() {
+        return percentile(frameHistogram, 0.5);
+    }
+    @Override
+    public double getFrameTimeP99Millis() {
+        return percentile(frameHistogram, 0.99);
+    }
+    @Override
+    public long getAllocatedBytes() {
+        return (ALLOCATION_SUPPORTED)? allocatedBytes : -1;
+    }
+    @Override
+    public double getAllocatedBytesPerStep() {
+        return (ALLOCATION_SUPPORTED)? allocatedBytesPerStep : -1;
+    }
+    @Override
+    public long getGcCount() {
+        long count = 0;
+        for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()){
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+    @Override
+    public long getGcTimeMillis() {
+        long time = 0;
+        for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()){
+            time += Math.max(0, collector.getCollectionTime());
+        }
+        return time;
+    }
+
+    private static long[] snapshot(AtomicLongArray histogram){
+        long[] counts = new long[HISTOGRAM_BUCKETS];
+        for(int k = 0; k < HISTOGRAM_BUCKETS; k++){
+            counts[k] = histogram.get(k);
+        }
+        return counts;
+    }
+
+    /**
+     * @return upper bound of the bucket holding the given fraction of the counts, in milliseconds (the open bucket reports its lower bound)
+     */
+    private static double percentile(AtomicLongArray histogram, double fraction){
+        long[] counts = snapshot(histogram);
+        long total = 0;
+        for(long count : counts){
+            total += count;
+        }
+        if(total == 0){
+            return 0;
+        }
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for(int k = 0; k < HISTOGRAM_BUCKETS; k++){
+            seen += counts[k];
+            if(seen >= rank){
+                return (k == HISTOGRAM_BUCKETS - 1)? (1L << (k - 1)) / 1000.0 : (1L << k) / 1000.0;
+            }
+        }
+        return (1L << (HISTOGRAM_BUCKETS - 2)) / 1000.0;
+    }
+}
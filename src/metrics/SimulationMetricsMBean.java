@@ -0,0 +1,53 @@
+package metrics;
+
+/**
+ * About: What SimulationMetrics shows over JMX (e.g. in JConsole or VisualVM under gaslaws).
+ * Rates cover the last full second, totals everything since the last reset.
+ */
+public interface SimulationMetricsMBean {
+    long getSteps();
+    double getStepsPerSecond();
+    long getCollisions();
+    double getCollisionsPerSecond();
+    long getPairsTested();
+    double getPairsTestedPerSecond();
+    long getWallCollisions();
+
+    /**
+     * @return names of the phases, in the order of getPhaseMillisPerStep
+     */
+    String[] getPhaseNames();
+    /**
+     * @return average milliseconds per step spent in each phase
+     */
+    double[] getPhaseMillisPerStep();
+    double getStepMillis();
+
+    /**
+     * @return upper bounds of the histogram buckets in microseconds, the last bucket is open
+     */
+    long[] getHistogramBucketMicros();
+    /**
+     * @return number of steps per step-time bucket
+     */
+    long[] getStepTimeHistogram();
+    /**
+     * @return number of rendered frames (physics batch plus render sync) per frame-time bucket
+     */
+    long[] getFrameTimeHistogram();
+    double getFrameTimeMedianMillis();
+    double getFrameTimeP99Millis();
+
+    /**
+     * @return bytes allocated by the stepping thread while stepping, -1 if the JVM cannot tell
+     */
+    long getAllocatedBytes();
+    double getAllocatedBytesPerStep();
+    long getGcCount();
+    long getGcTimeMillis();
+
+    /**
+     * start counting from zero
+     */
+    void reset();
+}
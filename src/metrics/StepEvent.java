@@ -0,0 +1,36 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * About: Flight recorder event covering one whole simulation step, with what the step did.
+ * Costs nothing but a flag check unless a recording has it enabled.
+ */
+@Name("gaslaws.Step")
+@Label("Simulation Step")
+@Category("Gas Laws Simulation")
+@Description("One simulation step and the work it did")
+@StackTrace(false)
+public class StepEvent extends Event {
+    @Label("Particles")
+    public int particles;
+
+    @Label("Time Step")
+    @Description("Simulation time the step covered")
+    public double dt;
+
+    @Label("Pairs Tested")
+    public long pairsTested;
+
+    @Label("Collisions")
+    @Description("Particle-particle collisions resolved")
+    public long collisions;
+
+    @Label("Wall Collisions")
+    public long wallCollisions;
+}
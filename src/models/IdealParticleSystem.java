@@ -1,9 +1,100 @@
 package models;
 
+import metrics.Phase;
+import physics.EventDrivenEngine;
+
+import java.nio.ByteBuffer;
+
 public class IdealParticleSystem extends ParticleSystem{
+    private final EventDrivenEngine eventDrivenEngine;
+    private boolean eventDriven;
+
     public IdealParticleSystem(){
-        super();
-        System.out.println("Instance of Ideal Particle System Created.");
+        this(DEFAULT_MAX_PARTICLES);
+    }
+
+    /**
+     * @param maxParticles, total maximum allowed particles
+     */
+    public IdealParticleSystem(int maxParticles){
+        super(maxParticles);
+        this.eventDrivenEngine = new EventDrivenEngine();
+        this.eventDrivenEngine.setCollisionListener((i, j) -> {
+            speedChanged(i);
+            speedChanged(j);
+        });
+    }
+
+    @Override
+    public void init(double xBounds, double yBounds) {
+        super.init(xBounds, yBounds);
+        eventDrivenEngine.invalidate();
+    }
+
+    /**
+     * the event queue is not part of the state, it is predicted again from the restored particles
+     */
+    @Override
+    public void readState(ByteBuffer buffer) {
+        super.readState(buffer);
+        eventDrivenEngine.invalidate();
+    }
+
+    /**
+     * advance the system, either with the time-stepped collision checks or by jumping from collision event to collision event
+     */
+    @Override
+    protected void advance(double xBounds, double yBounds, double dt) {
+        if(eventDriven){
+            long particleCollisions = eventDrivenEngine.getParticleCollisions();
+            long wallCollisions = eventDrivenEngine.getWallCollisions();
+            eventDrivenEngine.advance(this.store, xBounds, yBounds, dt);
+            profiler.lap(Phase.EVENTS);
+            profiler.addCollisions(eventDrivenEngine.getParticleCollisions() - particleCollisions, eventDrivenEngine.getWallCollisions() - wallCollisions);
+            observables.record(dt, eventDrivenEngine.takeWallImpulse(), eventDrivenEngine.getKineticEnergy(), 0, store.size(), xBounds, yBounds);
+            return;
+        }
+        super.advance(xBounds, yBounds, dt);
+    }
+
+    /**
+     * switch to the event-driven hard-sphere engine: every particle-particle and wall collision is predicted
+     * and handled at its exact time, which for a dilute gas takes far fewer operations than checking every step
+     * @param eventDriven, true for the event-driven engine, false for time stepping
+     */
+    public void setEventDriven(boolean eventDriven) {
+        this.eventDriven = eventDriven;
+        eventDrivenEngine.invalidate();
+    }
+    /**
+     * the predicted event times depend on the velocities, so they are predicted again
+     */
+    @Override
+    public void setTemperature(double temperature) {
+        super.setTemperature(temperature);
+        eventDrivenEngine.invalidate();
+    }
+    /**
+     * the predicted events name particles by index, so they are predicted afresh
+     */
+    @Override
+    protected void particlesReordered(int[] order) {
+        super.particlesReordered(order);
+        eventDrivenEngine.invalidate();
+    }
+    /**
+     * particles came or went, the predicted events are predicted afresh
+     */
+    @Override
+    protected void particleCountChanged() {
+        super.particleCountChanged();
+        eventDrivenEngine.invalidate();
+    }
+    public boolean isEventDriven() {
+        return eventDriven;
+    }
+    public EventDrivenEngine getEventDrivenEngine() {
+        return eventDrivenEngine;
     }
 
     @Override
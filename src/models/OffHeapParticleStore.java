@@ -0,0 +1,253 @@
+package models;
+
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * About: Structure-of-arrays storage for particle state kept off the heap, in one native MemorySegment of the incubating
+ * Foreign Memory API (compile and run with --add-modules jdk.incubator.foreign).
+ * The segment holds one column per quantity (x, y, x velocity, y velocity, radius, mass), getCapacity() doubles each,
+ * in the platform's byte order. That is the layout of the particle block of a checkpoint and of the position and velocity
+ * blocks of a trajectory frame, so a dump copies every column in one piece straight into the mapping of the file.
+ * However many particles there are, the heap holds this object and a few views of the segment.
+ *
+ * Unlike ParticleStore the particles are never permuted, so the index of a particle is its id.
+ * The memory is freed once the store and every view taken of it are unreachable.
+ */
+public class OffHeapParticleStore {
+    //module the store needs at run time
+    public static final String MODULE = "jdk.incubator.foreign";
+    //column of each quantity
+    public static final int X = 0;
+    public static final int Y = 1;
+    public static final int X_VELOCITY = 2;
+    public static final int Y_VELOCITY = 3;
+    public static final int RADIUS = 4;
+    public static final int MASS = 5;
+    public static final int COLUMNS = 6;
+    //a column is handed to the vector kernel as a ByteBuffer, which is indexed by int
+    public static final int MAX_CAPACITY = Integer.MAX_VALUE / 8;
+    //columns start on a cache line, so vectors never straddle one
+    private static final long ALIGNMENT = 64;
+
+    private int size;
+    private int capacity;
+    private MemorySegment segment;
+    //one view of the segment per column, and the same as a buffer
+    private final MemorySegment[] columns = new MemorySegment[COLUMNS];
+    private final ByteBuffer[] buffers = new ByteBuffer[COLUMNS];
+
+    /**
+     * instantiates an empty store, the segment grows as particles are added
+     * @param initialCapacity, number of particles the store can hold before it has to grow
+     */
+    public OffHeapParticleStore(int initialCapacity){
+        allocate(Math.max(16, initialCapacity));
+    }
+
+    /**
+     * @return true if the JVM runs with the Foreign Memory API, false if creating a store would fail
+     */
+    public static boolean isAvailable(){
+        return ModuleLayer.boot().findModule(MODULE).isPresent();
+    }
+
+
+    /* COLLECTION METHODS */
+    /**
+     * adds a particle to the end of the store, growing the segment if needed. Its id is its index
+     * @return index of the new particle
+     */
+    public int add(double xPos, double yPos, double xVelocity, double yVelocity, double radius, double mass){
+        if(size == capacity){
+            ensureCapacity((int) Math.min(MAX_CAPACITY, 2L * capacity));
+        }
+        int i = size++;
+        set(X, i, xPos);
+        set(Y, i, yPos);
+        set(X_VELOCITY, i, xVelocity);
+        set(Y_VELOCITY, i, yVelocity);
+        set(RADIUS, i, radius);
+        set(MASS, i, mass);
+        return i;
+    }
+    /**
+     * removes a particle in constant time: the last particle moves into its slot and takes over its id,
+     * so the ids left still run from 0 to size()-1
+     * @param particleId, id (and index) of the particle to remove
+     * @throws IndexOutOfBoundsException if there is no particle with that id
+     */
+    public void remove(int particleId){
+        if(particleId < 0 || particleId >= size){
+            throw new IndexOutOfBoundsException("no particle with id " + particleId + " in a store of " + size);
+        }
+        int last = size - 1;
+        for(int column = 0; column < COLUMNS; column++){
+            set(column, particleId, get(column, last));
+        }
+        size--;
+    }
+    /**
+     * drops the particles with the highest ids, the ids left keep theirs
+     * @param numberOfParticles, how many particles to keep
+     */
+    public void truncate(int numberOfParticles){
+        size = Math.max(0, Math.min(size, numberOfParticles));
+    }
+    public void clear(){
+        this.size = 0;
+    }
+    /**
+     * set the number of particles directly, e.g. before filling the columns in bulk.
+     * Particles added this way keep whatever the segment held, callers overwrite them
+     * @param size, new number of particles
+     */
+    public void setSize(int size){
+        ensureCapacity(size);
+        this.size = size;
+    }
+    /**
+     * grow the segment so it holds at least the given number of particles, existing particles are kept.
+     * Callers that cached columns must fetch them again afterwards
+     * @param capacity, number of particles the store must be able to hold
+     * @throws IllegalArgumentException if the capacity is above MAX_CAPACITY
+     */
+    public void ensureCapacity(int capacity){
+        if(capacity <= this.capacity){
+            return;
+        }
+        if(capacity > MAX_CAPACITY){
+            throw new IllegalArgumentException("an off-heap store holds at most " + MAX_CAPACITY + " particles, requested " + capacity);
+        }
+        MemorySegment[] old = columns.clone();
+        allocate(capacity);
+        for(int column = 0; column < COLUMNS; column++){
+            columns[column].asSlice(0, 8L * size).copyFrom(old[column].asSlice(0, 8L * size));
+        }
+    }
+
+    private void allocate(int capacity){
+        //whole cache lines per column
+        long columnBytes = (8L * capacity + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+        this.capacity = capacity;
+        this.segment = MemorySegment.allocateNative(COLUMNS * columnBytes, ALIGNMENT, ResourceScope.newImplicitScope());
+        for(int column = 0; column < COLUMNS; column++){
+            columns[column] = segment.asSlice(column * columnBytes, 8L * capacity);
+            buffers[column] = columns[column].asByteBuffer().order(ByteOrder.nativeOrder());
+        }
+    }
+
+
+    /* DUMP METHODS */
+    /**
+     * write the values of the first size() particles of a column to the start of a segment, as little endian doubles
+     * (the byte order of checkpoints and trajectories). On a little endian machine this is a single copy
+     * @param column, e.g. X
+     * @param target, e.g. a slice of a mapped file, at least 8 * size() bytes
+     */
+    public void copyColumnTo(int column, MemorySegment target){
+        if(ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN){
+            target.asSlice(0, 8L * size).copyFrom(columns[column].asSlice(0, 8L * size));
+            return;
+        }
+        for(int i = 0; i < size; i++){
+            MemoryAccess.setDoubleAtIndex(target, i, ByteOrder.LITTLE_ENDIAN, get(column, i));
+        }
+    }
+    /**
+     * read the values of the first size() particles of a column from the start of a segment of little endian doubles
+     * @param column, e.g. X
+     * @param source, e.g. a slice of a mapped file, at least 8 * size() bytes
+     */
+    public void copyColumnFrom(int column, MemorySegment source){
+        if(ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN){
+            columns[column].asSlice(0, 8L * size).copyFrom(source.asSlice(0, 8L * size));
+            return;
+        }
+        for(int i = 0; i < size; i++){
+            set(column, i, MemoryAccess.getDoubleAtIndex(source, i, ByteOrder.LITTLE_ENDIAN));
+        }
+    }
+    /**
+     * copy the particles into a heap store, e.g. for views and reports
+     * @param store, receives size() particles with their ids
+     */
+    public void copyTo(ParticleStore store){
+        store.setSize(size);
+        double[][] arrays = {store.getX(), store.getY(), store.getXVelocity(), store.getYVelocity(), store.getRadius(), store.getMass()};
+        for(int column = 0; column < COLUMNS; column++){
+            MemorySegment.ofArray(arrays[column]).asSlice(0, 8L * size).copyFrom(columns[column].asSlice(0, 8L * size));
+        }
+    }
+
+    /**
+     * hash of the exact bits of every particle's position, velocity, radius and mass, in id order.
+     * The same as ParticleStore.checksum for the same particles, so runs on either store can be compared
+     * @return 64 bit checksum of the stored particles
+     */
+    public long checksum(){
+        long hash = size;
+        for(int i = 0; i < size; i++){
+            for(int column = 0; column < COLUMNS; column++){
+                hash = ParticleStore.mix(hash, get(column, i));
+            }
+        }
+        return hash;
+    }
+
+
+    /* GET METHODS */
+    /**
+     * @return number of particles currently stored
+     */
+    public int size() {
+        return size;
+    }
+    /**
+     * @return number of particles the store holds before it has to grow
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+    /**
+     * @param column, e.g. X
+     * @param i, index (and id) of a particle
+     * @return the particle's value in that column
+     */
+    public double get(int column, int i) {
+        return MemoryAccess.getDoubleAtIndex(columns[column], i);
+    }
+    /**
+     * @param column, e.g. X
+     * @param i, index (and id) of a particle
+     * @param value, new value of the particle in that column
+     */
+    public void set(int column, int i, double value) {
+        MemoryAccess.setDoubleAtIndex(columns[column], i, value);
+    }
+    /**
+     * the columns are handed out directly so hot loops can read them without accessor calls
+     * @param column, e.g. X
+     * @return view of the column, getCapacity() doubles in the platform's byte order, only the first size() are meaningful
+     */
+    public MemorySegment getColumn(int column) {
+        return columns[column];
+    }
+    /**
+     * @param column, e.g. X
+     * @return the column as a buffer in the platform's byte order, for the Vector API (which on JDK 17 loads from buffers, not segments)
+     */
+    public ByteBuffer getColumnBuffer(int column) {
+        return buffers[column];
+    }
+    /**
+     * @return the whole segment, all columns
+     */
+    public MemorySegment getSegment() {
+        return segment;
+    }
+}
@@ -0,0 +1,298 @@
+package models;
+
+import jdk.incubator.foreign.MemorySegment;
+import metrics.Phase;
+import physics.Collision;
+import physics.IntegrationKernel;
+import physics.SpatialGrid;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * About: Ideal gas whose particles live off the heap, in an OffHeapParticleStore (run with --add-modules jdk.incubator.foreign),
+ * for runs of millions of particles whose state the garbage collector should neither copy nor have to make room for.
+ * Every step reads and writes the store's segment directly: the grid buckets the particles from it, collisions are
+ * resolved in it and the integration kernel moves the particles in it. A checkpoint copies its columns straight into
+ * the mapping of the file (see writeParticles), and so does a trajectory frame (TrajectoryWriter).
+ *
+ * It steps like the time-stepped ideal gas searching the grid every step (neighbor skin 0), one thread, no reordering,
+ * and follows the same trajectory bit for bit: the same seed gives the same checksum as IdealParticleSystem with skin 0.
+ * getParticleStore returns a copy on the heap, for views and reports.
+ */
+public class OffHeapParticleSystem extends ParticleSystem {
+    private final OffHeapParticleStore particles;
+    private final SpatialGrid spatialGrid = new SpatialGrid();
+    private final SpatialGrid.PairVisitor collisionResolver;
+    private final double[] sums = new double[IntegrationKernel.SUMS];
+    //largest (|v| / radius)^2 at the end of the last step, NaN when velocities were changed since
+    private double maxSpeedRatio = Double.NaN;
+    //the heap store holds a copy of the particles as of the last getParticleStore
+    private boolean storeCurrent;
+
+    public OffHeapParticleSystem(){
+        this(DEFAULT_MAX_PARTICLES);
+    }
+
+    /**
+     * @param maxParticles, total maximum allowed particles
+     */
+    public OffHeapParticleSystem(int maxParticles){
+        super(maxParticles);
+        this.particles = new OffHeapParticleStore(Math.min(maxParticles, 1024));
+        this.collisionResolver = (i, j) -> {
+            if(Collision.isColliding(particles, i, j)){
+                Collision.resolveCollision(particles, i, j);
+                profiler.collision();
+            }
+        };
+        //the heap store only ever holds a copy, it must never be sorted
+        super.setReordering(false);
+    }
+
+    @Override
+    public void init(double xBounds, double yBounds) {
+        //with the heap store empty this only resets the observables and the step state
+        store.clear();
+        super.init(xBounds, yBounds);
+        //the same draws in the same order as ParticleSystem.init
+        for(int i = 0; i < particles.size(); i++){
+            double radius = 10;
+            particles.set(OffHeapParticleStore.RADIUS, i, radius);
+            particles.set(OffHeapParticleStore.MASS, i, radius);
+            particles.set(OffHeapParticleStore.X_VELOCITY, i, 1);
+            particles.set(OffHeapParticleStore.Y_VELOCITY, i, 1);
+            place(i, xBounds, yBounds);
+        }
+        storeCurrent = false;
+    }
+
+    /**
+     * detect and resolve the collisions in the grid, then move the particles and bounce them off the walls, in as many
+     * substeps as the fastest particle needs, like ParticleSystem.advance with the grid
+     */
+    @Override
+    protected void advance(double xBounds, double yBounds, double dt) {
+        if(Double.isNaN(maxSpeedRatio)){
+            maxSpeedRatio = findMaxSpeedRatio();
+        }
+        int substeps = substeps(maxSpeedRatio, dt);
+        double substep = dt / substeps;
+        double wallImpulse = 0;
+        IntegrationKernel kernel = getIntegrationKernel();
+        for(int k = 0; k < substeps; k++){
+            spatialGrid.rebuild(particles, xBounds, yBounds, 0);
+            profiler.lap(Phase.BROAD_PHASE);
+            spatialGrid.forEachPair(profiler.counting(collisionResolver));
+            profiler.lap(Phase.NARROW_PHASE);
+            kernel.integrate(particles, 0, particles.size(), substep, xBounds, yBounds, sums, 0);
+            profiler.lap(Phase.INTEGRATION);
+            profiler.addCollisions(0, (long) sums[IntegrationKernel.WALL_COLLISIONS]);
+            wallImpulse += sums[IntegrationKernel.WALL_IMPULSE];
+        }
+        maxSpeedRatio = sums[IntegrationKernel.MAX_SPEED_RATIO];
+        storeCurrent = false;
+        observables.record(dt, wallImpulse, sums[IntegrationKernel.KINETIC_ENERGY], 0, particles.size(), xBounds, yBounds);
+    }
+
+    private double findMaxSpeedRatio(){
+        double maxRatio = 0;
+        for(int i = 0; i < particles.size(); i++){
+            double vx = particles.get(OffHeapParticleStore.X_VELOCITY, i);
+            double vy = particles.get(OffHeapParticleStore.Y_VELOCITY, i);
+            double radius = particles.get(OffHeapParticleStore.RADIUS, i);
+            maxRatio = Math.max(maxRatio, (vx*vx + vy*vy) / (radius * radius));
+        }
+        return maxRatio;
+    }
+
+    private void place(int i, double xBounds, double yBounds){
+        double radius = particles.get(OffHeapParticleStore.RADIUS, i);
+        particles.set(OffHeapParticleStore.X, i, random.nextInt((int) (xBounds - 2 * radius)) + radius);
+        particles.set(OffHeapParticleStore.Y, i, random.nextInt((int) (yBounds - 2 * radius)) + radius);
+    }
+
+
+    /* STATE METHODS */
+    /**
+     * the columns are copied in one piece each into the buffer, which for a checkpoint is the mapping of the file.
+     * Particles are never permuted, so the ids are the indices
+     */
+    @Override
+    protected void writeParticles(ByteBuffer buffer) {
+        int size = particles.size();
+        MemorySegment target = MemorySegment.ofByteBuffer(buffer);
+        for(int column = 0; column < OffHeapParticleStore.COLUMNS; column++){
+            particles.copyColumnTo(column, target.asSlice(8L * size * column));
+        }
+        buffer.position(buffer.position() + 6 * 8 * size);
+        IntBuffer ids = buffer.asIntBuffer();
+        for(int i = 0; i < size; i++){
+            ids.put(i);
+        }
+        buffer.position(buffer.position() + 4 * size);
+    }
+    /**
+     * @throws IllegalArgumentException if the particles were saved out of id order, which this system never does
+     */
+    @Override
+    protected void readParticles(ByteBuffer buffer, int size) {
+        particles.setSize(size);
+        MemorySegment source = MemorySegment.ofByteBuffer(buffer);
+        for(int column = 0; column < OffHeapParticleStore.COLUMNS; column++){
+            particles.copyColumnFrom(column, source.asSlice(8L * size * column));
+        }
+        buffer.position(buffer.position() + 6 * 8 * size);
+        IntBuffer ids = buffer.asIntBuffer();
+        for(int i = 0; i < size; i++){
+            if(ids.get() != i){
+                throw new IllegalArgumentException("particle " + i + " is not stored at its id");
+            }
+        }
+        buffer.position(buffer.position() + 4 * size);
+        storeCurrent = false;
+    }
+
+    @Override
+    protected void speedsChanged() {
+        super.speedsChanged();
+        maxSpeedRatio = Double.NaN;
+    }
+
+
+    /* GET METHODS */
+    /**
+     * @return the particles kept off the heap, the ones the system steps
+     */
+    public OffHeapParticleStore getOffHeapParticleStore() {
+        return particles;
+    }
+    /**
+     * @return a copy of the particles on the heap as of now, made when first asked for after they changed; read it only,
+     *         changes are not copied back
+     */
+    @Override
+    public ParticleStore getParticleStore() {
+        if(!storeCurrent){
+            particles.copyTo(store);
+            storeCurrent = true;
+        }
+        return store;
+    }
+    @Override
+    public int getNumberOfParticles() {
+        return particles.size();
+    }
+    @Override
+    public double getKineticEnergy() {
+        double kineticEnergy = 0;
+        for(int i = 0; i < particles.size(); i++){
+            double vx = particles.get(OffHeapParticleStore.X_VELOCITY, i);
+            double vy = particles.get(OffHeapParticleStore.Y_VELOCITY, i);
+            kineticEnergy += 0.5 * particles.get(OffHeapParticleStore.MASS, i) * (vx*vx + vy*vy);
+        }
+        return kineticEnergy;
+    }
+
+
+    /* UPDATE METHODS */
+    /**
+     * steps run on one thread
+     * @throws IllegalArgumentException for any number of threads above 0
+     */
+    @Override
+    public void setParallelism(int threads) {
+        if(threads > 0){
+            throw new IllegalArgumentException("an off-heap system steps on one thread, got " + threads + " threads");
+        }
+        super.setParallelism(0);
+    }
+    /**
+     * the particles are kept in the order they were added
+     */
+    @Override
+    public void setReordering(boolean reordering) {
+    }
+    /**
+     * the pairs always come from the grid
+     */
+    @Override
+    public void setNeighborSkin(double skin) {
+    }
+    @Override
+    public void setTemperature(double temperature) {
+        int size = particles.size();
+        double kineticEnergy = getKineticEnergy();
+        if(size == 0 || kineticEnergy <= 0 || temperature < 0){
+            return;
+        }
+        double scale = Math.sqrt(temperature * size / kineticEnergy);
+        for(int i = 0; i < size; i++){
+            particles.set(OffHeapParticleStore.X_VELOCITY, i, particles.get(OffHeapParticleStore.X_VELOCITY, i) * scale);
+            particles.set(OffHeapParticleStore.Y_VELOCITY, i, particles.get(OffHeapParticleStore.Y_VELOCITY, i) * scale);
+        }
+        speedsChanged();
+        storeCurrent = false;
+    }
+
+
+    /* COLLECTION METHODS */
+    @Override
+    public boolean add(double xPos, double yPos, double weight) {
+        if(particles.size() >= getMAX_PARTICLES()){
+            return false;
+        }
+        particles.add(xPos, yPos, 0, 0, weight, weight);
+        storeCurrent = false;
+        return true;
+    }
+    @Override
+    public void add(int numberOfParticles) {
+        int added = Math.min(numberOfParticles, getMAX_PARTICLES() - particles.size());
+        particles.ensureCapacity(particles.size() + added);
+        for(int i = 0; i < added; i++){
+            add(50, 50, DEFAULT_WEIGHT);
+        }
+    }
+    @Override
+    public void setNumberOfParticles(int numberOfParticles) {
+        if(numberOfParticles > getMAX_PARTICLES()){
+            throw new IllegalArgumentException("requested " + numberOfParticles + " particles, the system holds at most " + getMAX_PARTICLES());
+        }
+        if(numberOfParticles < particles.size()){
+            removeParticles(particles.size() - numberOfParticles);
+        }
+        if(numberOfParticles > particles.size()){
+            add(numberOfParticles - particles.size());
+        }
+    }
+    /**
+     * like ParticleSystem.setNumberOfParticles for a running system: new particles move like a randomly picked existing one
+     */
+    @Override
+    public void setNumberOfParticles(int numberOfParticles, double xBounds, double yBounds) {
+        int size = particles.size();
+        if(numberOfParticles == size){
+            return;
+        }
+        setNumberOfParticles(numberOfParticles);
+        for(int i = size; i < particles.size(); i++){
+            particles.set(OffHeapParticleStore.RADIUS, i, 10);
+            particles.set(OffHeapParticleStore.MASS, i, 10);
+            int model = (size > 0)? random.nextInt(size) : -1;
+            particles.set(OffHeapParticleStore.X_VELOCITY, i, (model >= 0)? particles.get(OffHeapParticleStore.X_VELOCITY, model) : 1);
+            particles.set(OffHeapParticleStore.Y_VELOCITY, i, (model >= 0)? particles.get(OffHeapParticleStore.Y_VELOCITY, model) : 1);
+            place(i, xBounds, yBounds);
+        }
+        particleCountChanged();
+    }
+    @Override
+    public void removeParticles(int numberOfParticlesToRemove) {
+        particles.truncate(particles.size() - numberOfParticlesToRemove);
+        storeCurrent = false;
+    }
+
+    @Override
+    public void calculateParticleVelocities() {
+    }
+}
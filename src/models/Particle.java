@@ -3,10 +3,12 @@ package models;
 import javafx.scene.paint.Color;
 import javafx.scene.paint.Paint;
 import javafx.scene.shape.Circle;
-import physics.Vector2;
 
+/**
+ * About: Scene-graph view of one particle.
+ * The simulated state lives in ParticleStore, a Particle only mirrors it once per rendered frame.
+ */
 public class Particle extends Circle {
-    private Vector2 velocity;
 
     /* CONSTRUCTORS */
     /**
@@ -41,17 +43,6 @@ public class Particle extends Circle {
     public double getYPos(){
         return this.getCenterY();
     }
-    public Vector2 getPosVector(){return new Vector2(this.getXPos(), this.getYPos());}
-    //velocity
-    public double getXVelocity(){
-        return this.velocity.getX();
-    }
-    public double getYVelocity(){
-        return this.velocity.getY();
-    }
-    public Vector2 getVelocity(){
-        return this.velocity;
-    }
     //weight
     public double getWeight() {
         return this.getRadius();
@@ -70,18 +61,7 @@ public class Particle extends Circle {
     public void setYPos(double yPos){
         this.setCenterY(yPos);
     }
-    public void setPosition(Vector2 position){ this.setCenterX(position.getX()); this.setCenterY(position.getY());}
-    //velocity
-    public void setXVelocity(double velocity){
-        this.velocity.setX(velocity);
-    }
-    public void setYVelocity(double velocity){
-        this.velocity.setY(velocity);
-    }
-    public void setVelocity(Vector2 velocity) {
-        this.velocity = velocity;
-    }
-    public void setVelocity(double x, double y){ this.velocity.setX(x); this.velocity.setY(y);}
+    public void setPosition(double xPos, double yPos){ this.setCenterX(xPos); this.setCenterY(yPos);}
     //weight
     public void setWeight(double weight) {
         this.setRadius(weight);
@@ -92,18 +72,16 @@ public class Particle extends Circle {
     }
 
     /* Other */
-    public void negatePos(){
-        this.setCenterX(this.getCenterX() * -1);
-        this.setCenterY(this.getCenterY() * -1);
-    }
-    public void invertVelocity(){
-        this.velocity.invert();
-    }
-    public void negateVelocity(){
-        this.velocity.negate();
+    /**
+     * copy the simulated state of a particle onto this node
+     * @param store, particle state
+     * @param i, index of the particle in the store
+     */
+    public void sync(ParticleStore store, int i){
+        this.setCenterX(store.getX()[i]);
+        this.setCenterY(store.getY()[i]);
+        this.setRadius(store.getRadius()[i]);
     }
-    public void negateXVelocity(){this.velocity.setX(this.getXVelocity() *-1);}
-    public void negateYVelocity(){this.velocity.setY(this.getYVelocity() *-1);}
 
 
     /**
@@ -114,8 +92,8 @@ public class Particle extends Circle {
     public String toString() {
         return "'Particle'{" +
                 "'weight':" + this.getRadius() +
-                ", 'xPos':" + getYPos() +
-                ", 'yPos':" + getXPos() +
+                ", 'xPos':" + getXPos() +
+                ", 'yPos':" + getYPos() +
                 '}';
     }
 }
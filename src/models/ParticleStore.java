@@ -0,0 +1,272 @@
+package models;
+
+import java.util.Arrays;
+
+/**
+ * About: Structure-of-arrays storage for particle state.
+ * Each particle is an index into parallel primitive arrays, so the simulation loop reads
+ * contiguous doubles instead of going through node properties and per-particle Vector2 objects.
+ *
+ * The index of a particle may change when the store is permuted (to keep particles that are close in space close in
+ * memory), its id does not: ids run from 0 to size()-1 and follow their particle, so views and exports that list the
+ * particles by id see the same particle at the same place whatever the storage order.
+ */
+public class ParticleStore {
+    private int size;
+
+    private double[] x;
+    private double[] y;
+    private double[] vx;
+    private double[] vy;
+    private double[] radius;
+    private double[] mass;
+    //id of the particle at each index, and index of each id
+    private int[] id;
+    private int[] index;
+    //spare arrays permute gathers into, swapped with the live ones
+    private double[] scratch = new double[0];
+    private int[] idScratch = new int[0];
+
+    /**
+     * instantiates an empty store, the arrays grow as particles are added
+     * @param initialCapacity, number of particles the store can hold before it has to grow
+     */
+    public ParticleStore(int initialCapacity){
+        this.size = 0;
+        this.x = new double[initialCapacity];
+        this.y = new double[initialCapacity];
+        this.vx = new double[initialCapacity];
+        this.vy = new double[initialCapacity];
+        this.radius = new double[initialCapacity];
+        this.mass = new double[initialCapacity];
+        this.id = new int[initialCapacity];
+        this.index = new int[initialCapacity];
+    }
+
+
+    /* COLLECTION METHODS */
+    /**
+     * adds a particle to the end of the store, growing the arrays if needed. Its id is the new size minus one
+     * @return index of the new particle
+     */
+    public int add(double xPos, double yPos, double xVelocity, double yVelocity, double radius, double mass){
+        if(size == x.length){
+            ensureCapacity(Math.max(16, x.length * 2));
+        }
+        int i = size++;
+        this.x[i] = xPos;
+        this.y[i] = yPos;
+        this.vx[i] = xVelocity;
+        this.vy[i] = yVelocity;
+        this.radius[i] = radius;
+        this.mass[i] = mass;
+        this.id[i] = i;
+        this.index[i] = i;
+        return i;
+    }
+    /**
+     * removes a particle in constant time: the particle stored last moves into its slot, and the particle with the
+     * highest id takes over its id, so the ids left still run from 0 to size()-1
+     * @param particleId, id of the particle to remove
+     * @throws IndexOutOfBoundsException if there is no particle with that id
+     */
+    public void remove(int particleId){
+        if(particleId < 0 || particleId >= size){
+            throw new IndexOutOfBoundsException("no particle with id " + particleId + " in a store of " + size);
+        }
+        int i = index[particleId];
+        int lastId = size - 1;
+        if(particleId != lastId){
+            int j = index[lastId];
+            id[j] = particleId;
+            index[particleId] = j;
+        }
+        int last = size - 1;
+        if(i != last){
+            x[i] = x[last];
+            y[i] = y[last];
+            vx[i] = vx[last];
+            vy[i] = vy[last];
+            radius[i] = radius[last];
+            mass[i] = mass[last];
+            id[i] = id[last];
+            index[id[i]] = i;
+        }
+        size--;
+    }
+    /**
+     * drops the particles with the highest ids, so the ids left keep theirs and still run from 0 to size()-1.
+     * Takes time in the number of particles dropped, not kept
+     * @param numberOfParticles, how many particles to keep
+     */
+    public void truncate(int numberOfParticles){
+        int keep = Math.max(0, Math.min(size, numberOfParticles));
+        for(int particleId = size - 1; particleId >= keep; particleId--){
+            remove(particleId);
+        }
+    }
+    public void clear(){
+        this.size = 0;
+    }
+    /**
+     * set the number of particles directly, e.g. before filling the arrays in bulk.
+     * Particles added this way keep whatever the arrays held, callers overwrite them. The ids start over in index order
+     * @param size, new number of particles
+     */
+    public void setSize(int size){
+        ensureCapacity(size);
+        this.size = size;
+        for(int i = 0; i < size; i++){
+            id[i] = i;
+            index[i] = i;
+        }
+    }
+    /**
+     * set the id of every particle, e.g. when restoring a saved order
+     * @param ids, id of the particle at each index, a permutation of 0..size()-1
+     * @throws IllegalArgumentException if the ids are not a permutation
+     */
+    public void setIds(int[] ids){
+        Arrays.fill(index, 0, size, -1);
+        for(int i = 0; i < size; i++){
+            int particleId = ids[i];
+            if(particleId < 0 || particleId >= size || index[particleId] >= 0){
+                setSize(size);
+                throw new IllegalArgumentException("particle ids are not a permutation of 0.." + (size - 1));
+            }
+            id[i] = particleId;
+            index[particleId] = i;
+        }
+    }
+    /**
+     * rearrange the particles so that the one at index order[k] moves to index k, taking its id along.
+     * Callers that cached the arrays must fetch them again afterwards
+     * @param order, old index of the particle for every new index, a permutation of 0..size()-1
+     */
+    public void permute(int[] order){
+        x = gather(x, order);
+        y = gather(y, order);
+        vx = gather(vx, order);
+        vy = gather(vy, order);
+        radius = gather(radius, order);
+        mass = gather(mass, order);
+        if(idScratch.length != id.length){
+            idScratch = new int[id.length];
+        }
+        for(int k = 0; k < size; k++){
+            idScratch[k] = id[order[k]];
+            index[idScratch[k]] = k;
+        }
+        int[] permuted = idScratch;
+        idScratch = id;
+        id = permuted;
+    }
+
+    private double[] gather(double[] values, int[] order){
+        double[] permuted = (scratch.length == values.length)? scratch : new double[values.length];
+        for(int k = 0; k < size; k++){
+            permuted[k] = values[order[k]];
+        }
+        scratch = values;
+        return permuted;
+    }
+    /**
+     * grow the arrays so they hold at least the given number of particles, existing particles are kept.
+     * Callers that cached the arrays must fetch them again afterwards
+     * @param capacity, number of particles the store must be able to hold
+     */
+    public void ensureCapacity(int capacity){
+        if(capacity <= x.length){
+            return;
+        }
+        this.x = Arrays.copyOf(x, capacity);
+        this.y = Arrays.copyOf(y, capacity);
+        this.vx = Arrays.copyOf(vx, capacity);
+        this.vy = Arrays.copyOf(vy, capacity);
+        this.radius = Arrays.copyOf(radius, capacity);
+        this.mass = Arrays.copyOf(mass, capacity);
+        this.id = Arrays.copyOf(id, capacity);
+        this.index = Arrays.copyOf(index, capacity);
+    }
+
+    /**
+     * hash of the exact bits of every particle's position, velocity, radius and mass, in id order.
+     * Two runs that end with the same checksum followed the same trajectory; any difference, even in the last bit
+     * of one coordinate, changes it
+     * @return 64 bit checksum of the stored particles
+     */
+    public long checksum(){
+        long hash = size;
+        for(int particleId = 0; particleId < size; particleId++){
+            int i = index[particleId];
+            hash = mix(hash, x[i]);
+            hash = mix(hash, y[i]);
+            hash = mix(hash, vx[i]);
+            hash = mix(hash, vy[i]);
+            hash = mix(hash, radius[i]);
+            hash = mix(hash, mass[i]);
+        }
+        return hash;
+    }
+
+    static long mix(long hash, double value){
+        //one round of SplitMix64's finalizer over the running hash and the value's bits
+        long z = (hash ^ Double.doubleToRawLongBits(value)) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        return z ^ (z >>> 27);
+    }
+
+
+    /* GET METHODS */
+    /**
+     * @return number of particles currently stored
+     */
+    public int size() {
+        return size;
+    }
+    /**
+     * @return number of particles the store holds before it has to grow
+     */
+    public int getCapacity() {
+        return x.length;
+    }
+    //the arrays are handed out directly so hot loops can index them without accessor calls,
+    //only the first size() entries are meaningful
+    public double[] getX() {
+        return x;
+    }
+    public double[] getY() {
+        return y;
+    }
+    public double[] getXVelocity() {
+        return vx;
+    }
+    public double[] getYVelocity() {
+        return vy;
+    }
+    public double[] getRadius() {
+        return radius;
+    }
+    public double[] getMass() {
+        return mass;
+    }
+    /**
+     * @return id of the particle at each index
+     */
+    public int[] getId() {
+        return id;
+    }
+    /**
+     * @return index of the particle with each id, e.g. to list the particles in id order
+     */
+    public int[] getIndex() {
+        return index;
+    }
+    /**
+     * @param particleId, id of a particle
+     * @return its current index
+     */
+    public int indexOf(int particleId) {
+        return index[particleId];
+    }
+}
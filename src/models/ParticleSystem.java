@@ -1,94 +1,286 @@
 package models;
 
-import com.sun.javafx.geom.Vec2d;
-import javafx.scene.effect.DropShadow;
-import javafx.scene.paint.Color;
+import metrics.Phase;
+import metrics.PhaseProfiler;
+import metrics.SimulationMetrics;
 import physics.Collision;
-import physics.Vector2;
-
+import physics.HilbertOrder;
+import physics.IntegrationKernel;
+import physics.NeighborList;
+import physics.Observables;
+import physics.SpatialGrid;
+import physics.SpeedDistribution;
+import physics.SpeedHistogram;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static java.lang.Integer.min;
 import static java.lang.Math.*;
 
 public abstract class ParticleSystem {
     protected double volume;
-    protected double temperature;
-    protected double pressure;
     protected double moles;
-
-    protected Color color;
-    protected Color strokeColor;
-
-    protected ListIterator<Particle> particleIterator;
-    protected ArrayList<Particle> particles;
-
-    private final Random random;
-    private final int MAX_PARTICLES = 300;
+    //pressure, temperature and energy measured while stepping
+    protected final Observables observables;
+    //phase timing and work counters, idle unless metrics are attached or a flight recording wants them
+    protected final PhaseProfiler profiler;
+    //speed distribution kept up to date through the collisions, null unless someone displays it
+    private SpeedHistogram speedHistogram;
+
+    //css color names, resolved by the renderer so the simulation itself has no JavaFX dependency
+    protected String color;
+    protected String strokeColor;
+
+    protected ParticleStore store;
+
+    //system property, seeds every new particle system so e.g. the dashboard repeats the same run
+    public static final String SEED_PROPERTY = "gaslaws.seed";
+    protected final SimulationRandom random;
+    private final SpatialGrid spatialGrid;
+    //sequential steps reuse their pairs through a Verlet list, 0 skin goes back to the grid every step
+    private final NeighborList neighborList;
+    private double neighborSkin = -1;
+    private final SpatialGrid.PairVisitor collisionResolver;
+    //worker pool for parallel stepping, null when stepping sequentially
+    private ForkJoinPool workerPool;
+    //particles per block when looping over the particles in parallel, fixed so sums do not depend on the thread count
+    protected static final int BLOCK_SIZE = 4096;
+    //moves the particles and bounces them off the walls, vectorized when the Vector API is available
+    private IntegrationKernel integrationKernel = IntegrationKernel.preferred();
+    private final double[] sums = new double[IntegrationKernel.SUMS];
+    private double[] blockSums = new double[0];
+    //a step is split into substeps so that no particle moves more than this fraction of its radius per substep, see substeps
+    public static final double MAX_DISPLACEMENT = 0.5;
+    //keeps a runaway temperature from freezing the simulation, past it particles may tunnel again
+    public static final int MAX_SUBSTEPS = 256;
+    private boolean adaptiveSubstepping = true;
+    //largest (|v| / radius)^2 at the end of the last step, NaN when velocities were changed since
+    private double maxSpeedRatio = Double.NaN;
+    //particles are sorted along a Hilbert curve once their storage order has scattered, see reorderIfScattered.
+    //Below the threshold all particles fit in cache and the order does not matter
+    public static final int REORDER_MIN_PARTICLES = 10_000;
+    private static final int ORDER_CHECK_INTERVAL = 16;
+    //the order is sorted again when the spread has grown by this factor since the last sort
+    private static final double REORDER_SPREAD = 2;
+    private final HilbertOrder hilbertOrder = new HilbertOrder();
+    private boolean reordering = true;
+    private int stepsUntilOrderCheck;
+    //spread right after the last sort, NaN until the first
+    private double sortedSpread = Double.NaN;
+    //cells of one color never share a particle, see forEachNearbyPair
+    private static final int COLUMN_COLORS = 3;
+    private static final int ROW_COLORS = 2;
+    //capacity used when none is given, enough for the interactive node renderer
+    public static final int DEFAULT_MAX_PARTICLES = 300;
+    private final int maxParticles;
+    protected final double DEFAULT_WEIGHT = 5;
 
 
 
     /**
-     * instantiates a Particle System with the max number of particles
+     * instantiates a Particle System with the default max number of particles
      */
     public ParticleSystem(){
-        this.particles = new ArrayList<Particle>();
-        this.random = new Random();
-        this.color = Color.RED;
-        this.strokeColor = Color.BLACK;
-        this.volume = 1;
-        this.temperature = 1;
-        this.pressure = 1;
+        this(DEFAULT_MAX_PARTICLES);
+    }
+
+    /**
+     * instantiates a Particle System holding up to the given number of particles.
+     * Storage grows with the particles actually added, so a large capacity costs nothing up front
+     * @param maxParticles, total maximum allowed particles
+     */
+    public ParticleSystem(int maxParticles){
+        this.maxParticles = maxParticles;
+        this.store = new ParticleStore(min(maxParticles, 1024));
+        Long seed = Long.getLong(SEED_PROPERTY);
+        this.random = (seed != null)? new SimulationRandom(seed) : new SimulationRandom();
+        this.spatialGrid = new SpatialGrid();
+        this.neighborList = new NeighborList();
+        this.profiler = new PhaseProfiler();
+        this.collisionResolver = (i, j) -> {
+            if(Collision.isColliding(this.store, i, j)){
+                Collision.resolveCollision(this.store, i, j);
+                speedChanged(i);
+                speedChanged(j);
+                profiler.collision();
+            }
+        };
+        this.color = "red";
+        this.strokeColor = "black";
+        this.observables = new Observables();
     }
 
     /**
      * initialize particles in random positions
      */
     public void init(double xBounds, double yBounds){
-        //init particle pos, speed, color etc.
-        for(Particle particle : this.particles) {
-            particle.setWeight(10);
-            particle.setColor(this.color);
-            particle.setStroke(this.strokeColor);
-            particle.setVelocity(new Vector2(1,1));
-            //Coool shadow effect! (gives the particles depth)
-            DropShadow particleShadow = new DropShadow();
-            particleShadow.setRadius(particle.getRadius());
-            particleShadow.setOffsetX(1);
-            particleShadow.setOffsetY(1);
-            particle.setEffect(particleShadow);
-            particle.setCache(true);
-
-            particle.setXPos(random.nextInt((int) (xBounds - 2 * particle.getRadius())) + particle.getRadius());
-            particle.setYPos(random.nextInt((int) (yBounds - 2 * particle.getRadius())) + particle.getRadius());
+        double[] x = store.getX();
+        double[] y = store.getY();
+        double[] vx = store.getXVelocity();
+        double[] vy = store.getYVelocity();
+        double[] radius = store.getRadius();
+        double[] mass = store.getMass();
+        //every particle is placed afresh, so the ids start over in index order and the run does not depend on earlier sorts
+        store.setSize(store.size());
+        //init particle pos, speed, weight etc.
+        for(int i = 0; i < store.size(); i++) {
+            radius[i] = 10;
+            mass[i] = radius[i];
+            vx[i] = 1;
+            vy[i] = 1;
+
+            x[i] = random.nextInt((int) (xBounds - 2 * radius[i])) + radius[i];
+            y[i] = random.nextInt((int) (yBounds - 2 * radius[i])) + radius[i];
+        }
+        volume = xBounds * yBounds;
+        neighborList.invalidate();
+        observables.reset();
+        speedsChanged();
+        sortedSpread = Double.NaN;
+        stepsUntilOrderCheck = 0;
+    }
+
+
+    /* STATE METHODS */
+    /**
+     * @return bytes writeState needs for the current particles
+     */
+    public int getStateSize(){
+        return 4 + 6 * 8 * getNumberOfParticles() + 4 * getNumberOfParticles() + 8 + 2 * 8 + 4 + 8 + observables.getStateSize();
+    }
+    /**
+     * write everything a run depends on (particles and their ids, generator state, volume and moles, storage order check, observables) so that
+     * readState continues the run exactly. Subclasses add their own state after this
+     * @param buffer, receives getStateSize() bytes
+     */
+    public void writeState(ByteBuffer buffer){
+        buffer.putInt(getNumberOfParticles());
+        writeParticles(buffer);
+        buffer.putLong(random.getState());
+        buffer.putDouble(volume);
+        buffer.putDouble(moles);
+        buffer.putInt(stepsUntilOrderCheck);
+        buffer.putDouble(sortedSpread);
+        observables.writeState(buffer);
+    }
+    /**
+     * restore what writeState wrote
+     * @param buffer, positioned at the state
+     * @throws IllegalArgumentException if the state holds more particles than this system allows
+     */
+    public void readState(ByteBuffer buffer){
+        int size = buffer.getInt();
+        if(size > maxParticles){
+            throw new IllegalArgumentException("state holds " + size + " particles, the system holds at most " + maxParticles);
         }
+        readParticles(buffer, size);
+        random.setSeed(buffer.getLong());
+        volume = buffer.getDouble();
+        moles = buffer.getDouble();
+        stepsUntilOrderCheck = buffer.getInt();
+        sortedSpread = buffer.getDouble();
+        observables.readState(buffer);
+        neighborList.invalidate();
+        speedsChanged();
+    }
+    /**
+     * write the particle block of the state: x, y, x velocity, y velocity, radius and mass of every particle (one block of
+     * doubles each), then the id of every particle (ints). Systems that keep their particles elsewhere override this
+     * @param buffer, positioned after the particle count, left after the block
+     */
+    protected void writeParticles(ByteBuffer buffer){
+        int size = store.size();
+        DoubleBuffer values = buffer.asDoubleBuffer();
+        values.put(store.getX(), 0, size).put(store.getY(), 0, size);
+        values.put(store.getXVelocity(), 0, size).put(store.getYVelocity(), 0, size);
+        values.put(store.getRadius(), 0, size).put(store.getMass(), 0, size);
+        buffer.position(buffer.position() + 6 * 8 * size);
+        buffer.asIntBuffer().put(store.getId(), 0, size);
+        buffer.position(buffer.position() + 4 * size);
+    }
+    /**
+     * read what writeParticles wrote
+     * @param buffer, positioned at the block, left after it
+     * @param size, number of particles in the block
+     * @throws IllegalArgumentException if the ids are not a permutation
+     */
+    protected void readParticles(ByteBuffer buffer, int size){
+        store.setSize(size);
+        DoubleBuffer values = buffer.asDoubleBuffer();
+        values.get(store.getX(), 0, size).get(store.getY(), 0, size);
+        values.get(store.getXVelocity(), 0, size).get(store.getYVelocity(), 0, size);
+        values.get(store.getRadius(), 0, size).get(store.getMass(), 0, size);
+        buffer.position(buffer.position() + 6 * 8 * size);
+        int[] ids = new int[size];
+        buffer.asIntBuffer().get(ids);
+        buffer.position(buffer.position() + 4 * size);
+        store.setIds(ids);
     }
 
 
     /* GET METHODS */
     /**
-     * @return an array list of particles in the system
+     * @return primitive particle state the system simulates against
+     */
+    public ParticleStore getParticleStore() {
+        return store;
+    }
+    /**
+     * @return total particles in the system
      */
-    public ArrayList<Particle> getParticles() {
-        return particles;
+    public int getNumberOfParticles() {
+        return store.size();
+    }
+    public String getColor() {
+        return color;
+    }
+    public String getStrokeColor() {
+        return strokeColor;
+    }
+    /**
+     * total kinetic energy of the particles, summed over the store right now.
+     * While the system is stepping the same number is available without a pass over the particles from getObservables()
+     * @return
+     */
+    public double getKineticEnergy() {
+        double[] vx = store.getXVelocity();
+        double[] vy = store.getYVelocity();
+        double[] mass = store.getMass();
+        double kineticEnergy = 0;
+        for(int i = 0; i < store.size(); i++){
+            kineticEnergy += 0.5 * mass[i] * (vx[i]*vx[i] + vy[i]*vy[i]);
+        }
+        return kineticEnergy;
     }
     /**
-     * system pressure (in atmospheres)
+     * system pressure measured from the wall impulse, averaged over the last steps (simulation units)
      * @return
      */
     public double getPressure() {
-        return pressure;
+        return observables.getWindowPressure();
     }
     /**
-     * system tempreature (in degrees Kelvin)
+     * system temperature measured from the kinetic energy, averaged over the last steps (simulation units, k = 1)
      * @return
      */
     public double getTemperature() {
-        return temperature;
+        return observables.getWindowTemperature();
+    }
+    /**
+     * streaming pressure, temperature and energy, updated every step
+     * @return
+     */
+    public Observables getObservables() {
+        return observables;
     }
     /**
-     * system volume (in Liters)
+     * system volume: the area of the box (the system is 2D) as of the last init or step, the same box the pressure is measured in
      * @return
      */
     public double getVolume() {
@@ -99,7 +291,37 @@ public abstract class ParticleSystem {
      * @return
      */
     public int getMAX_PARTICLES() {
-        return MAX_PARTICLES;
+        return maxParticles;
+    }
+    /**
+     * @return metrics collected while stepping, null when not collected
+     */
+    public SimulationMetrics getMetrics() {
+        return profiler.getMetrics();
+    }
+    /**
+     * sample the speed histogram, only between steps on the thread that steps the system
+     * @return copy of the current speed histogram with the Maxwell-Boltzmann curve at the current temperature,
+     *         null if the histogram is not enabled
+     */
+    public SpeedDistribution getSpeedDistribution() {
+        if(speedHistogram == null){
+            return null;
+        }
+        double temperature = (observables.getSteps() > 0)? observables.getTemperature() : getKineticEnergy() / Math.max(1, store.size());
+        return speedHistogram.sample(store, temperature, observables.getTime());
+    }
+    public IntegrationKernel getIntegrationKernel() {
+        return integrationKernel;
+    }
+    public NeighborList getNeighborList() {
+        return neighborList;
+    }
+    public boolean isReordering() {
+        return reordering;
+    }
+    public boolean isAdaptiveSubstepping() {
+        return adaptiveSubstepping;
     }
     public double getMoles() {
         return moles;
@@ -108,25 +330,89 @@ public abstract class ParticleSystem {
 
     /* UPDATE METHODS */
     /**
-     * update the pressure of the system
-     * @param pressure, in atmospheres
+     * reseed the generator used to place particles, so runs can be repeated: with the same seed, engine and thread
+     * count a run follows the same trajectory bit for bit (compare ParticleStore.checksum)
+     * @param seed, random seed
+     */
+    public void setSeed(long seed) {
+        this.random.setSeed(seed);
+    }
+    /**
+     * step the system on a pool of worker threads, processing the spatial grid cells in colored batches.
+     * Any number of threads gives bit-identical results, 0 switches back to the sequential step
+     * @param threads, number of worker threads, 0 to step sequentially
+     */
+    public void setParallelism(int threads) {
+        if(this.workerPool != null){
+            this.workerPool.shutdown();
+        }
+        this.workerPool = (threads > 0)? new ForkJoinPool(threads) : null;
+    }
+    /**
+     * distance listed beyond the interaction range in the neighbor list of sequential steps. A larger skin lists more pairs
+     * but rebuilds less often
+     * @param skin, in pixels, negative for a quarter of the interaction range, 0 to search the grid every step
+     */
+    public void setNeighborSkin(double skin) {
+        this.neighborSkin = skin;
+    }
+    /**
+     * choose how the time-stepped engine moves the particles and bounces them off the walls
+     * @param integrationKernel, e.g. IntegrationKernel.scalar() to switch the vector instructions off
+     */
+    public void setIntegrationKernel(IntegrationKernel integrationKernel) {
+        this.integrationKernel = integrationKernel;
+    }
+    /**
+     * keep large systems sorted along a Hilbert curve (on by default, only systems of at least REORDER_MIN_PARTICLES are sorted).
+     * Sorting changes the order collisions are handled in, so a run with and without it follows a different trajectory
+     * @param reordering, false to keep the particles in the order they were added
+     */
+    public void setReordering(boolean reordering) {
+        this.reordering = reordering;
+    }
+    /**
+     * split steps into substeps short enough that no particle can pass through another, see substeps (on by default).
+     * Without it every step is taken whole, which at high temperatures lets particles tunnel through each other
+     * @param adaptiveSubstepping, false to always take one step of dt
+     */
+    public void setAdaptiveSubstepping(boolean adaptiveSubstepping) {
+        this.adaptiveSubstepping = adaptiveSubstepping;
+    }
+    /**
+     * time every step by phase and count the work done into the given metrics.
+     * Without metrics a step costs one flag check per phase (more only while a flight recording has the simulation events enabled)
+     * @param metrics, totals to add to, null to stop measuring
      */
-    public void updatePressure(double pressure) {
-        this.pressure = pressure;
+    public void setMetrics(SimulationMetrics metrics) {
+        profiler.setMetrics(metrics);
     }
     /**
-     * update the temperature of the system
-     * @param temperature, in degrees Kelvin
+     * keep a histogram of the particle speeds while stepping, see getSpeedDistribution
+     * @param enabled, true to keep it, false to drop it (stepping then pays nothing for it)
      */
-    public void updateTemperature(double temperature) {
-        this.temperature = temperature;
+    public void setSpeedHistogramEnabled(boolean enabled) {
+        this.speedHistogram = (enabled)? new SpeedHistogram() : null;
     }
     /**
-     * update the volume of the system
-     * @param volume, in Liters
+     * scale all velocities by the same factor so the kinetic temperature becomes the given one (k = 1, kinetic energy = N k T).
+     * Directions and the ratios between speeds are kept
+     * @param temperature, in simulation units
      */
-    public void updateVolume(double volume) {
-        this.volume = volume;
+    public void setTemperature(double temperature) {
+        int size = store.size();
+        double kineticEnergy = getKineticEnergy();
+        if(size == 0 || kineticEnergy <= 0 || temperature < 0){
+            return;
+        }
+        double scale = Math.sqrt(temperature * size / kineticEnergy);
+        double[] vx = store.getXVelocity();
+        double[] vy = store.getYVelocity();
+        for(int i = 0; i < size; i++){
+            vx[i] *= scale;
+            vy[i] *= scale;
+        }
+        speedsChanged();
     }
     public void updateMoles(double moles) {
         this.moles = moles;
@@ -136,119 +422,394 @@ public abstract class ParticleSystem {
 
     /* PARTICLE MOVEMENT METHODS */
     /**
-     * update position of particles
+     * update position of particles by one frame of the original 60Hz animation
      * @param xBounds, max x boundary of animation pane
      * @param yBounds, max y boundary of animation pane
      */
     public void updateParticlePositions(double xBounds, double yBounds){
-        for(Particle particle : this.particles) {
+        step(xBounds, yBounds, 1);
+    }
 
-            //detect particle collision
-            detectParticleCollision(particle, this.particles);
+    /**
+     * advance the system by a fixed time step
+     * @param xBounds, max x boundary of animation pane
+     * @param yBounds, max y boundary of animation pane
+     * @param dt, length of the step (1 = one frame of the original 60Hz animation)
+     */
+    public final void step(double xBounds, double yBounds, double dt){
+        profiler.beginStep(getNumberOfParticles());
+        //the box may be resized between steps
+        volume = xBounds * yBounds;
+        if(reordering && store.size() >= REORDER_MIN_PARTICLES && --stepsUntilOrderCheck <= 0){
+            reorderIfScattered(xBounds, yBounds);
+            profiler.lap(Phase.REORDER);
+        }
+        advance(xBounds, yBounds, dt);
+        profiler.endStep(dt);
+    }
 
-            //update particle position
-            particle.setXPos(particle.getXPos() + particle.getXVelocity());
-            particle.setYPos(particle.getYPos() + particle.getYVelocity());
+    /**
+     * As the particles move, particles stored next to each other drift apart in space and the collision passes
+     * read memory in an ever more random order. Every few steps the spread of the order is measured, and once it has
+     * grown by REORDER_SPREAD since the last sort the particles are sorted along the Hilbert curve again.
+     * The decision depends only on the particle state, so seeded runs stay repeatable
+     */
+    private void reorderIfScattered(double xBounds, double yBounds){
+        stepsUntilOrderCheck = ORDER_CHECK_INTERVAL;
+        double spread = HilbertOrder.spread(store);
+        if(!Double.isNaN(sortedSpread) && spread <= REORDER_SPREAD * sortedSpread){
+            return;
+        }
+        int[] order = hilbertOrder.sort(store, xBounds, yBounds);
+        store.permute(order);
+        sortedSpread = HilbertOrder.spread(store);
+        particlesReordered(order);
+    }
+
+    /**
+     * the particles were permuted (see ParticleStore.permute), anything kept per particle index has to follow them.
+     * Subclasses that keep such state override this and call super
+     * @param order, old index of the particle now at each index
+     */
+    protected void particlesReordered(int[] order){
+        neighborList.invalidate();
+        speedsChanged();
+    }
+
+    /**
+     * the step itself, systems with their own integration override this (and should split dt into at least substeps(dt) pieces).
+     * Call profiler.lap at the end of each phase so the time is attributed, and observables.record once for the whole dt,
+     * however many substeps it took, so the windows and averages count steps
+     * @param xBounds, max x boundary of animation pane
+     * @param yBounds, max y boundary of animation pane
+     * @param dt, length of the step
+     */
+    protected void advance(double xBounds, double yBounds, double dt){
+        int substeps = substeps(dt);
+        double substep = dt / substeps;
+        double wallImpulse = 0;
+        for(int k = 0; k < substeps; k++){
+            //detect particle collisions (each nearby pair once)
+            detectParticleCollisions(xBounds, yBounds);
+            //move, bounce off the walls and sum the energy in one pass (collisions are done for this substep, so the speed is final)
+            integrate(xBounds, yBounds, substep);
+            wallImpulse += sums[IntegrationKernel.WALL_IMPULSE];
+        }
+        observables.record(dt, wallImpulse, sums[IntegrationKernel.KINETIC_ENERGY], 0, store.size(), xBounds, yBounds);
+    }
+
+    /**
+     * number of substeps dt is split into so that no particle moves more than MAX_DISPLACEMENT of its radius per substep.
+     * Two particles heading straight at each other then close in by at most one radius per substep and are always caught
+     * overlapping, however hot the gas; a cold gas keeps a single substep and pays nothing for it. The speed comes from
+     * the end of the last step (the integration kernel finds it on the way), so collisions during the step may raise it
+     * by up to a factor sqrt(2), which the margin of MAX_DISPLACEMENT absorbs
+     * @param dt, length of the step
+     * @return substeps, 1 to MAX_SUBSTEPS
+     */
+    protected int substeps(double dt){
+        if(adaptiveSubstepping && Double.isNaN(maxSpeedRatio)){
+            maxSpeedRatio = findMaxSpeedRatio();
+        }
+        return substeps(maxSpeedRatio, dt);
+    }
 
-            //detect bounds collisions
-            detectBoundsCollision(particle, xBounds, yBounds);
+    /**
+     * substeps for a known speed ratio, for systems whose particles are integrated elsewhere
+     * @param maxSpeedRatio, largest (|v| / radius)^2 among the particles
+     * @param dt, length of the step
+     * @return substeps, 1 to MAX_SUBSTEPS
+     */
+    protected int substeps(double maxSpeedRatio, double dt){
+        if(!adaptiveSubstepping){
+            return 1;
+        }
+        //radii the fastest particle moves in dt
+        double displacement = sqrt(maxSpeedRatio) * dt;
+        if(!(displacement > MAX_DISPLACEMENT)){
+            return 1;
+        }
+        return (int) Math.min(MAX_SUBSTEPS, ceil(displacement / MAX_DISPLACEMENT));
+    }
+
+    /**
+     * the largest (|v| / radius)^2, for when the velocities were changed outside a step
+     */
+    private double findMaxSpeedRatio(){
+        double[] vx = store.getXVelocity();
+        double[] vy = store.getYVelocity();
+        double[] radius = store.getRadius();
+        double maxRatio = 0;
+        for(int i = 0; i < store.size(); i++){
+            maxRatio = max(maxRatio, (vx[i]*vx[i] + vy[i]*vy[i]) / (radius[i] * radius[i]));
+        }
+        return maxRatio;
+    }
 
+    /**
+     * move every particle and bounce it off the walls with the integration kernel, leaving the totals in sums.
+     * With a worker pool every block of particles is moved independently, and the per-block sums are combined in
+     * block order so the result is the same for any thread count
+     */
+    private void integrate(double xBounds, double yBounds, double dt){
+        double[] x = store.getX();
+        double[] y = store.getY();
+        double[] vx = store.getXVelocity();
+        double[] vy = store.getYVelocity();
+        double[] radius = store.getRadius();
+        double[] mass = store.getMass();
+        int size = store.size();
+        IntegrationKernel kernel = integrationKernel;
+        if(workerPool == null){
+            kernel.integrate(x, y, vx, vy, radius, mass, 0, size, dt, xBounds, yBounds, sums, 0);
+        } else {
+            int blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            if(blockSums.length < blocks * IntegrationKernel.SUMS){
+                blockSums = new double[blocks * IntegrationKernel.SUMS];
+            }
+            forEachBlock(blocks, block -> kernel.integrate(x, y, vx, vy, radius, mass,
+                    block * BLOCK_SIZE, Math.min(size, (block + 1) * BLOCK_SIZE), dt, xBounds, yBounds, blockSums, block * IntegrationKernel.SUMS));
+            Arrays.fill(sums, 0);
+            for(int block = 0; block < blocks; block++){
+                int offset = block * IntegrationKernel.SUMS;
+                sums[IntegrationKernel.WALL_IMPULSE] += blockSums[offset + IntegrationKernel.WALL_IMPULSE];
+                sums[IntegrationKernel.KINETIC_ENERGY] += blockSums[offset + IntegrationKernel.KINETIC_ENERGY];
+                sums[IntegrationKernel.WALL_COLLISIONS] += blockSums[offset + IntegrationKernel.WALL_COLLISIONS];
+                sums[IntegrationKernel.MAX_SPEED_RATIO] = max(sums[IntegrationKernel.MAX_SPEED_RATIO], blockSums[offset + IntegrationKernel.MAX_SPEED_RATIO]);
+            }
         }
+        profiler.lap(Phase.INTEGRATION);
+        profiler.addCollisions(0, (long) sums[IntegrationKernel.WALL_COLLISIONS]);
+        maxSpeedRatio = sums[IntegrationKernel.MAX_SPEED_RATIO];
+    }
+
+    /**
+     * visit every pair of particles whose centers may be within the given distance, each pair once.
+     * Sequential steps take the pairs from the Verlet neighbor list, which only goes back to the grid once a particle
+     * has moved further than half the skin. With a worker pool the grid cells are processed in colored batches (column mod 3, row mod 2): the pairs of one cell only touch
+     * particles within one column and one row of it, so cells of one color never share a particle and the visitor may
+     * write to both particles of a pair without locking. Every cell visits its pairs in a fixed order, so the result
+     * is the same for any number of threads
+     * @param xBounds, max x value of bounds
+     * @param yBounds, max y value of bounds
+     * @param range, largest center distance that must be visited, pairs further apart may or may not be visited
+     * @param visitor, receives the candidate pairs
+     */
+    protected void forEachNearbyPair(double xBounds, double yBounds, double range, SpatialGrid.PairVisitor visitor){
+        visitor = profiler.counting(visitor);
+        if(workerPool == null){
+            if(neighborSkin == 0){
+                spatialGrid.rebuild(this.store, xBounds, yBounds, range);
+                profiler.lap(Phase.BROAD_PHASE);
+                spatialGrid.forEachPair(visitor);
+            } else {
+                neighborList.update(this.store, xBounds, yBounds, range, neighborSkin);
+                profiler.lap(Phase.BROAD_PHASE);
+                neighborList.forEachPair(visitor);
+            }
+            profiler.lap(Phase.NARROW_PHASE);
+            return;
+        }
+        spatialGrid.rebuild(this.store, xBounds, yBounds, range);
+        profiler.lap(Phase.BROAD_PHASE);
+        SpatialGrid.PairVisitor cellVisitor = visitor;
+        int columns = spatialGrid.getColumns();
+        int rows = spatialGrid.getRows();
+        for(int rowColor = 0; rowColor < ROW_COLORS; rowColor++){
+            for(int columnColor = 0; columnColor < COLUMN_COLORS; columnColor++){
+                int firstRow = rowColor;
+                int firstColumn = columnColor;
+                int colorColumns = (columns - firstColumn + COLUMN_COLORS - 1) / COLUMN_COLORS;
+                int colorRows = (rows - firstRow + ROW_COLORS - 1) / ROW_COLORS;
+                if(colorColumns <= 0 || colorRows <= 0){ continue; }
+                workerPool.submit(() -> IntStream.range(0, colorColumns * colorRows).parallel().forEach(k -> {
+                    int cx = firstColumn + (k % colorColumns) * COLUMN_COLORS;
+                    int cy = firstRow + (k / colorColumns) * ROW_COLORS;
+                    spatialGrid.forEachPairInCell(cy * columns + cx, cellVisitor);
+                })).join();
+            }
+        }
+        profiler.lap(Phase.NARROW_PHASE);
+    }
+
+    /**
+     * run an action for every block of particles (BLOCK_SIZE particles each), in parallel on the worker pool if there is one.
+     * Blocks are fixed by the particle count alone, so per-block sums combined in block order do not depend on the thread count
+     * @param blocks, number of blocks
+     * @param action, receives the block index
+     */
+    protected void forEachBlock(int blocks, IntConsumer action){
+        if(workerPool == null){
+            for(int block = 0; block < blocks; block++){
+                action.accept(block);
+            }
+            return;
+        }
+        workerPool.submit(() -> IntStream.range(0, blocks).parallel().forEach(action)).join();
     }
 
     /**
      * Detect if collision of particle at bounds
-     * @param particle, the particle which will have it's position compared
+     * @param i, index of the particle which will have it's position compared
      * @param xBounds, max x value of bounds
      * @param yBounds, max y value of bounds
+     * @param dt, length of the step
+     * @return momentum transferred to the walls (2 m |v| per bounce), for the pressure
      */
-    private void detectBoundsCollision(Particle particle, double xBounds, double yBounds){
+    protected double detectBoundsCollision(int i, double xBounds, double yBounds, double dt){
+        double impulse = 0;
         //check X Bounds for collision
-        if(Collision.isHorizontalColliding(particle, xBounds)){
-            particle.negateXVelocity();
+        if(Collision.isHorizontalColliding(store, i, xBounds, dt)){
+            impulse += 2 * store.getMass()[i] * abs(store.getXVelocity()[i]);
+            store.getXVelocity()[i] *= -1;
+            profiler.wallCollision();
         }
         //check Y Bounds for collision
-        if(Collision.isVerticalColliding(particle, yBounds)){
-            particle.negateYVelocity();
+        if(Collision.isVerticalColliding(store, i, yBounds, dt)){
+            impulse += 2 * store.getMass()[i] * abs(store.getYVelocity()[i]);
+            store.getYVelocity()[i] *= -1;
+            profiler.wallCollision();
         }
+        return impulse;
     }
 
     /**
-     * Detect if collision between particles
-     * @param particle, particle to compare
-     * @param particles, list of possible colliding particles
+     * move a particle whose velocity changed to its new speed bin, any thread may call this for the particles it owns
+     * @param i, index of the particle
      */
-    private void detectParticleCollision(Particle particle, ArrayList<Particle> particles){
-        particleIterator = particles.listIterator();
-        while(particleIterator.hasNext()){
-            Particle otherParticle = particleIterator.next();
-            if(Collision.isColliding(particle, otherParticle)){
-                Collision.resolveCollision(particle, otherParticle);
-            }
+    protected void speedChanged(int i){
+        if(speedHistogram != null){
+            speedHistogram.update(store, i);
         }
     }
 
+    /**
+     * all speeds may have changed, the speed histogram is counted afresh when it is next sampled and the substeps
+     * of the next step are worked out from the new speeds
+     */
+    protected void speedsChanged(){
+        maxSpeedRatio = Double.NaN;
+        if(speedHistogram != null){
+            speedHistogram.invalidate();
+        }
+    }
+
+    /**
+     * Detect and resolve collisions between particles.
+     * The spatial grid only hands over pairs in the same or adjacent cells, instead of scanning every particle
+     * @param xBounds, max x value of bounds
+     * @param yBounds, max y value of bounds
+     */
+    private void detectParticleCollisions(double xBounds, double yBounds){
+        forEachNearbyPair(xBounds, yBounds, 0, collisionResolver);
+    }
+
 
     /* COLLECTION METHODS */
     /**
      * adds a new particle to the particle system
-     * @param particle, the particle object to add to this system
+     * @param xPos, starting x position
+     * @param yPos, starting y position
+     * @param weight, size of particle in amu
+     * @return false if the system is already at its max number of particles
      */
-    public void add(Particle particle){
-        if(this.particles.size() < MAX_PARTICLES){
-            particles.add(particle);
+    public boolean add(double xPos, double yPos, double weight){
+        if(store.size() >= maxParticles){
+            return false;
         }
+        store.add(xPos, yPos, 0, 0, weight, weight);
+        return true;
     }
     /**
-     * Adds the minimum of: the max allowed particles OR the number of particles requested
-     * All Particles start at the specified x and y position
-     * @param numberOfParticles, the number of system particles requested
+     * Adds the minimum of: the particles requested OR as many as still fit below the max allowed particles.
+     * All Particles start at the specified x and y position, init places them
+     * @param numberOfParticles, the number of particles to add
      */
     public void add(int numberOfParticles){
-        this.particles = new ArrayList<Particle>(MAX_PARTICLES);
-        //add the minimum of the maximum allows particles OR the number of particles requested.
-        for (int i = 0; i < min(numberOfParticles, MAX_PARTICLES); i++) {
-            this.particles.add(new Particle());
+        int added = min(numberOfParticles, maxParticles - store.size());
+        this.store.ensureCapacity(store.size() + added);
+        for (int i = 0; i < added; i++) {
+            this.add(50, 50, DEFAULT_WEIGHT);
         }
     }
 
     /**
-     * Sets the size of the particles[] array to the specified number
+     * Sets the number of particles in the store to the specified number, the particles added still have to be placed by init
      * @param numberOfParticles, total number of particles that should be in the system
+     * @throws IllegalArgumentException if the number is above the capacity of the system
      */
     public void setNumberOfParticles(int numberOfParticles){
-        //if greater than max size, do nothing
-        if(numberOfParticles > MAX_PARTICLES){ return; }
+        if(numberOfParticles > maxParticles){
+            throw new IllegalArgumentException("requested " + numberOfParticles + " particles, the system holds at most " + maxParticles);
+        }
         //if less than size of particles[], subtract difference from particles
-        if(numberOfParticles < this.particles.size()){
-            this.removeParticles(this.particles.size() - numberOfParticles);
+        if(numberOfParticles < this.store.size()){
+            this.removeParticles(this.store.size() - numberOfParticles);
         }
         //if greater than size of particles[]
-        if(numberOfParticles > this.particles.size()){
-            this.add(numberOfParticles - this.particles.size());
+        if(numberOfParticles > this.store.size()){
+            this.add(numberOfParticles - this.store.size());
         }
     }
+
     /**
-     * adds a collection of particles to the particle system
-     * @param newParticles
+     * Sets the number of particles of a running system, without init: the particles left keep their state,
+     * new particles are placed in the box (see placeParticle) and each moves like a randomly picked existing particle,
+     * so the speed distribution and the temperature stay as they are. Removed particles are the ones with the highest ids,
+     * taken out in constant time each
+     * @param numberOfParticles, total number of particles that should be in the system
+     * @param xBounds, max x boundary of animation pane
+     * @param yBounds, max y boundary of animation pane
+     * @throws IllegalArgumentException if the number is above the capacity of the system
      */
-    public void addAll(ArrayList<Particle> newParticles){
-        if(this.particles.size() + newParticles.size() <= MAX_PARTICLES){
-            particles.addAll(newParticles);
+    public void setNumberOfParticles(int numberOfParticles, double xBounds, double yBounds){
+        int size = store.size();
+        if(numberOfParticles == size){
+            return;
+        }
+        setNumberOfParticles(numberOfParticles);
+        double[] vx = store.getXVelocity();
+        double[] vy = store.getYVelocity();
+        double[] radius = store.getRadius();
+        double[] mass = store.getMass();
+        for(int i = size; i < store.size(); i++){
+            radius[i] = 10;
+            mass[i] = radius[i];
+            int model = (size > 0)? random.nextInt(size) : -1;
+            vx[i] = (model >= 0)? vx[model] : 1;
+            vy[i] = (model >= 0)? vy[model] : 1;
+            placeParticle(i, xBounds, yBounds);
         }
+        particleCountChanged();
     }
 
     /**
-     * removes the specified number of particles
+     * put a particle added to a running system somewhere in the box, like init does
+     * @param i, index of the particle, its radius is set
+     * @param xBounds, max x boundary of animation pane
+     * @param yBounds, max y boundary of animation pane
+     */
+    protected void placeParticle(int i, double xBounds, double yBounds){
+        double radius = store.getRadius()[i];
+        store.getX()[i] = random.nextInt((int) (xBounds - 2 * radius)) + radius;
+        store.getY()[i] = random.nextInt((int) (yBounds - 2 * radius)) + radius;
+    }
+
+    /**
+     * particles were added or removed outside init, anything kept per particle index has to be worked out again.
+     * Subclasses that keep such state override this and call super
+     */
+    protected void particleCountChanged(){
+        neighborList.invalidate();
+        speedsChanged();
+    }
+
+    /**
+     * removes the specified number of particles, the ones with the highest ids
      * @param numberOfParticlesToRemove, total number of particles to be removed
      */
     public void removeParticles(int numberOfParticlesToRemove){
-        int totalRemoved = 0;
-        ListIterator<Particle> particleIterator = this.particles.listIterator();
-        while(particleIterator.hasNext() && totalRemoved <= numberOfParticlesToRemove){
-            particleIterator.remove();
-            totalRemoved++;
-        }
+        this.store.truncate(this.store.size() - numberOfParticlesToRemove);
     }
 
 
@@ -259,8 +820,13 @@ public abstract class ParticleSystem {
      */
     public String stringifyParticles(){
         return "'ParticleData'{\n\t" +
-                particles.stream()
-                        .map(Particle::toString)
+                IntStream.range(0, store.size())
+                        .map(store::indexOf)
+                        .mapToObj(i -> "'Particle'{" +
+                                "'weight':" + store.getRadius()[i] +
+                                ", 'xPos':" + store.getX()[i] +
+                                ", 'yPos':" + store.getY()[i] +
+                                '}')
                         .collect(Collectors.joining(",\n\t"))
                 + "\n}";
     }
@@ -271,11 +837,11 @@ public abstract class ParticleSystem {
     @Override
     public String toString() {
         return "'ParticleSystem'{" +
-                "\n\t'totalParticles':" + particles.size() +
+                "\n\t'totalParticles':" + store.size() +
                 ",\n\t'volume':" + volume +
-                ",\n\t'temperature':" + temperature +
-                ",\n\t'pressure':" + pressure +
-                ",\n\t'MAX_PARTICLES':" + MAX_PARTICLES+
+                ",\n\t'temperature':" + getTemperature() +
+                ",\n\t'pressure':" + getPressure() +
+                ",\n\t'MAX_PARTICLES':" + maxParticles +
                 "\n}";
     }
 
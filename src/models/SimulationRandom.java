@@ -0,0 +1,71 @@
+package models;
+
+import java.util.Random;
+
+/**
+ * About: Random number generator of the simulation, a drop-in java.util.Random whose whole state is one long
+ * that can be read and restored, so checkpoints resume with exactly the numbers the run would have drawn.
+ * The numbers come from SplitMix64 (a counter passed through a 64 bit mixing function), every method of
+ * Random draws from it. nextGaussian keeps no spare value between calls, so the long really is the whole state.
+ */
+public class SimulationRandom extends Random {
+    //Random is Serializable, the state field is this class's whole serialized form
+    private static final long serialVersionUID = 1L;
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    private long state;
+
+    public SimulationRandom(){
+        super();
+    }
+
+    /**
+     * @param seed, initial state
+     */
+    public SimulationRandom(long seed){
+        super(seed);
+    }
+
+    /**
+     * restart the sequence, java.util.Random's constructors also come through here
+     * @param seed, new state
+     */
+    @Override
+    public synchronized void setSeed(long seed) {
+        this.state = seed;
+    }
+
+    @Override
+    protected int next(int bits) {
+        return (int) (nextLong() >>> (64 - bits));
+    }
+
+    @Override
+    public long nextLong() {
+        long z = (state += GOLDEN_GAMMA);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * standard normal value (Box-Muller, the second value of each pair is not kept)
+     */
+    @Override
+    public double nextGaussian() {
+        double u;
+        do {
+            u = nextDouble();
+        } while(u == 0);
+        double v = nextDouble();
+        return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * v);
+    }
+
+
+    /* GET METHODS */
+    /**
+     * @return the whole generator state, pass it to setSeed to continue from here
+     */
+    public long getState() {
+        return state;
+    }
+}
@@ -1,15 +1,371 @@
 package models;
 
-import javafx.scene.paint.Color;
+import metrics.Phase;
+import physics.LennardJones;
+import physics.SpatialGrid;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * About: Real gas. Particles attract and repel each other through a Lennard-Jones pair force with a cutoff,
+ * calibrated to the Van der Waals constants of a gas, and move with velocity-Verlet integration.
+ * The force pass only looks at pairs from the spatial grid (cells at least one cutoff wide), so it is O(n) like the ideal gas.
+ */
 public class VanderWaalsParticleSystem extends ParticleSystem{
+    //Van der Waals constants of argon (L^2 bar / mol^2, L / mol) and the temperature it is simulated at (K)
+    public static final double ARGON_A = 1.355;
+    public static final double ARGON_B = 0.03201;
+    public static final double DEFAULT_TEMPERATURE = 300;
+    //gas constant in L bar / (mol K)
+    private static final double GAS_CONSTANT = 0.08314462618;
+    //longest Verlet step as a fraction of the potential's time unit sigma sqrt(m / epsilon), longer steps are split up
+    private static final double MAX_STEP = 0.01;
+    //random positions tried for a particle added while running before settling for the last one
+    private static final int PLACEMENT_ATTEMPTS = 100;
+
+    private LennardJones potential;
+    //real gas the potential is calibrated to on init, see setGas
+    private double gasA = ARGON_A;
+    private double gasB = ARGON_B;
+    private double gasTemperature = DEFAULT_TEMPERATURE;
+
+    //force on every particle at the current positions, and half of the potential energy of its pairs
+    private double[] forceX = new double[0];
+    private double[] forceY = new double[0];
+    private double[] particlePotential = new double[0];
+    private boolean forcesValid;
+    private int forceSize;
+    private double lastXBounds;
+    private double lastYBounds;
+    private final SpatialGrid.PairVisitor forceAccumulator;
+    private double[] blockImpulse = new double[0];
+    private double[] blockKineticEnergy = new double[0];
+    private double[] blockPotentialEnergy = new double[0];
+    //particles placed so far by a resize, placementGridNext is the next index it expects, -1 if it is out of date
+    private final SpatialGrid placementGrid = new SpatialGrid();
+    private int placementGridNext = -1;
+    //energies at the end of the last Verlet step
+    private double stepKineticEnergy;
+    private double stepPotentialEnergy;
+
     public VanderWaalsParticleSystem(){
-        super();
-        this.color = Color.DARKBLUE;
-        this.strokeColor = Color.WHEAT;
+        this(DEFAULT_MAX_PARTICLES);
+    }
+
+    /**
+     * @param maxParticles, total maximum allowed particles
+     */
+    public VanderWaalsParticleSystem(int maxParticles){
+        super(maxParticles);
+        this.color = "darkblue";
+        this.strokeColor = "wheat";
+        this.potential = new LennardJones(20, 1);
+        this.forceAccumulator = (i, j) -> {
+            double[] x = store.getX();
+            double[] y = store.getY();
+            double dx = x[i] - x[j];
+            double dy = y[i] - y[j];
+            double distanceSquared = dx*dx + dy*dy;
+            double force = potential.forceOverDistance(distanceSquared);
+            if(force != 0){
+                forceX[i] += force * dx;
+                forceY[i] += force * dy;
+                forceX[j] -= force * dx;
+                forceY[j] -= force * dy;
+                double energy = 0.5 * potential.potential(distanceSquared);
+                particlePotential[i] += energy;
+                particlePotential[j] += energy;
+            }
+        };
+    }
+
+    /**
+     * place the particles and calibrate the potential to the gas at the current particle size and speed.
+     * Unlike the ideal gas, particles must not start on top of each other (their repulsion would throw them apart
+     * at enormous speed), so they are spread over a jittered lattice
+     */
+    @Override
+    public void init(double xBounds, double yBounds) {
+        super.init(xBounds, yBounds);
+        spreadOnLattice(xBounds, yBounds);
+        calibrate();
+    }
+
+    private void spreadOnLattice(double xBounds, double yBounds){
+        int size = store.size();
+        if(size == 0){
+            return;
+        }
+        double[] x = store.getX();
+        double[] y = store.getY();
+        double[] radius = store.getRadius();
+        int columns = Math.max(1, (int) Math.ceil(Math.sqrt(size * xBounds / yBounds)));
+        int rows = (size + columns - 1) / columns;
+        double cellWidth = xBounds / columns;
+        double cellHeight = yBounds / rows;
+        for(int i = 0; i < size; i++){
+            //free room around the particle in its lattice cell, the jitter stays within it
+            double roomX = Math.max(0, cellWidth - 2 * radius[i]);
+            double roomY = Math.max(0, cellHeight - 2 * radius[i]);
+            x[i] = (i % columns + 0.5) * cellWidth + (random.nextDouble() - 0.5) * roomX;
+            y[i] = (i / columns + 0.5) * cellHeight + (random.nextDouble() - 0.5) * roomY;
+        }
+        forcesValid = false;
+    }
+
+    /**
+     * simulate a gas with the given Van der Waals constants at the given temperature, takes effect on the next init.
+     * The well depth in kelvin follows from the constants, epsilon / k = a / (1.2 b R) (2D mapping, see LennardJones.fromVanDerWaals),
+     * and the potential is scaled so the particles' kinetic temperature stands in for the real temperature:
+     * the ratio of temperature to well depth, which decides how strongly the gas clumps, is the real one
+     * @param a, Van der Waals a in L^2 bar / mol^2
+     * @param b, Van der Waals b in L / mol
+     * @param temperature, temperature of the real gas in K
+     */
+    public void setGas(double a, double b, double temperature){
+        this.gasA = a;
+        this.gasB = b;
+        this.gasTemperature = temperature;
+    }
+
+    /**
+     * use the given pair potential directly (simulation units), until the next init
+     * @param potential, pair potential
+     */
+    public void setPotential(LennardJones potential){
+        this.potential = potential;
+        this.forcesValid = false;
+    }
+
+    private void calibrate(){
+        double wellDepthKelvin = gasA / (1.2 * gasB * GAS_CONSTANT);
+        double reducedTemperature = gasTemperature / wellDepthKelvin;
+        //sigma is the particle diameter, so particles drawn touching are at the zero of the potential
+        double diameter = 0;
+        double kineticEnergy = getKineticEnergy();
+        for(int i = 0; i < store.size(); i++){
+            diameter = Math.max(diameter, 2 * store.getRadius()[i]);
+        }
+        double simulationTemperature = (store.size() > 0)? kineticEnergy / store.size() : 1;
+        if(diameter <= 0 || simulationTemperature <= 0){
+            return;
+        }
+        setPotential(new LennardJones(diameter, simulationTemperature / reducedTemperature));
+    }
+
+    /**
+     * adds the gas constants and the potential, the forces follow from the positions
+     */
+    @Override
+    public int getStateSize() {
+        return super.getStateSize() + 6 * 8;
+    }
+    @Override
+    public void writeState(ByteBuffer buffer) {
+        super.writeState(buffer);
+        buffer.putDouble(gasA).putDouble(gasB).putDouble(gasTemperature);
+        buffer.putDouble(potential.getSigma()).putDouble(potential.getEpsilon()).putDouble(potential.getCutoff());
+    }
+    @Override
+    public void readState(ByteBuffer buffer) {
+        super.readState(buffer);
+        gasA = buffer.getDouble();
+        gasB = buffer.getDouble();
+        gasTemperature = buffer.getDouble();
+        double sigma = buffer.getDouble();
+        double epsilon = buffer.getDouble();
+        double cutoff = buffer.getDouble();
+        setPotential(new LennardJones(sigma, epsilon, cutoff));
+    }
+
+    /**
+     * advance by dt in velocity-Verlet steps short enough for the steep repulsion,
+     * and for the fastest particle not to move more than half its radius (which only takes over in a hot gas)
+     */
+    @Override
+    protected void advance(double xBounds, double yBounds, double dt) {
+        double maxStep = MAX_STEP * potential.getSigma() * Math.sqrt(minMass() / potential.getEpsilon());
+        int substeps = (maxStep > 0)? Math.max(1, (int) Math.ceil(dt / maxStep)) : 1;
+        substeps = Math.max(substeps, substeps(dt));
+        double wallImpulse = 0;
+        for(int k = 0; k < substeps; k++){
+            wallImpulse += verletStep(xBounds, yBounds, dt / substeps);
+        }
+        //one record per step whatever the substeps, so the windows and averages count steps like the ideal gas's
+        observables.record(dt, wallImpulse, stepKineticEnergy, stepPotentialEnergy, store.size(), xBounds, yBounds);
+        //the forces change every speed a little every step, so the speed histogram is counted afresh when sampled
+        speedsChanged();
     }
+
+    /**
+     * one velocity-Verlet step: half kick with the current forces, drift (bouncing off the walls),
+     * new forces at the new positions, second half kick. Leaves the energies at the end of it in stepKineticEnergy and
+     * stepPotentialEnergy
+     * @return momentum transferred to the walls
+     */
+    private double verletStep(double xBounds, double yBounds, double dt) {
+        int size = store.size();
+        if(!forcesValid || forceSize != size || xBounds != lastXBounds || yBounds != lastYBounds){
+            computeForces(xBounds, yBounds);
+        }
+        double[] x = store.getX();
+        double[] y = store.getY();
+        double[] vx = store.getXVelocity();
+        double[] vy = store.getYVelocity();
+        double[] mass = store.getMass();
+        int blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        if(blockImpulse.length < blocks){
+            blockImpulse = new double[blocks];
+            blockKineticEnergy = new double[blocks];
+            blockPotentialEnergy = new double[blocks];
+        }
+
+        //half kick and drift
+        forEachBlock(blocks, block -> {
+            for(int i = block * BLOCK_SIZE; i < Math.min(size, (block + 1) * BLOCK_SIZE); i++){
+                vx[i] += 0.5 * dt * forceX[i] / mass[i];
+                vy[i] += 0.5 * dt * forceY[i] / mass[i];
+                x[i] += vx[i] * dt;
+                y[i] += vy[i] * dt;
+            }
+        });
+        profiler.lap(Phase.INTEGRATION);
+
+        computeForces(xBounds, yBounds);
+
+        //second half kick, then bounce off the walls with the full-step velocity
+        //(bouncing the half-step velocity would let the second kick push the wrong way and leak energy at every bounce),
+        //the velocities are final for this step so the energies are summed on the way
+        forEachBlock(blocks, block -> {
+            double wallImpulse = 0;
+            double kineticEnergy = 0;
+            double potentialEnergy = 0;
+            for(int i = block * BLOCK_SIZE; i < Math.min(size, (block + 1) * BLOCK_SIZE); i++){
+                vx[i] += 0.5 * dt * forceX[i] / mass[i];
+                vy[i] += 0.5 * dt * forceY[i] / mass[i];
+                wallImpulse += detectBoundsCollision(i, xBounds, yBounds, dt);
+                kineticEnergy += 0.5 * mass[i] * (vx[i]*vx[i] + vy[i]*vy[i]);
+                potentialEnergy += particlePotential[i];
+            }
+            blockImpulse[block] = wallImpulse;
+            blockKineticEnergy[block] = kineticEnergy;
+            blockPotentialEnergy[block] = potentialEnergy;
+        });
+        profiler.lap(Phase.INTEGRATION);
+
+        double wallImpulse = 0;
+        double kineticEnergy = 0;
+        double potentialEnergy = 0;
+        for(int block = 0; block < blocks; block++){
+            wallImpulse += blockImpulse[block];
+            kineticEnergy += blockKineticEnergy[block];
+            potentialEnergy += blockPotentialEnergy[block];
+        }
+        stepKineticEnergy = kineticEnergy;
+        stepPotentialEnergy = potentialEnergy;
+        return wallImpulse;
+    }
+
+    //the lightest particle reacts fastest to the force, so it sets the time unit
+    private double minMass(){
+        double minMass = Double.MAX_VALUE;
+        for(int i = 0; i < store.size(); i++){
+            minMass = Math.min(minMass, store.getMass()[i]);
+        }
+        return (store.size() > 0)? minMass : 0;
+    }
+
+    /**
+     * sum the pair forces and potential energies at the current positions
+     */
+    private void computeForces(double xBounds, double yBounds){
+        int size = store.size();
+        if(forceX.length < size){
+            forceX = new double[store.getCapacity()];
+            forceY = new double[store.getCapacity()];
+            particlePotential = new double[store.getCapacity()];
+        }
+        Arrays.fill(forceX, 0, size, 0);
+        Arrays.fill(forceY, 0, size, 0);
+        Arrays.fill(particlePotential, 0, size, 0);
+        forEachNearbyPair(xBounds, yBounds, potential.getCutoff(), forceAccumulator);
+        this.lastXBounds = xBounds;
+        this.lastYBounds = yBounds;
+        this.forceSize = size;
+        this.forcesValid = true;
+    }
+
+    /**
+     * the forces move with their particles, so the next step does not have to compute them again
+     */
+    @Override
+    protected void particlesReordered(int[] order) {
+        super.particlesReordered(order);
+        forceX = permuted(forceX, order);
+        forceY = permuted(forceY, order);
+        particlePotential = permuted(particlePotential, order);
+    }
+
+    private double[] permuted(double[] values, int[] order){
+        double[] permuted = new double[values.length];
+        for(int k = 0; k < Math.min(forceSize, store.size()); k++){
+            permuted[k] = values[order[k]];
+        }
+        return permuted;
+    }
+
+    /**
+     * a particle added on top of another would be thrown out at enormous speed, so random positions are tried
+     * until one is at least sigma away from every particle placed before it. Only the particles in the grid cells
+     * around a position are looked at, so adding a particle takes constant time however many there are
+     */
+    @Override
+    protected void placeParticle(int i, double xBounds, double yBounds) {
+        double[] x = store.getX();
+        double[] y = store.getY();
+        double sigma = potential.getSigma();
+        double minDistanceSquared = sigma * sigma;
+        //particles are added at the end of the store, the ones before i are already placed: grid them once per resize,
+        //then insert every particle placed after them
+        if(placementGridNext != i){
+            placementGrid.rebuildFirst(store, i, xBounds, yBounds, sigma);
+        }
+        for(int attempt = 0; attempt < PLACEMENT_ATTEMPTS; attempt++){
+            super.placeParticle(i, xBounds, yBounds);
+            boolean free = placementGrid.forEachNeighbor(x[i], y[i], j -> {
+                double dx = x[i] - x[j];
+                double dy = y[i] - y[j];
+                return dx*dx + dy*dy >= minDistanceSquared;
+            });
+            if(free){
+                break;
+            }
+        }
+        placementGrid.insert(i, x[i], y[i]);
+        placementGridNext = i + 1;
+    }
+
+    /**
+     * the particles may move before the next resize, the placement grid is built afresh for it
+     */
+    @Override
+    protected void particleCountChanged() {
+        super.particleCountChanged();
+        placementGridNext = -1;
+    }
+
+    /**
+     * the forces are derived from the positions, so after particles were moved from outside the step
+     * they are recomputed before the next step
+     */
     @Override
     public void calculateParticleVelocities() {
+        forcesValid = false;
+    }
 
+    /* GET METHODS */
+    public LennardJones getPotential() {
+        return potential;
     }
 }
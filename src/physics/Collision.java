@@ -1,54 +1,147 @@
 package physics;
 
-import models.Particle;
+import jdk.incubator.foreign.MemorySegment;
+import models.OffHeapParticleStore;
+import models.ParticleStore;
+
+import static jdk.incubator.foreign.MemoryAccess.getDoubleAtIndex;
+import static jdk.incubator.foreign.MemoryAccess.setDoubleAtIndex;
 
 /**
  * About: This class handles all collision-centered logic
  */
 public abstract class Collision {
 
-    public static boolean isColliding(Particle particle1, Particle particle2){
-        if(Vector2.distance(particle1.getPosVector(), particle2.getPosVector()) <= particle1.getRadius()+particle2.getRadius()){
-            return true;
-        }
-        return false;
+    /**
+     * Determines if two particles of the store overlap
+     * @param store, particle state
+     * @param i, index of the first particle
+     * @param j, index of the second particle
+     * @return
+     */
+    public static boolean isColliding(ParticleStore store, int i, int j){
+        double[] x = store.getX();
+        double[] y = store.getY();
+        double[] radius = store.getRadius();
+        return isColliding(x[i], y[i], radius[i], x[j], y[j], radius[j]);
+    }
+    /**
+     * Determines if two particles kept off the heap overlap
+     * @param store, particle state
+     * @param i, index of the first particle
+     * @param j, index of the second particle
+     * @return
+     */
+    public static boolean isColliding(OffHeapParticleStore store, int i, int j){
+        MemorySegment x = store.getColumn(OffHeapParticleStore.X);
+        MemorySegment y = store.getColumn(OffHeapParticleStore.Y);
+        MemorySegment radius = store.getColumn(OffHeapParticleStore.RADIUS);
+        return isColliding(getDoubleAtIndex(x, i), getDoubleAtIndex(y, i), getDoubleAtIndex(radius, i),
+                getDoubleAtIndex(x, j), getDoubleAtIndex(y, j), getDoubleAtIndex(radius, j));
+    }
+    /**
+     * Determines if two circles overlap, compares squared distances so no sqrt is needed
+     * @return
+     */
+    public static boolean isColliding(double x1, double y1, double radius1, double x2, double y2, double radius2){
+        double reach = radius1 + radius2;
+        return Vector2.distanceSquared(x1, y1, x2, y2) <= reach * reach;
     }
-    public static void resolveCollision(Particle particle1, Particle particle2){
-        Vector2 tangentVector = new Vector2();
+    /**
+     * Resolve an elastic collision between two particles of equal mass by exchanging the velocity
+     * components along the line between their centers. Works on the raw arrays, nothing is allocated
+     * @param store, particle state
+     * @param i, index of the first particle
+     * @param j, index of the second particle
+     */
+    public static void resolveCollision(ParticleStore store, int i, int j){
+        double[] x = store.getX();
+        double[] y = store.getY();
+        double[] vx = store.getXVelocity();
+        double[] vy = store.getYVelocity();
+
         //vector perpendicular to (x,y) is (-y, x)
-        tangentVector.setY(-(particle2.getXPos() - particle1.getXPos()));
-        tangentVector.setX(particle2.getYPos() - particle1.getYPos());
+        double tangentX = y[j] - y[i];
+        double tangentY = -(x[j] - x[i]);
         //normalize tangent vector
-        tangentVector.normalize();
+        double tangentLength = Math.sqrt(tangentX*tangentX + tangentY*tangentY);
+        if(tangentLength != 0.0){
+            tangentX /= tangentLength;
+            tangentY /= tangentLength;
+        }
         //calculate relative velocity
-        Vector2 relativeVelocity = new Vector2(particle1.getXVelocity() - particle2.getXVelocity(), particle1.getYVelocity() - particle2.getYVelocity());
+        double relativeX = vx[i] - vx[j];
+        double relativeY = vy[i] - vy[j];
         //get length of the velocity component parallel to the tangent
-        double length = Vector2.dotProduct(relativeVelocity, tangentVector);
+        double length = Vector2.dotProduct(relativeX, relativeY, tangentX, tangentY);
         if(length > 0){
             return;
         }
-        //multiply noramlized tangent vector by length (scalar) to get the vector componenet parallele ot the tangent
-        Vector2 velocityComponentOnTangent = Vector2.multiply(tangentVector, length);
-        //substracting parallel component veloicty from the relative velocity gives us the perpendicular component
-        Vector2 velocityComponentPerpendicularToTangent = Vector2.subtract(relativeVelocity, velocityComponentOnTangent);
-        
+        //substracting the component parallel to the tangent from the relative velocity gives us the perpendicular component
+        double perpendicularX = relativeX - tangentX * length;
+        double perpendicularY = relativeY - tangentY * length;
+
         //adjust particle velocities
         //particle 1
-        particle1.setXVelocity(particle1.getXVelocity() - velocityComponentPerpendicularToTangent.getX());
-        particle1.setYVelocity(particle1.getYVelocity() - velocityComponentPerpendicularToTangent.getY());
+        vx[i] -= perpendicularX;
+        vy[i] -= perpendicularY;
         //particle 2
-        particle2.setXVelocity(particle2.getXVelocity() + velocityComponentPerpendicularToTangent.getX());
-        particle2.setYVelocity(particle2.getYVelocity() + velocityComponentPerpendicularToTangent.getY());
+        vx[j] += perpendicularX;
+        vy[j] += perpendicularY;
+    }
+
+    /**
+     * resolveCollision for two particles kept off the heap, the same arithmetic on the store's segment
+     * @param store, particle state
+     * @param i, index of the first particle
+     * @param j, index of the second particle
+     */
+    public static void resolveCollision(OffHeapParticleStore store, int i, int j){
+        MemorySegment x = store.getColumn(OffHeapParticleStore.X);
+        MemorySegment y = store.getColumn(OffHeapParticleStore.Y);
+        MemorySegment vx = store.getColumn(OffHeapParticleStore.X_VELOCITY);
+        MemorySegment vy = store.getColumn(OffHeapParticleStore.Y_VELOCITY);
+
+        double tangentX = getDoubleAtIndex(y, j) - getDoubleAtIndex(y, i);
+        double tangentY = -(getDoubleAtIndex(x, j) - getDoubleAtIndex(x, i));
+        double tangentLength = Math.sqrt(tangentX*tangentX + tangentY*tangentY);
+        if(tangentLength != 0.0){
+            tangentX /= tangentLength;
+            tangentY /= tangentLength;
+        }
+        double vxi = getDoubleAtIndex(vx, i);
+        double vyi = getDoubleAtIndex(vy, i);
+        double vxj = getDoubleAtIndex(vx, j);
+        double vyj = getDoubleAtIndex(vy, j);
+        double relativeX = vxi - vxj;
+        double relativeY = vyi - vyj;
+        double length = Vector2.dotProduct(relativeX, relativeY, tangentX, tangentY);
+        if(length > 0){
+            return;
+        }
+        double perpendicularX = relativeX - tangentX * length;
+        double perpendicularY = relativeY - tangentY * length;
+
+        setDoubleAtIndex(vx, i, vxi - perpendicularX);
+        setDoubleAtIndex(vy, i, vyi - perpendicularY);
+        setDoubleAtIndex(vx, j, vxj + perpendicularX);
+        setDoubleAtIndex(vy, j, vyj + perpendicularY);
     }
 
     /**
      * Determines if particle is colliding with "wall" in the up/down direction
-     * @param particle, the particle to check
+     * @param store, particle state
+     * @param i, index of the particle to check
      * @param boundary, the position of the boundary in the y axis
+     * @param dt, length of the step the particle is about to take
      * @return
      */
-    public static boolean isVerticalColliding(Particle particle, double boundary){
-        if(particle.getYPos() + particle.getYVelocity() > boundary - particle.getRadius() || particle.getYPos() + particle.getYVelocity() < particle.getRadius()){
+    public static boolean isVerticalColliding(ParticleStore store, int i, double boundary, double dt){
+        return isVerticalColliding(store.getY()[i], store.getYVelocity()[i], store.getRadius()[i], boundary, dt);
+    }
+    public static boolean isVerticalColliding(double yPos, double velocity, double radius, double boundary, double dt){
+        double nextYPos = yPos + velocity * dt;
+        if(nextYPos > boundary - radius || nextYPos < radius){
             return true;
         }
         return false;
@@ -56,12 +149,18 @@ public abstract class Collision {
 
     /**
      * Determines if particle is colliding with "wall" in the left/right direction
-     * @param particle
-     * @param boundary
+     * @param store, particle state
+     * @param i, index of the particle to check
+     * @param boundary, the position of the boundary in the x axis
+     * @param dt, length of the step the particle is about to take
      * @return
      */
-    public static boolean isHorizontalColliding(Particle particle, double boundary){
-        if(particle.getXPos() + particle.getXVelocity() > boundary - particle.getRadius() || particle.getXPos() + particle.getXVelocity() < particle.getRadius()){
+    public static boolean isHorizontalColliding(ParticleStore store, int i, double boundary, double dt){
+        return isHorizontalColliding(store.getX()[i], store.getXVelocity()[i], store.getRadius()[i], boundary, dt);
+    }
+    public static boolean isHorizontalColliding(double xPos, double velocity, double radius, double boundary, double dt){
+        double nextXPos = xPos + velocity * dt;
+        if(nextXPos > boundary - radius || nextXPos < radius){
             return true;
         }
         return false;
@@ -0,0 +1,507 @@
+package physics;
+
+import models.ParticleStore;
+
+import java.util.Arrays;
+
+/**
+ * About: Event-driven hard-sphere engine. Instead of moving everything by a fixed step and checking for overlaps,
+ * it predicts the exact time of every upcoming particle-particle and particle-wall collision, keeps them in a
+ * priority queue and jumps straight from one event to the next.
+ *
+ * Predictions are only made against particles in the 3x3 block of grid cells around a particle (cells are at least
+ * two max radii wide), and a particle leaving its cell is itself an event, after which it is checked against its new neighbours.
+ * Events are never removed from the queue: every particle counts its collisions, and an event whose particles have
+ * collided since it was predicted is simply skipped when it comes up (lazy invalidation).
+ * Particles are only moved when they take part in an event, and all of them are brought up to date at the end of advance().
+ */
+public class EventDrivenEngine {
+    //event types, stored in place of the second particle index
+    private static final int WALL_X = -1;
+    private static final int WALL_Y = -2;
+    private static final int CELL_X = -3;
+    private static final int CELL_Y = -4;
+
+    private ParticleStore store;
+    private double xBounds;
+    private double yBounds;
+    private double time;
+    private boolean initialized;
+
+    //per particle bookkeeping
+    private double[] lastTime = new double[0];
+    private int[] collisionCount = new int[0];
+
+    //dynamic cell lists (doubly linked through particle indices)
+    private int columns;
+    private int rows;
+    private double cellWidth;
+    private double cellHeight;
+    private int[] cellHead = new int[0];
+    private int[] cellOf = new int[0];
+    private int[] nextInCell = new int[0];
+    private int[] previousInCell = new int[0];
+
+    //binary min-heap of events, kept as parallel primitive arrays
+    private int eventCount;
+    //queue size right after the last rebuild, i.e. the number of live predictions
+    private int rebuiltEventCount;
+    private double[] eventTime = new double[64];
+    private int[] eventParticle = new int[64];
+    private int[] eventOther = new int[64];
+    private int[] eventParticleCount = new int[64];
+    private int[] eventOtherCount = new int[64];
+
+    private long eventsProcessed;
+    private long particleCollisions;
+    private long wallCollisions;
+    //observables kept up to date event by event: momentum given to the walls since the last takeWallImpulse(),
+    //and the total kinetic energy (summed once on initialize, then changed only by collisions)
+    private double wallImpulse;
+    private double kineticEnergy;
+    //told about every particle-particle collision, null if nobody listens
+    private SpatialGrid.PairVisitor collisionListener;
+
+    /**
+     * forget all predictions, the queue is rebuilt from the store on the next call to advance
+     */
+    public void invalidate(){
+        this.initialized = false;
+    }
+
+    /**
+     * @param collisionListener, receives both particles after each particle-particle collision changed their velocities, null for none
+     */
+    public void setCollisionListener(SpatialGrid.PairVisitor collisionListener){
+        this.collisionListener = collisionListener;
+    }
+
+    /**
+     * advance the particles by the given amount of simulation time, processing every collision on the way exactly
+     * @param store, particle state
+     * @param xBounds, max x value of bounds
+     * @param yBounds, max y value of bounds
+     * @param dt, simulation time to advance
+     */
+    public void advance(ParticleStore store, double xBounds, double yBounds, double dt){
+        if(!initialized || store != this.store || store.size() != collisionCount.length
+                || xBounds != this.xBounds || yBounds != this.yBounds){
+            initialize(store, xBounds, yBounds);
+        }
+        double targetTime = time + dt;
+
+        while(eventCount > 0 && eventTime[0] <= targetTime){
+            double t = eventTime[0];
+            int a = eventParticle[0];
+            int b = eventOther[0];
+            int countA = eventParticleCount[0];
+            int countB = eventOtherCount[0];
+            removeFirstEvent();
+
+            //skip predictions made before one of the particles collided with something else
+            if(collisionCount[a] != countA || (b >= 0 && collisionCount[b] != countB)){
+                continue;
+            }
+            time = t;
+            eventsProcessed++;
+            if(b >= 0){
+                moveToTime(a);
+                moveToTime(b);
+                bounce(a, b);
+                particleCollisions++;
+                if(collisionListener != null){
+                    collisionListener.visit(a, b);
+                }
+                predictCollisions(a);
+                predictCollisions(b);
+            } else if(b == WALL_X || b == WALL_Y){
+                moveToTime(a);
+                if(b == WALL_X){
+                    wallImpulse += 2 * store.getMass()[a] * Math.abs(store.getXVelocity()[a]);
+                    store.getXVelocity()[a] *= -1;
+                } else {
+                    wallImpulse += 2 * store.getMass()[a] * Math.abs(store.getYVelocity()[a]);
+                    store.getYVelocity()[a] *= -1;
+                }
+                collisionCount[a]++;
+                wallCollisions++;
+                predictCollisions(a);
+            } else {
+                //cell crossing, velocity is unchanged so the particle's other predictions stay valid
+                moveToTime(a);
+                int cell = cellOf[a];
+                int cx = cell % columns;
+                int cy = cell / columns;
+                if(b == CELL_X){
+                    cx += (store.getXVelocity()[a] > 0)? 1 : -1;
+                } else {
+                    cy += (store.getYVelocity()[a] > 0)? 1 : -1;
+                }
+                moveToCell(a, cy * columns + cx);
+                predictParticleCollisions(a);
+                predictCellCrossing(a);
+            }
+
+            //stale events pile up, rebuild the queue from scratch once they dominate
+            //(relative to the fresh queue size, so memory stays linear in the particle count at any density)
+            if(eventCount > 4 * rebuiltEventCount + 1024){
+                rebuildQueue();
+            }
+        }
+
+        //bring every particle up to the target time
+        time = targetTime;
+        for(int i = 0; i < store.size(); i++){
+            moveToTime(i);
+        }
+    }
+
+    /**
+     * (re)build cells and predictions for the current state of the store
+     */
+    private void initialize(ParticleStore store, double xBounds, double yBounds){
+        this.store = store;
+        this.xBounds = xBounds;
+        this.yBounds = yBounds;
+        int size = store.size();
+
+        //cells at least two max radii wide, so touching particles are always in neighbouring cells
+        double maxRadius = 0;
+        for(int i = 0; i < size; i++){
+            maxRadius = Math.max(maxRadius, store.getRadius()[i]);
+        }
+        double cellSize = Math.max(2 * maxRadius, 1);
+        //a few cells per particle at most, so a dilute box does not pay for (and cross) millions of empty cells
+        cellSize = Math.max(cellSize, Math.sqrt(xBounds * yBounds / (4.0 * Math.max(size, 256))));
+        columns = Math.max(1, (int) (xBounds / cellSize));
+        rows = Math.max(1, (int) (yBounds / cellSize));
+        cellWidth = xBounds / columns;
+        cellHeight = yBounds / rows;
+
+        if(cellHead.length < columns * rows){
+            cellHead = new int[columns * rows];
+        }
+        //the store was changed from outside, its positions are current
+        lastTime = new double[size];
+        Arrays.fill(lastTime, time);
+        collisionCount = new int[size];
+        cellOf = new int[size];
+        nextInCell = new int[size];
+        previousInCell = new int[size];
+        kineticEnergy = 0;
+        for(int i = 0; i < size; i++){
+            kineticEnergy += kineticEnergy(i);
+        }
+        initialized = true;
+        rebuildQueue();
+    }
+
+    /**
+     * drop every pending event and predict again from the current state
+     */
+    private void rebuildQueue(){
+        int size = store.size();
+        double[] x = store.getX();
+        double[] y = store.getY();
+        for(int i = 0; i < size; i++){
+            moveToTime(i);
+        }
+        Arrays.fill(cellHead, 0, columns * rows, -1);
+        for(int i = 0; i < size; i++){
+            int cx = Math.min(columns - 1, Math.max(0, (int) (x[i] / cellWidth)));
+            int cy = Math.min(rows - 1, Math.max(0, (int) (y[i] / cellHeight)));
+            cellOf[i] = -1;
+            moveToCell(i, cy * columns + cx);
+        }
+        eventCount = 0;
+        for(int i = 0; i < size; i++){
+            predictCollisions(i);
+        }
+        rebuiltEventCount = eventCount;
+    }
+
+
+    /* PREDICTION */
+    /**
+     * predict everything that can happen next to particle i after its velocity changed
+     */
+    private void predictCollisions(int i){
+        predictParticleCollisions(i);
+        predictCellCrossing(i);
+
+        double[] x = store.getX();
+        double[] y = store.getY();
+        double[] vx = store.getXVelocity();
+        double[] vy = store.getYVelocity();
+        double radius = store.getRadius()[i];
+        //walls sit at radius and bounds - radius for the particle center
+        if(vx[i] > 0){
+            addEvent(time + Math.max(0, (xBounds - radius - x[i]) / vx[i]), i, WALL_X);
+        } else if(vx[i] < 0){
+            addEvent(time + Math.max(0, (radius - x[i]) / vx[i]), i, WALL_X);
+        }
+        if(vy[i] > 0){
+            addEvent(time + Math.max(0, (yBounds - radius - y[i]) / vy[i]), i, WALL_Y);
+        } else if(vy[i] < 0){
+            addEvent(time + Math.max(0, (radius - y[i]) / vy[i]), i, WALL_Y);
+        }
+    }
+
+    /**
+     * predict collisions of particle i with every particle in the surrounding 3x3 cells
+     */
+    private void predictParticleCollisions(int i){
+        int cell = cellOf[i];
+        int cx = cell % columns;
+        int cy = cell / columns;
+        for(int ny = Math.max(0, cy - 1); ny <= Math.min(rows - 1, cy + 1); ny++){
+            for(int nx = Math.max(0, cx - 1); nx <= Math.min(columns - 1, cx + 1); nx++){
+                for(int j = cellHead[ny * columns + nx]; j != -1; j = nextInCell[j]){
+                    if(j != i){
+                        double t = timeToHit(i, j);
+                        if(t != Double.POSITIVE_INFINITY){
+                            addEvent(time + t, i, j);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * predict when particle i leaves its cell (never towards a wall, the wall event comes first)
+     */
+    private void predictCellCrossing(int i){
+        double x = store.getX()[i];
+        double y = store.getY()[i];
+        double vx = store.getXVelocity()[i];
+        double vy = store.getYVelocity()[i];
+        int cx = cellOf[i] % columns;
+        int cy = cellOf[i] / columns;
+        double tx = Double.POSITIVE_INFINITY;
+        double ty = Double.POSITIVE_INFINITY;
+        if(vx > 0 && cx < columns - 1){
+            tx = Math.max(0, ((cx + 1) * cellWidth - x) / vx);
+        } else if(vx < 0 && cx > 0){
+            tx = Math.max(0, (cx * cellWidth - x) / vx);
+        }
+        if(vy > 0 && cy < rows - 1){
+            ty = Math.max(0, ((cy + 1) * cellHeight - y) / vy);
+        } else if(vy < 0 && cy > 0){
+            ty = Math.max(0, (cy * cellHeight - y) / vy);
+        }
+        if(tx <= ty && tx != Double.POSITIVE_INFINITY){
+            addEvent(time + tx, i, CELL_X);
+        } else if(ty != Double.POSITIVE_INFINITY){
+            addEvent(time + ty, i, CELL_Y);
+        }
+    }
+
+    /**
+     * time until particles i and j touch, evaluated at the current engine time
+     * @return time from now, or infinity if they never meet on their current course
+     */
+    private double timeToHit(int i, int j){
+        double[] vx = store.getXVelocity();
+        double[] vy = store.getYVelocity();
+        double dx = positionX(j) - positionX(i);
+        double dy = positionY(j) - positionY(i);
+        double dvx = vx[j] - vx[i];
+        double dvy = vy[j] - vy[i];
+        double dvdr = dx*dvx + dy*dvy;
+        if(dvdr >= 0){
+            return Double.POSITIVE_INFINITY;
+        }
+        double dvdv = dvx*dvx + dvy*dvy;
+        double drdr = dx*dx + dy*dy;
+        double sigma = store.getRadius()[i] + store.getRadius()[j];
+        //already overlapping and approaching, resolve right away
+        if(drdr < sigma * sigma){
+            return 0;
+        }
+        double d = dvdr*dvdr - dvdv * (drdr - sigma*sigma);
+        if(d < 0){
+            return Double.POSITIVE_INFINITY;
+        }
+        return -(dvdr + Math.sqrt(d)) / dvdv;
+    }
+
+
+    /* EVENT HANDLING */
+    /**
+     * elastic collision of two touching particles, exchanging momentum along the line between their centers
+     */
+    private void bounce(int i, int j){
+        double[] x = store.getX();
+        double[] y = store.getY();
+        double[] vx = store.getXVelocity();
+        double[] vy = store.getYVelocity();
+        double[] mass = store.getMass();
+        double dx = x[j] - x[i];
+        double dy = y[j] - y[i];
+        double distance = Math.sqrt(dx*dx + dy*dy);
+        if(distance > 0){
+            double energyBefore = kineticEnergy(i) + kineticEnergy(j);
+            double dvdr = dx * (vx[j] - vx[i]) + dy * (vy[j] - vy[i]);
+            double impulse = 2 * mass[i] * mass[j] * dvdr / ((mass[i] + mass[j]) * distance);
+            double impulseX = impulse * dx / distance;
+            double impulseY = impulse * dy / distance;
+            vx[i] += impulseX / mass[i];
+            vy[i] += impulseY / mass[i];
+            vx[j] -= impulseX / mass[j];
+            vy[j] -= impulseY / mass[j];
+            kineticEnergy += kineticEnergy(i) + kineticEnergy(j) - energyBefore;
+        }
+        collisionCount[i]++;
+        collisionCount[j]++;
+    }
+
+    private double kineticEnergy(int i){
+        double vx = store.getXVelocity()[i];
+        double vy = store.getYVelocity()[i];
+        return 0.5 * store.getMass()[i] * (vx*vx + vy*vy);
+    }
+
+    private void moveToTime(int i){
+        double elapsed = time - lastTime[i];
+        if(elapsed != 0){
+            store.getX()[i] += store.getXVelocity()[i] * elapsed;
+            store.getY()[i] += store.getYVelocity()[i] * elapsed;
+            lastTime[i] = time;
+        }
+    }
+    private double positionX(int i){
+        return store.getX()[i] + store.getXVelocity()[i] * (time - lastTime[i]);
+    }
+    private double positionY(int i){
+        return store.getY()[i] + store.getYVelocity()[i] * (time - lastTime[i]);
+    }
+
+    private void moveToCell(int i, int cell){
+        //unlink from the old cell
+        if(cellOf[i] != -1){
+            if(previousInCell[i] != -1){
+                nextInCell[previousInCell[i]] = nextInCell[i];
+            } else {
+                cellHead[cellOf[i]] = nextInCell[i];
+            }
+            if(nextInCell[i] != -1){
+                previousInCell[nextInCell[i]] = previousInCell[i];
+            }
+        }
+        //push onto the new cell
+        cellOf[i] = cell;
+        previousInCell[i] = -1;
+        nextInCell[i] = cellHead[cell];
+        if(cellHead[cell] != -1){
+            previousInCell[cellHead[cell]] = i;
+        }
+        cellHead[cell] = i;
+    }
+
+
+    /* PRIORITY QUEUE */
+    private void addEvent(double t, int particle, int other){
+        if(eventCount == eventTime.length){
+            int capacity = eventCount * 2;
+            eventTime = Arrays.copyOf(eventTime, capacity);
+            eventParticle = Arrays.copyOf(eventParticle, capacity);
+            eventOther = Arrays.copyOf(eventOther, capacity);
+            eventParticleCount = Arrays.copyOf(eventParticleCount, capacity);
+            eventOtherCount = Arrays.copyOf(eventOtherCount, capacity);
+        }
+        int k = eventCount++;
+        setEvent(k, t, particle, other, collisionCount[particle], (other >= 0)? collisionCount[other] : 0);
+        //sift up
+        while(k > 0){
+            int parent = (k - 1) / 2;
+            if(eventTime[parent] <= eventTime[k]){ break; }
+            swapEvents(k, parent);
+            k = parent;
+        }
+    }
+
+    private void removeFirstEvent(){
+        eventCount--;
+        if(eventCount == 0){ return; }
+        setEvent(0, eventTime[eventCount], eventParticle[eventCount], eventOther[eventCount],
+                eventParticleCount[eventCount], eventOtherCount[eventCount]);
+        //sift down
+        int k = 0;
+        while(true){
+            int child = 2 * k + 1;
+            if(child >= eventCount){ break; }
+            if(child + 1 < eventCount && eventTime[child + 1] < eventTime[child]){
+                child++;
+            }
+            if(eventTime[k] <= eventTime[child]){ break; }
+            swapEvents(k, child);
+            k = child;
+        }
+    }
+
+    private void setEvent(int k, double t, int particle, int other, int particleCount, int otherCount){
+        eventTime[k] = t;
+        eventParticle[k] = particle;
+        eventOther[k] = other;
+        eventParticleCount[k] = particleCount;
+        eventOtherCount[k] = otherCount;
+    }
+
+    private void swapEvents(int a, int b){
+        double t = eventTime[a];
+        int particle = eventParticle[a];
+        int other = eventOther[a];
+        int particleCount = eventParticleCount[a];
+        int otherCount = eventOtherCount[a];
+        setEvent(a, eventTime[b], eventParticle[b], eventOther[b], eventParticleCount[b], eventOtherCount[b]);
+        setEvent(b, t, particle, other, particleCount, otherCount);
+    }
+
+
+    /* GET METHODS */
+    /**
+     * @return simulation time reached by the engine
+     */
+    public double getTime() {
+        return time;
+    }
+    /**
+     * @return number of valid events (collisions, wall bounces and cell crossings) processed so far
+     */
+    public long getEventsProcessed() {
+        return eventsProcessed;
+    }
+    /**
+     * @return particle-particle collisions handled so far
+     */
+    public long getParticleCollisions() {
+        return particleCollisions;
+    }
+    /**
+     * @return wall bounces handled so far
+     */
+    public long getWallCollisions() {
+        return wallCollisions;
+    }
+    /**
+     * @return events waiting in the queue, including stale ones
+     */
+    public int getQueuedEvents() {
+        return eventCount;
+    }
+    /**
+     * @return total kinetic energy of the particles, tracked through every collision
+     */
+    public double getKineticEnergy() {
+        return kineticEnergy;
+    }
+    /**
+     * @return momentum transferred to the walls since the last call, the accumulator starts again from 0
+     */
+    public double takeWallImpulse() {
+        double impulse = wallImpulse;
+        wallImpulse = 0;
+        return impulse;
+    }
+}
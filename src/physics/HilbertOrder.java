@@ -0,0 +1,106 @@
+package physics;
+
+import models.ParticleStore;
+
+import java.util.Arrays;
+
+/**
+ * About: Orders particles along a Hilbert curve, so that particles close in space are also close in the store.
+ * The box is divided into square cells of one particle diameter, and the curve visits every cell of a 2^k x 2^k grid
+ * once, stepping only between neighboring cells. Sorting the particles by the position of their cell along the curve keeps
+ * neighbors close in memory in both directions (sorting by row would only do so along the rows), so the collision passes
+ * find most of a particle's neighbors already in cache.
+ * As the particles move the order decays; spread measures how far it has decayed.
+ */
+public class HilbertOrder {
+    //cells per side at most, so a curve position fits in 30 bits and a sort key in a long together with the index
+    private static final int MAX_SIDE = 1 << 15;
+
+    private long[] keys = new long[0];
+    private int[] order = new int[0];
+
+    /**
+     * @param store, particle state
+     * @param xBounds, width of the box
+     * @param yBounds, height of the box
+     * @return old index of the particle for every new index (pass it to ParticleStore.permute); particles in the same cell keep their order.
+     * The array is reused by the next call
+     */
+    public int[] sort(ParticleStore store, double xBounds, double yBounds){
+        int size = store.size();
+        if(keys.length < size){
+            keys = new long[store.getCapacity()];
+            order = new int[store.getCapacity()];
+        }
+        double[] x = store.getX();
+        double[] y = store.getY();
+        double[] radius = store.getRadius();
+        double maxRadius = 0;
+        for(int i = 0; i < size; i++){
+            maxRadius = Math.max(maxRadius, radius[i]);
+        }
+        //cells of a particle diameter, fewer when the box would need more than MAX_SIDE of them
+        double cellSize = Math.max(Math.max(2 * maxRadius, 1), Math.max(xBounds, yBounds) / MAX_SIDE);
+        int columns = (int) Math.ceil(xBounds / cellSize);
+        int rows = (int) Math.ceil(yBounds / cellSize);
+        int side = Integer.highestOneBit(Math.max(1, Math.max(columns, rows) - 1)) << 1;
+
+        for(int i = 0; i < size; i++){
+            int column = Math.max(0, Math.min(side - 1, (int) (x[i] / cellSize)));
+            int row = Math.max(0, Math.min(side - 1, (int) (y[i] / cellSize)));
+            keys[i] = (curveIndex(side, column, row) << 32) | i;
+        }
+        Arrays.sort(keys, 0, size);
+        for(int k = 0; k < size; k++){
+            order[k] = (int) keys[k];
+        }
+        return order;
+    }
+
+    /**
+     * position of a cell along the Hilbert curve through a side x side grid
+     * @param side, cells per side, a power of two
+     * @param column, column of the cell
+     * @param row, row of the cell
+     * @return position along the curve, 0 to side*side-1
+     */
+    public static long curveIndex(int side, int column, int row){
+        long index = 0;
+        for(int half = side / 2; half > 0; half /= 2){
+            int right = ((column & half) != 0)? 1 : 0;
+            int lower = ((row & half) != 0)? 1 : 0;
+            index += (long) half * half * ((3 * right) ^ lower);
+            //rotate the quadrant so the curve inside it starts and ends next to its neighbors
+            if(lower == 0){
+                if(right == 1){
+                    column = half - 1 - (column & (half - 1));
+                    row = half - 1 - (row & (half - 1));
+                }
+                int swap = column;
+                column = row;
+                row = swap;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * how scattered the storage order is: the mean distance (|dx| + |dy|) between particles stored next to each other.
+     * Right after a sort it is about the distance between neighbors, for a random order about two thirds of the box size
+     * @param store, particle state
+     * @return mean distance between consecutive particles, 0 for fewer than two particles
+     */
+    public static double spread(ParticleStore store){
+        int size = store.size();
+        if(size < 2){
+            return 0;
+        }
+        double[] x = store.getX();
+        double[] y = store.getY();
+        double distance = 0;
+        for(int i = 1; i < size; i++){
+            distance += Math.abs(x[i] - x[i - 1]) + Math.abs(y[i] - y[i - 1]);
+        }
+        return distance / (size - 1);
+    }
+}
@@ -0,0 +1,114 @@
+package physics;
+
+import models.OffHeapParticleStore;
+
+/**
+ * About: Moves a range of particles by one time step and bounces them off the walls, in one pass over the raw arrays.
+ * This is the data-parallel part of a time step: every particle is handled on its own, so it can run a few particles
+ * per instruction. preferred() picks the vectorized kernel when the JVM has the Vector API (run with
+ * --add-modules jdk.incubator.vector), and the scalar kernel otherwise.
+ *
+ * Particles kept off the heap are moved the same way, reading and writing the columns of the store's segment.
+ *
+ * Both kernels give bit-identical positions and velocities, and the same largest speed ratio. The sums (wall impulse and
+ * kinetic energy) are added up in a different order, so they may differ in the last bits.
+ */
+public abstract class IntegrationKernel {
+    //system property, false forces the scalar kernel
+    public static final String VECTOR_PROPERTY = "gaslaws.vector";
+    public static final String VECTOR_MODULE = "jdk.incubator.vector";
+    //offsets of the results written to the sums array
+    public static final int WALL_IMPULSE = 0;
+    public static final int KINETIC_ENERGY = 1;
+    public static final int WALL_COLLISIONS = 2;
+    //not a sum: the largest (|v| / radius)^2 of the range, how many radii the fastest particle moves per unit of time, squared
+    public static final int MAX_SPEED_RATIO = 3;
+    public static final int SUMS = 4;
+
+    private static final IntegrationKernel SCALAR = new ScalarIntegrationKernel();
+    private static final IntegrationKernel PREFERRED = loadPreferred();
+
+    /**
+     * move particles from..to-1 by x += vx dt, then reverse the velocity component of every particle whose next step
+     * would take it through a wall, exactly like Collision.isHorizontalColliding and isVerticalColliding
+     * @param x, x positions
+     * @param y, y positions
+     * @param vx, x velocities
+     * @param vy, y velocities
+     * @param radius, particle radii
+     * @param mass, particle masses
+     * @param from, first particle
+     * @param to, one past the last particle
+     * @param dt, length of the step
+     * @param xBounds, max x value of bounds
+     * @param yBounds, max y value of bounds
+     * @param sums, receives the momentum given to the walls (2 m |v| per bounce), the kinetic energy after the step,
+     *              the number of bounces and the largest speed ratio after the step at offset, offset+1, offset+2 and offset+3
+     * @param offset, where in sums to write
+     */
+    public abstract void integrate(double[] x, double[] y, double[] vx, double[] vy, double[] radius, double[] mass,
+                                   int from, int to, double dt, double xBounds, double yBounds, double[] sums, int offset);
+
+    /**
+     * the same as integrate on the arrays, for particles kept off the heap: reads and writes the store's segment,
+     * and gives the same positions, velocities and sums as the arrays would
+     * @param store, particles, needs the Foreign Memory API
+     * @param from, first particle
+     * @param to, one past the last particle
+     * @param dt, length of the step
+     * @param xBounds, max x value of bounds
+     * @param yBounds, max y value of bounds
+     * @param sums, receives the same results as from the arrays, at offset to offset+3
+     * @param offset, where in sums to write
+     */
+    public abstract void integrate(OffHeapParticleStore store, int from, int to, double dt, double xBounds, double yBounds, double[] sums, int offset);
+
+    /**
+     * @return name shown in benchmarks and reports
+     */
+    public abstract String getName();
+
+    /**
+     * @return particles handled per instruction
+     */
+    public abstract int getLanes();
+
+    /**
+     * run the kernel on scratch particles until the JIT has compiled it, called once before the kernel is handed out
+     */
+    protected void warmUp(){
+    }
+
+    /**
+     * @return the kernel without vector instructions, always available
+     */
+    public static IntegrationKernel scalar(){
+        return SCALAR;
+    }
+
+    /**
+     * @return the vectorized kernel if the Vector API is available and has more than one lane on this CPU, the scalar one otherwise
+     */
+    public static IntegrationKernel preferred(){
+        return PREFERRED;
+    }
+
+    private static IntegrationKernel loadPreferred(){
+        if(!Boolean.parseBoolean(System.getProperty(VECTOR_PROPERTY, "true"))
+                || !ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()){
+            return SCALAR;
+        }
+        try {
+            //loaded by name, so the class (and the incubator module) is never touched when the module is missing
+            IntegrationKernel kernel = (IntegrationKernel) Class.forName("physics.VectorIntegrationKernel").getDeclaredConstructor().newInstance();
+            //one lane would only add overhead
+            if(kernel.getLanes() <= 1){
+                return SCALAR;
+            }
+            kernel.warmUp();
+            return kernel;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return SCALAR;
+        }
+    }
+}
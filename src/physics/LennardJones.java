@@ -0,0 +1,130 @@
+package physics;
+
+/**
+ * About: Lennard-Jones pair potential, u(r) = 4 epsilon ((sigma/r)^12 - (sigma/r)^6), cut off and shifted so u(cutoff) = 0.
+ * The steep r^-12 wall gives the particles their size (the b of the Van der Waals equation), the r^-6 tail
+ * pulls them together (the a). Everything is computed from the squared distance, so no square root on the hot path.
+ *
+ * Randomly placed particles can start almost on top of each other, where r^-12 is large enough to blow the integration up.
+ * Below 0.8 sigma the force is held at its value there (and the potential continues linearly), which keeps such starts
+ * stable and the energy consistent, and never matters for particles that approach each other normally.
+ */
+public class LennardJones {
+    //cutoff in units of sigma, the attraction is ~1.6% of its depth there
+    public static final double DEFAULT_CUTOFF = 2.5;
+    private static final double CORE = 0.8;
+
+    private final double sigma;
+    private final double epsilon;
+    private final double cutoff;
+    private final double sigmaSquared;
+    private final double cutoffSquared;
+    private final double coreSquared;
+    //potential at the cutoff, subtracted so the energy is continuous
+    private final double shift;
+    //force at the core distance, and the potential there
+    private final double coreForce;
+    private final double corePotential;
+
+    /**
+     * @param sigma, distance at which the potential crosses zero (about the particle diameter)
+     * @param epsilon, depth of the potential well
+     */
+    public LennardJones(double sigma, double epsilon){
+        this(sigma, epsilon, DEFAULT_CUTOFF * sigma);
+    }
+
+    /**
+     * @param sigma, distance at which the potential crosses zero (about the particle diameter)
+     * @param epsilon, depth of the potential well
+     * @param cutoff, distance beyond which pairs do not interact
+     */
+    public LennardJones(double sigma, double epsilon, double cutoff){
+        this.sigma = sigma;
+        this.epsilon = epsilon;
+        this.cutoff = cutoff;
+        this.sigmaSquared = sigma * sigma;
+        this.cutoffSquared = cutoff * cutoff;
+        this.coreSquared = CORE * CORE * sigmaSquared;
+        this.shift = unshiftedPotential(cutoffSquared);
+        double core = CORE * sigma;
+        this.coreForce = forceOverDistance(coreSquared) * core;
+        this.corePotential = unshiftedPotential(coreSquared) - shift;
+    }
+
+    /**
+     * Potential whose 2D Van der Waals constants are a and b (second virial coefficient of hard disks plus an attractive tail):
+     * b = pi sigma^2 / 2 is half the area a particle excludes, a = 0.6 pi epsilon sigma^2 is the integral of the attraction
+     * beyond sigma. Units are whatever a and b are given in, per particle and with k = 1
+     * @param a, attraction constant (energy x area)
+     * @param b, excluded area per particle
+     * @return the matching potential with the default cutoff
+     */
+    public static LennardJones fromVanDerWaals(double a, double b){
+        double sigma = Math.sqrt(2 * b / Math.PI);
+        double epsilon = a / (0.6 * Math.PI * sigma * sigma);
+        return new LennardJones(sigma, epsilon);
+    }
+
+    /**
+     * magnitude of the pair force divided by the distance, so the force on particle 1 is (x1 - x2) * forceOverDistance
+     * (positive pushes the pair apart)
+     * @param distanceSquared, squared distance between the centers
+     * @return 0 beyond the cutoff
+     */
+    public double forceOverDistance(double distanceSquared){
+        if(distanceSquared >= cutoffSquared){
+            return 0;
+        }
+        if(distanceSquared < coreSquared){
+            return (distanceSquared > 0)? coreForce / Math.sqrt(distanceSquared) : 0;
+        }
+        double s2 = sigmaSquared / distanceSquared;
+        double s6 = s2 * s2 * s2;
+        return 24 * epsilon * s6 * (2 * s6 - 1) / distanceSquared;
+    }
+
+    /**
+     * @param distanceSquared, squared distance between the centers
+     * @return pair potential energy, 0 beyond the cutoff
+     */
+    public double potential(double distanceSquared){
+        if(distanceSquared >= cutoffSquared){
+            return 0;
+        }
+        if(distanceSquared < coreSquared){
+            return corePotential + coreForce * (CORE * sigma - Math.sqrt(distanceSquared));
+        }
+        return unshiftedPotential(distanceSquared) - shift;
+    }
+
+    private double unshiftedPotential(double distanceSquared){
+        double s2 = sigmaSquared / distanceSquared;
+        double s6 = s2 * s2 * s2;
+        return 4 * epsilon * s6 * (s6 - 1);
+    }
+
+
+    /* GET METHODS */
+    public double getSigma() {
+        return sigma;
+    }
+    public double getEpsilon() {
+        return epsilon;
+    }
+    public double getCutoff() {
+        return cutoff;
+    }
+    /**
+     * @return 2D Van der Waals attraction constant of this potential, a = 0.6 pi epsilon sigma^2
+     */
+    public double getA() {
+        return 0.6 * Math.PI * epsilon * sigmaSquared;
+    }
+    /**
+     * @return 2D Van der Waals excluded area of this potential, b = pi sigma^2 / 2
+     */
+    public double getB() {
+        return Math.PI * sigmaSquared / 2;
+    }
+}
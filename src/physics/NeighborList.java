@@ -0,0 +1,213 @@
+package physics;
+
+import models.ParticleStore;
+
+import java.util.Arrays;
+
+/**
+ * About: Verlet neighbor list. Every pair closer than the interaction range plus a skin is listed once, in compressed rows:
+ * the neighbors of particle i are neighbors[neighborStart[i]] .. neighbors[neighborStart[i + 1] - 1], in increasing order and all
+ * with a higher index than i.
+ * As long as no particle has moved more than half the skin since the list was built, no pair that was outside range + skin
+ * can have come within range, so the same list is reused step after step and only rebuilt (from the spatial grid)
+ * once some particle has moved further than that.
+ */
+public class NeighborList {
+    //skin used when none is given, as a fraction of the range
+    public static final double DEFAULT_SKIN_FRACTION = 0.25;
+
+    private final SpatialGrid spatialGrid = new SpatialGrid();
+
+    private int size;
+    //range and skin as requested, and as used for the current list
+    private double range;
+    private double skin;
+    private double listRange;
+    private double listSkin;
+    private boolean valid;
+    //positions when the list was built
+    private double[] referenceX = new double[0];
+    private double[] referenceY = new double[0];
+    //compressed rows, see class comment
+    private int[] neighborStart = new int[1];
+    private int[] neighbors = new int[0];
+    private int pairs;
+    private long rebuilds;
+
+    //scratch pair buffer filled from the grid before the pairs are sorted into rows
+    private int[] pairFirst = new int[0];
+    private int[] pairSecond = new int[0];
+    private double listRangeSquared;
+    private final SpatialGrid.PairVisitor pairCollector;
+    private double[] collectX;
+    private double[] collectY;
+
+    public NeighborList(){
+        this.pairCollector = (i, j) -> {
+            double dx = collectX[i] - collectX[j];
+            double dy = collectY[i] - collectY[j];
+            if(dx*dx + dy*dy < listRangeSquared){
+                if(pairs == pairFirst.length){
+                    int capacity = Math.max(1024, pairs * 2);
+                    pairFirst = Arrays.copyOf(pairFirst, capacity);
+                    pairSecond = Arrays.copyOf(pairSecond, capacity);
+                }
+                pairFirst[pairs] = Math.min(i, j);
+                pairSecond[pairs] = Math.max(i, j);
+                pairs++;
+            }
+        };
+    }
+
+    /**
+     * make sure the list holds every pair within range, rebuilding it only if a particle moved more than half the skin
+     * @param store, particles
+     * @param xBounds, max x value of bounds
+     * @param yBounds, max y value of bounds
+     * @param range, largest center distance at which a pair interacts, at least two max radii are always listed
+     * @param skin, extra distance listed beyond the range, negative for DEFAULT_SKIN_FRACTION of the range
+     * @return true if the list was rebuilt
+     */
+    public boolean update(ParticleStore store, double xBounds, double yBounds, double range, double skin){
+        if(valid && store.size() == size && range == this.range && skin == this.skin && !movedTooFar(store)){
+            return false;
+        }
+        build(store, xBounds, yBounds, range, skin);
+        return true;
+    }
+
+    /**
+     * force a rebuild on the next update, e.g. after particles were reordered
+     */
+    public void invalidate(){
+        this.valid = false;
+    }
+
+    private boolean movedTooFar(ParticleStore store){
+        double[] x = store.getX();
+        double[] y = store.getY();
+        double limit = 0.25 * listSkin * listSkin;
+        for(int i = 0; i < size; i++){
+            double dx = x[i] - referenceX[i];
+            double dy = y[i] - referenceY[i];
+            if(dx*dx + dy*dy > limit){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void build(ParticleStore store, double xBounds, double yBounds, double range, double skin){
+        this.size = store.size();
+        this.range = range;
+        this.skin = skin;
+        double[] x = store.getX();
+        double[] y = store.getY();
+        double[] radius = store.getRadius();
+        double maxRadius = 0;
+        for(int i = 0; i < size; i++){
+            maxRadius = Math.max(maxRadius, radius[i]);
+        }
+        this.listRange = Math.max(range, 2 * maxRadius);
+        this.listSkin = (skin < 0)? DEFAULT_SKIN_FRACTION * listRange : skin;
+        if(referenceX.length < size){
+            referenceX = new double[store.getCapacity()];
+            referenceY = new double[store.getCapacity()];
+        }
+        System.arraycopy(x, 0, referenceX, 0, size);
+        System.arraycopy(y, 0, referenceY, 0, size);
+
+        //collect every pair within range + skin from the grid
+        this.listRangeSquared = (listRange + listSkin) * (listRange + listSkin);
+        this.collectX = x;
+        this.collectY = y;
+        this.pairs = 0;
+        spatialGrid.rebuild(store, xBounds, yBounds, listRange + listSkin);
+        spatialGrid.forEachPair(pairCollector);
+
+        //counting sort the pairs into rows by their lower index
+        if(neighborStart.length < size + 1){
+            neighborStart = new int[store.getCapacity() + 1];
+        }
+        if(neighbors.length < pairs){
+            neighbors = new int[pairFirst.length];
+        }
+        Arrays.fill(neighborStart, 0, size + 1, 0);
+        for(int k = 0; k < pairs; k++){
+            neighborStart[pairFirst[k] + 1]++;
+        }
+        for(int i = 0; i < size; i++){
+            neighborStart[i + 1] += neighborStart[i];
+        }
+        for(int k = 0; k < pairs; k++){
+            neighbors[neighborStart[pairFirst[k]]++] = pairSecond[k];
+        }
+        //the scatter shifted every row start to the next row's, shift back
+        for(int i = size; i > 0; i--){
+            neighborStart[i] = neighborStart[i - 1];
+        }
+        neighborStart[0] = 0;
+        //sort every row, so the visiting order depends only on which pairs are in range and not on when the list was
+        //built (a run resumed from a checkpoint then resolves its pairs in exactly the same order). Rows are short
+        for(int i = 0; i < size; i++){
+            for(int k = neighborStart[i] + 1; k < neighborStart[i + 1]; k++){
+                int neighbor = neighbors[k];
+                int l = k - 1;
+                while(l >= neighborStart[i] && neighbors[l] > neighbor){
+                    neighbors[l + 1] = neighbors[l];
+                    l--;
+                }
+                neighbors[l + 1] = neighbor;
+            }
+        }
+
+        this.valid = true;
+        this.rebuilds++;
+    }
+
+    /**
+     * visit every listed pair once, in order of the lower index
+     * @param visitor, receives the pairs
+     */
+    public void forEachPair(SpatialGrid.PairVisitor visitor){
+        for(int i = 0; i < size; i++){
+            for(int k = neighborStart[i]; k < neighborStart[i + 1]; k++){
+                visitor.visit(i, neighbors[k]);
+            }
+        }
+    }
+
+
+    /* GET METHODS */
+    //the rows are handed out directly so hot loops can index them, only the first getSize() + 1 starts are meaningful
+    public int[] getNeighborStart() {
+        return neighborStart;
+    }
+    public int[] getNeighbors() {
+        return neighbors;
+    }
+    /**
+     * @return number of particles the list was built for
+     */
+    public int getSize() {
+        return size;
+    }
+    /**
+     * @return number of listed pairs
+     */
+    public int getPairs() {
+        return pairs;
+    }
+    /**
+     * @return number of times the list was built
+     */
+    public long getRebuilds() {
+        return rebuilds;
+    }
+    /**
+     * @return skin of the current list
+     */
+    public double getSkin() {
+        return listSkin;
+    }
+}
@@ -0,0 +1,289 @@
+package physics;
+
+import java.nio.ByteBuffer;
+
+/**
+ * About: Streaming thermodynamic observables of a 2D gas.
+ * The engines hand over what they already know at the end of each step (the momentum the walls absorbed and the kinetic energy
+ * summed while integrating), so pressure, temperature and energy never need a separate pass over the particles.
+ * Every quantity is kept as the latest step, a moving window over the last steps, and an exponential moving average,
+ * all updated in constant time per step.
+ *
+ * Units are simulation units with k = 1: pressure is force per unit wall length (2D), temperature comes from
+ * equipartition over two degrees of freedom (kinetic energy = N k T).
+ */
+public class Observables {
+    public static final int DEFAULT_WINDOW = 240;
+    public static final double DEFAULT_TIME_CONSTANT = 60;
+
+    //ring buffer of the last steps, with running sums over it
+    private int window;
+    private double[] windowTime;
+    private double[] windowImpulse;
+    private double[] windowKineticEnergy;
+    private double[] windowEnergy;
+    private int windowStart;
+    private int windowSize;
+    private double sumTime;
+    private double sumImpulse;
+    private double sumKineticEnergy;
+    private double sumEnergy;
+
+    //exponential moving averages, time constant in simulation time
+    private double timeConstant;
+    private double emaPressure;
+    private double emaTemperature;
+    private double emaEnergy;
+
+    //latest step
+    private long steps;
+    private double time;
+    private double pressure;
+    private double temperature;
+    private double kineticEnergy;
+    private double potentialEnergy;
+    private int particles;
+    private double perimeter;
+
+    public Observables(){
+        this(DEFAULT_WINDOW, DEFAULT_TIME_CONSTANT);
+    }
+
+    /**
+     * @param window, number of steps the windowed averages cover
+     * @param timeConstant, simulation time over which the exponential averages forget old values
+     */
+    public Observables(int window, double timeConstant){
+        this.window = Math.max(1, window);
+        this.timeConstant = timeConstant;
+        this.windowTime = new double[this.window];
+        this.windowImpulse = new double[this.window];
+        this.windowKineticEnergy = new double[this.window];
+        this.windowEnergy = new double[this.window];
+    }
+
+    /**
+     * forget all history, e.g. after the particles were re-initialized
+     */
+    public void reset(){
+        windowStart = 0;
+        windowSize = 0;
+        sumTime = sumImpulse = sumKineticEnergy = sumEnergy = 0;
+        emaPressure = emaTemperature = emaEnergy = 0;
+        steps = 0;
+        time = 0;
+        pressure = temperature = kineticEnergy = potentialEnergy = 0;
+    }
+
+    /**
+     * add one step
+     * @param dt, simulation time the step covered
+     * @param wallImpulse, total momentum transferred to the walls during the step
+     * @param kineticEnergy, kinetic energy of the particles at the end of the step
+     * @param potentialEnergy, potential energy of the particles at the end of the step (0 for an ideal gas)
+     * @param particles, number of particles
+     * @param xBounds, max x value of bounds
+     * @param yBounds, max y value of bounds
+     */
+    public void record(double dt, double wallImpulse, double kineticEnergy, double potentialEnergy, int particles, double xBounds, double yBounds){
+        if(dt <= 0){
+            return;
+        }
+        double energy = kineticEnergy + potentialEnergy;
+        this.perimeter = 2 * (xBounds + yBounds);
+        this.particles = particles;
+        this.kineticEnergy = kineticEnergy;
+        this.potentialEnergy = potentialEnergy;
+        this.pressure = wallImpulse / (dt * perimeter);
+        this.temperature = (particles > 0)? kineticEnergy / particles : 0;
+        this.steps++;
+        this.time += dt;
+
+        //slide the window: drop the oldest step once full, then add this one
+        int slot;
+        if(windowSize == window){
+            slot = windowStart;
+            windowStart = (windowStart + 1) % window;
+            sumTime -= windowTime[slot];
+            sumImpulse -= windowImpulse[slot];
+            sumKineticEnergy -= windowKineticEnergy[slot];
+            sumEnergy -= windowEnergy[slot];
+        } else {
+            slot = (windowStart + windowSize) % window;
+            windowSize++;
+        }
+        windowTime[slot] = dt;
+        windowImpulse[slot] = wallImpulse;
+        windowKineticEnergy[slot] = kineticEnergy * dt;
+        windowEnergy[slot] = energy * dt;
+        sumTime += dt;
+        sumImpulse += wallImpulse;
+        sumKineticEnergy += kineticEnergy * dt;
+        sumEnergy += energy * dt;
+        //adding and subtracting accumulates rounding, sum afresh once per trip around the ring (O(1) amortized)
+        if(slot == window - 1){
+            resum();
+        }
+
+        //exponential averages weighted by the time each step covered
+        if(steps == 1){
+            emaPressure = pressure;
+            emaTemperature = temperature;
+            emaEnergy = energy;
+        } else {
+            double alpha = (timeConstant > 0)? 1 - Math.exp(-dt / timeConstant) : 1;
+            emaPressure += alpha * (pressure - emaPressure);
+            emaTemperature += alpha * (temperature - emaTemperature);
+            emaEnergy += alpha * (energy - emaEnergy);
+        }
+    }
+
+    private void resum(){
+        sumTime = sumImpulse = sumKineticEnergy = sumEnergy = 0;
+        for(int k = 0; k < windowSize; k++){
+            int slot = (windowStart + k) % window;
+            sumTime += windowTime[slot];
+            sumImpulse += windowImpulse[slot];
+            sumKineticEnergy += windowKineticEnergy[slot];
+            sumEnergy += windowEnergy[slot];
+        }
+    }
+
+
+    /* STATE METHODS */
+    /**
+     * @return bytes writeState needs
+     */
+    public int getStateSize(){
+        return 3 * 4 + 4 * window * 8 + 4 * 8 + 4 * 8 + 8 + 6 * 8 + 4;
+    }
+    /**
+     * write the full history (window, averages and latest step) so readState continues exactly where this left off
+     * @param buffer, receives getStateSize() bytes
+     */
+    public void writeState(ByteBuffer buffer){
+        buffer.putInt(window);
+        buffer.putInt(windowStart);
+        buffer.putInt(windowSize);
+        buffer.asDoubleBuffer().put(windowTime).put(windowImpulse).put(windowKineticEnergy).put(windowEnergy);
+        buffer.position(buffer.position() + 4 * window * 8);
+        buffer.putDouble(sumTime).putDouble(sumImpulse).putDouble(sumKineticEnergy).putDouble(sumEnergy);
+        buffer.putDouble(timeConstant).putDouble(emaPressure).putDouble(emaTemperature).putDouble(emaEnergy);
+        buffer.putLong(steps);
+        buffer.putDouble(time).putDouble(pressure).putDouble(temperature);
+        buffer.putDouble(kineticEnergy).putDouble(potentialEnergy).putDouble(perimeter);
+        buffer.putInt(particles);
+    }
+    /**
+     * restore what writeState wrote
+     * @param buffer, positioned at the state
+     */
+    public void readState(ByteBuffer buffer){
+        setWindow(buffer.getInt());
+        windowStart = buffer.getInt();
+        windowSize = buffer.getInt();
+        buffer.asDoubleBuffer().get(windowTime).get(windowImpulse).get(windowKineticEnergy).get(windowEnergy);
+        buffer.position(buffer.position() + 4 * window * 8);
+        sumTime = buffer.getDouble();
+        sumImpulse = buffer.getDouble();
+        sumKineticEnergy = buffer.getDouble();
+        sumEnergy = buffer.getDouble();
+        timeConstant = buffer.getDouble();
+        emaPressure = buffer.getDouble();
+        emaTemperature = buffer.getDouble();
+        emaEnergy = buffer.getDouble();
+        steps = buffer.getLong();
+        time = buffer.getDouble();
+        pressure = buffer.getDouble();
+        temperature = buffer.getDouble();
+        kineticEnergy = buffer.getDouble();
+        potentialEnergy = buffer.getDouble();
+        perimeter = buffer.getDouble();
+        particles = buffer.getInt();
+    }
+
+
+    /* UPDATE METHODS */
+    /**
+     * @param window, number of steps the windowed averages cover, the history is cleared
+     */
+    public void setWindow(int window){
+        this.window = Math.max(1, window);
+        this.windowTime = new double[this.window];
+        this.windowImpulse = new double[this.window];
+        this.windowKineticEnergy = new double[this.window];
+        this.windowEnergy = new double[this.window];
+        windowStart = 0;
+        windowSize = 0;
+        sumTime = sumImpulse = sumKineticEnergy = sumEnergy = 0;
+    }
+    /**
+     * @param timeConstant, simulation time over which the exponential averages forget old values
+     */
+    public void setTimeConstant(double timeConstant){
+        this.timeConstant = timeConstant;
+    }
+
+
+    /* GET METHODS */
+    /**
+     * @return pressure of the latest step, very noisy since only a few particles hit a wall in one step
+     */
+    public double getPressure() {
+        return pressure;
+    }
+    /**
+     * @return total wall impulse over the window divided by the window's time and the wall length
+     */
+    public double getWindowPressure() {
+        return (sumTime > 0 && perimeter > 0)? sumImpulse / (sumTime * perimeter) : 0;
+    }
+    public double getAveragePressure() {
+        return emaPressure;
+    }
+    public double getTemperature() {
+        return temperature;
+    }
+    public double getWindowTemperature() {
+        return (sumTime > 0 && particles > 0)? sumKineticEnergy / sumTime / particles : 0;
+    }
+    public double getAverageTemperature() {
+        return emaTemperature;
+    }
+    public double getKineticEnergy() {
+        return kineticEnergy;
+    }
+    public double getPotentialEnergy() {
+        return potentialEnergy;
+    }
+    /**
+     * @return kinetic plus potential energy of the latest step
+     */
+    public double getEnergy() {
+        return kineticEnergy + potentialEnergy;
+    }
+    public double getWindowEnergy() {
+        return (sumTime > 0)? sumEnergy / sumTime : 0;
+    }
+    public double getAverageEnergy() {
+        return emaEnergy;
+    }
+    /**
+     * @return steps recorded since the last reset
+     */
+    public long getSteps() {
+        return steps;
+    }
+    /**
+     * @return simulation time recorded since the last reset
+     */
+    public double getTime() {
+        return time;
+    }
+    public int getWindow() {
+        return window;
+    }
+    public double getTimeConstant() {
+        return timeConstant;
+    }
+}
@@ -0,0 +1,110 @@
+package physics;
+
+import jdk.incubator.foreign.MemorySegment;
+import models.OffHeapParticleStore;
+
+import static java.lang.Math.abs;
+import static jdk.incubator.foreign.MemoryAccess.getDoubleAtIndex;
+import static jdk.incubator.foreign.MemoryAccess.setDoubleAtIndex;
+
+/**
+ * About: One particle at a time, the same arithmetic in the same order as the original step loop.
+ */
+public class ScalarIntegrationKernel extends IntegrationKernel {
+
+    @Override
+    public void integrate(double[] x, double[] y, double[] vx, double[] vy, double[] radius, double[] mass,
+                          int from, int to, double dt, double xBounds, double yBounds, double[] sums, int offset) {
+        double wallImpulse = 0;
+        double kineticEnergy = 0;
+        long wallCollisions = 0;
+        double maxSpeedRatio = 0;
+        for(int i = from; i < to; i++){
+            //update particle position
+            x[i] += vx[i] * dt;
+            y[i] += vy[i] * dt;
+
+            //detect bounds collisions
+            double impulse = 0;
+            if(Collision.isHorizontalColliding(x[i], vx[i], radius[i], xBounds, dt)){
+                impulse += 2 * mass[i] * abs(vx[i]);
+                vx[i] *= -1;
+                wallCollisions++;
+            }
+            if(Collision.isVerticalColliding(y[i], vy[i], radius[i], yBounds, dt)){
+                impulse += 2 * mass[i] * abs(vy[i]);
+                vy[i] *= -1;
+                wallCollisions++;
+            }
+            wallImpulse += impulse;
+
+            //collisions are done for this step, so the speed is final
+            double speedSquared = vx[i]*vx[i] + vy[i]*vy[i];
+            kineticEnergy += 0.5 * mass[i] * speedSquared;
+            maxSpeedRatio = Math.max(maxSpeedRatio, speedSquared / (radius[i] * radius[i]));
+        }
+        sums[offset + WALL_IMPULSE] = wallImpulse;
+        sums[offset + KINETIC_ENERGY] = kineticEnergy;
+        sums[offset + WALL_COLLISIONS] = wallCollisions;
+        sums[offset + MAX_SPEED_RATIO] = maxSpeedRatio;
+    }
+
+    @Override
+    public void integrate(OffHeapParticleStore store, int from, int to, double dt, double xBounds, double yBounds, double[] sums, int offset) {
+        MemorySegment x = store.getColumn(OffHeapParticleStore.X);
+        MemorySegment y = store.getColumn(OffHeapParticleStore.Y);
+        MemorySegment vx = store.getColumn(OffHeapParticleStore.X_VELOCITY);
+        MemorySegment vy = store.getColumn(OffHeapParticleStore.Y_VELOCITY);
+        MemorySegment radius = store.getColumn(OffHeapParticleStore.RADIUS);
+        MemorySegment mass = store.getColumn(OffHeapParticleStore.MASS);
+        double wallImpulse = 0;
+        double kineticEnergy = 0;
+        long wallCollisions = 0;
+        double maxSpeedRatio = 0;
+        for(int i = from; i < to; i++){
+            double pvx = getDoubleAtIndex(vx, i);
+            double pvy = getDoubleAtIndex(vy, i);
+            double r = getDoubleAtIndex(radius, i);
+            double m = getDoubleAtIndex(mass, i);
+            //update particle position
+            double px = getDoubleAtIndex(x, i) + pvx * dt;
+            double py = getDoubleAtIndex(y, i) + pvy * dt;
+            setDoubleAtIndex(x, i, px);
+            setDoubleAtIndex(y, i, py);
+
+            //detect bounds collisions
+            double impulse = 0;
+            if(Collision.isHorizontalColliding(px, pvx, r, xBounds, dt)){
+                impulse += 2 * m * abs(pvx);
+                pvx *= -1;
+                setDoubleAtIndex(vx, i, pvx);
+                wallCollisions++;
+            }
+            if(Collision.isVerticalColliding(py, pvy, r, yBounds, dt)){
+                impulse += 2 * m * abs(pvy);
+                pvy *= -1;
+                setDoubleAtIndex(vy, i, pvy);
+                wallCollisions++;
+            }
+            wallImpulse += impulse;
+
+            double speedSquared = pvx*pvx + pvy*pvy;
+            kineticEnergy += 0.5 * m * speedSquared;
+            maxSpeedRatio = Math.max(maxSpeedRatio, speedSquared / (r * r));
+        }
+        sums[offset + WALL_IMPULSE] = wallImpulse;
+        sums[offset + KINETIC_ENERGY] = kineticEnergy;
+        sums[offset + WALL_COLLISIONS] = wallCollisions;
+        sums[offset + MAX_SPEED_RATIO] = maxSpeedRatio;
+    }
+
+    @Override
+    public String getName() {
+        return "scalar";
+    }
+
+    @Override
+    public int getLanes() {
+        return 1;
+    }
+}
@@ -0,0 +1,320 @@
+package physics;
+
+import jdk.incubator.foreign.MemorySegment;
+import models.OffHeapParticleStore;
+import models.ParticleStore;
+
+import java.util.Arrays;
+
+import static jdk.incubator.foreign.MemoryAccess.getDoubleAtIndex;
+
+/**
+ * About: Uniform grid (cell list) broad phase for particle-particle collisions.
+ * Particles are bucketed into cells at least as wide as the largest collision distance,
+ * so every colliding pair shares a cell or sits in two adjacent cells.
+ */
+public class SpatialGrid {
+    private static final int MAX_CELLS_PER_PARTICLE = 4;
+
+    private int columns;
+    private int rows;
+    //left edge of the gridded part of the box, 0 unless only a slab was gridded
+    private double xMin;
+    private double cellWidth;
+    private double cellHeight;
+
+    //particle index -> cell index
+    private int[] particleCells = new int[0];
+    //cellStart[c]..cellStart[c+1] is the slice of sortedParticles that lives in cell c
+    private int[] cellStart = new int[1];
+    private int[] sortedParticles = new int[0];
+    //particles inserted since the last rebuild: first of each cell, and the next in the same cell, -1 ends a chain
+    private int[] insertedHead = new int[0];
+    private int[] insertedNext = new int[0];
+    //insertedHead is cleared for the current cells
+    private boolean insertedReady;
+
+    /**
+     * Receives each candidate pair produced by the broad phase
+     */
+    public interface PairVisitor {
+        void visit(int particle1, int particle2);
+    }
+
+    /**
+     * Receives the particles near a point
+     */
+    public interface NeighborVisitor {
+        /**
+         * @param particle, store index of a particle in the cell of the point or a cell next to it
+         * @return true to go on, false to stop at this particle
+         */
+        boolean visit(int particle);
+    }
+
+    /**
+     * Rebuild the grid from the current particle positions (counting sort, no per-step allocation once sized)
+     * @param store, particles to bucket, store indices are reported to the visitor
+     * @param xBounds, max x value of bounds
+     * @param yBounds, max y value of bounds
+     */
+    public void rebuild(ParticleStore store, double xBounds, double yBounds){
+        rebuild(store, xBounds, yBounds, 0);
+    }
+
+    /**
+     * Rebuild the grid for pairs that interact up to the given distance, e.g. a force cutoff longer than the particles are wide
+     * @param store, particles to bucket, store indices are reported to the visitor
+     * @param xBounds, max x value of bounds
+     * @param yBounds, max y value of bounds
+     * @param range, largest center distance at which a pair must be visited (cells are at least this wide)
+     */
+    public void rebuild(ParticleStore store, double xBounds, double yBounds, double range){
+        rebuild(store, 0, xBounds, yBounds, range);
+    }
+
+    /**
+     * Rebuild the grid over the vertical slab xMin..xMax of the box only, e.g. the part a worker process owns.
+     * Particles outside the slab are clamped into its border cells
+     * @param store, particles to bucket, store indices are reported to the visitor
+     * @param xMin, left edge of the slab
+     * @param xMax, right edge of the slab
+     * @param yBounds, max y value of bounds
+     * @param range, largest center distance at which a pair must be visited (cells are at least this wide)
+     */
+    public void rebuild(ParticleStore store, double xMin, double xMax, double yBounds, double range){
+        build(store, store.size(), xMin, xMax, yBounds, range);
+    }
+
+    /**
+     * Rebuild the grid from the first count particles of the store only, e.g. the ones already placed while more are
+     * being added. The cells are sized for all store.size() particles, so the rest can be insert()ed as they are placed
+     * @param store, particles to bucket, store indices are reported to the visitor
+     * @param count, number of particles, from index 0, to bucket now
+     * @param xBounds, max x value of bounds
+     * @param yBounds, max y value of bounds
+     * @param range, largest center distance at which a pair must be visited (cells are at least this wide)
+     */
+    public void rebuildFirst(ParticleStore store, int count, double xBounds, double yBounds, double range){
+        build(store, count, 0, xBounds, yBounds, range);
+    }
+
+    /**
+     * Rebuild the grid from the positions of particles kept off the heap, read straight from the store's segment.
+     * Buckets the particles exactly as rebuild(ParticleStore...) does for the same positions
+     * @param store, particles to bucket, store indices are reported to the visitor
+     * @param xBounds, max x value of bounds
+     * @param yBounds, max y value of bounds
+     * @param range, largest center distance at which a pair must be visited (cells are at least this wide)
+     */
+    public void rebuild(OffHeapParticleStore store, double xBounds, double yBounds, double range){
+        int size = store.size();
+        MemorySegment x = store.getColumn(OffHeapParticleStore.X);
+        MemorySegment y = store.getColumn(OffHeapParticleStore.Y);
+        MemorySegment radius = store.getColumn(OffHeapParticleStore.RADIUS);
+        double maxRadius = 0;
+        for(int i = 0; i < size; i++){
+            maxRadius = Math.max(maxRadius, getDoubleAtIndex(radius, i));
+        }
+        layout(size, size, maxRadius, 0, xBounds, yBounds, range);
+        //count particles per cell
+        for(int i = 0; i < size; i++){
+            int cell = cellIndex(getDoubleAtIndex(x, i), getDoubleAtIndex(y, i));
+            particleCells[i] = cell;
+            cellStart[cell + 1]++;
+        }
+        sortIntoCells(size);
+    }
+
+    private void build(ParticleStore store, int count, double xMin, double xMax, double yBounds, double range){
+        int size = count;
+        double[] x = store.getX();
+        double[] y = store.getY();
+        double[] radius = store.getRadius();
+        double maxRadius = 0;
+        for(int i = 0; i < size; i++){
+            maxRadius = Math.max(maxRadius, radius[i]);
+        }
+        layout(size, store.size(), maxRadius, xMin, xMax, yBounds, range);
+        //count particles per cell
+        for(int i = 0; i < size; i++){
+            int cell = cellIndex(x[i], y[i]);
+            particleCells[i] = cell;
+            cellStart[cell + 1]++;
+        }
+        sortIntoCells(size);
+    }
+
+    /**
+     * size the cells and the arrays for the particles about to be bucketed, and clear the cell counts
+     * @param size, particles bucketed now
+     * @param storeSize, particles in the store, the grid is capped at a few cells per particle of those
+     * @param maxRadius, largest radius among the particles
+     */
+    private void layout(int size, int storeSize, double maxRadius, double xMin, double xMax, double yBounds, double range){
+        double xBounds = xMax - xMin;
+        this.xMin = xMin;
+        this.insertedReady = false;
+        //cell size is tied to the largest collision distance (two max radii)
+        double cellSize = Math.max(Math.max(2 * maxRadius, range), 1);
+        //in a dilute box most cells would be empty, so cap the grid at a few cells per particle
+        //(keeps the cell arrays and the empty-cell scan bounded by the particle count, not the box area)
+        cellSize = Math.max(cellSize, Math.sqrt(xBounds * yBounds / (MAX_CELLS_PER_PARTICLE * (double) Math.max(storeSize, 256))));
+        this.columns = Math.max(1, (int) (xBounds / cellSize));
+        this.rows = Math.max(1, (int) (yBounds / cellSize));
+        this.cellWidth = Math.max(xBounds / columns, cellSize);
+        this.cellHeight = Math.max(yBounds / rows, cellSize);
+
+        int cells = columns * rows;
+        if(cellStart.length < cells + 1){
+            cellStart = new int[cells + 1];
+        }
+        if(particleCells.length < size){
+            particleCells = new int[size];
+            sortedParticles = new int[size];
+        }
+        Arrays.fill(cellStart, 0, cells + 1, 0);
+    }
+
+    /**
+     * counting sort of the particles into their cells, once cellStart[c + 1] holds the count of cell c
+     * @param size, particles bucketed
+     */
+    private void sortIntoCells(int size){
+        int cells = columns * rows;
+        //prefix sum gives the start offset of each cell
+        for(int c = 0; c < cells; c++){
+            cellStart[c + 1] += cellStart[c];
+        }
+        //scatter particle indices into their cell slices (cellStart is shifted by one while filling)
+        for(int i = 0; i < size; i++){
+            sortedParticles[cellStart[particleCells[i]]++] = i;
+        }
+        for(int c = cells; c > 0; c--){
+            cellStart[c] = cellStart[c - 1];
+        }
+        cellStart[0] = 0;
+    }
+
+    /**
+     * Visit every pair of particles in the same or adjacent cells exactly once.
+     * Only half of the neighbourhood (right, and the three cells below) is scanned per cell,
+     * so a pair is never reported twice and a particle is never paired with itself.
+     * @param visitor, receives the candidate pairs
+     */
+    public void forEachPair(PairVisitor visitor){
+        for(int cell = 0; cell < columns * rows; cell++){
+            forEachPairInCell(cell, visitor);
+        }
+    }
+
+    /**
+     * Visit the pairs owned by one cell: pairs inside the cell, and pairs with the forward half of its neighbours.
+     * The pairs only touch particles in the cell's column and the columns either side of it, in the cell's row and the row below,
+     * so cells at least 3 columns or 2 rows apart can be processed at the same time.
+     * @param cell, index of the cell (row * columns + column)
+     * @param visitor, receives the candidate pairs
+     */
+    public void forEachPairInCell(int cell, PairVisitor visitor){
+        int cx = cell % columns;
+        int cy = cell / columns;
+        int start = cellStart[cell];
+        int end = cellStart[cell + 1];
+        for(int a = start; a < end; a++){
+            int particle = sortedParticles[a];
+            //pairs inside the same cell
+            for(int b = a + 1; b < end; b++){
+                visitor.visit(particle, sortedParticles[b]);
+            }
+            //pairs with the forward half of the neighbouring cells
+            visitCell(visitor, particle, cx + 1, cy);
+            visitCell(visitor, particle, cx - 1, cy + 1);
+            visitCell(visitor, particle, cx, cy + 1);
+            visitCell(visitor, particle, cx + 1, cy + 1);
+        }
+    }
+
+    private void visitCell(PairVisitor visitor, int particle, int cx, int cy){
+        if(cx < 0 || cx >= columns || cy >= rows){
+            return;
+        }
+        int cell = cy * columns + cx;
+        for(int b = cellStart[cell]; b < cellStart[cell + 1]; b++){
+            visitor.visit(particle, sortedParticles[b]);
+        }
+    }
+
+    /**
+     * Add one particle to the grid without rebuilding it, in constant time. Inserted particles are seen by
+     * forEachNeighbor (not by the pair visits) until the next rebuild
+     * @param particle, store index of the particle, below the store size the grid was built for
+     * @param x, x position of the particle
+     * @param y, y position of the particle
+     */
+    public void insert(int particle, double x, double y){
+        int cells = columns * rows;
+        if(!insertedReady){
+            if(insertedHead.length < cells){
+                insertedHead = new int[cells];
+            }
+            Arrays.fill(insertedHead, 0, cells, -1);
+            insertedReady = true;
+        }
+        if(insertedNext.length <= particle){
+            insertedNext = Arrays.copyOf(insertedNext, Math.max(particle + 1, 2 * insertedNext.length));
+        }
+        int cell = cellIndex(x, y);
+        insertedNext[particle] = insertedHead[cell];
+        insertedHead[cell] = particle;
+    }
+
+    /**
+     * Visit the particles in the cell of a point and the 8 cells around it, bucketed or inserted,
+     * which holds every particle closer to the point than the range the grid was built for
+     * @param x, x position of the point
+     * @param y, y position of the point
+     * @param visitor, receives the particles until it returns false
+     * @return false if the visitor stopped early
+     */
+    public boolean forEachNeighbor(double x, double y, NeighborVisitor visitor){
+        int cell = cellIndex(x, y);
+        int cx = cell % columns;
+        int cy = cell / columns;
+        for(int ny = Math.max(0, cy - 1); ny <= Math.min(rows - 1, cy + 1); ny++){
+            for(int nx = Math.max(0, cx - 1); nx <= Math.min(columns - 1, cx + 1); nx++){
+                int neighbor = ny * columns + nx;
+                for(int b = cellStart[neighbor]; b < cellStart[neighbor + 1]; b++){
+                    if(!visitor.visit(sortedParticles[b])){
+                        return false;
+                    }
+                }
+                if(insertedReady){
+                    for(int particle = insertedHead[neighbor]; particle >= 0; particle = insertedNext[particle]){
+                        if(!visitor.visit(particle)){
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private int cellIndex(double x, double y){
+        //particles resting on (or slightly past) a wall are clamped into the border cells
+        int cx = Math.min(columns - 1, Math.max(0, (int) ((x - xMin) / cellWidth)));
+        int cy = Math.min(rows - 1, Math.max(0, (int) (y / cellHeight)));
+        return cy * columns + cx;
+    }
+
+    /* GET METHODS */
+    public int getColumns() {
+        return columns;
+    }
+    public int getRows() {
+        return rows;
+    }
+    public int getCellCount() {
+        return columns * rows;
+    }
+}
@@ -0,0 +1,82 @@
+package physics;
+
+/**
+ * About: Immutable sample of a SpeedHistogram, safe to hand to another thread as it is.
+ * Also gives the 2D Maxwell-Boltzmann distribution at the sampled temperature to compare the counts with:
+ * f(v) = (m v / kT) exp(-m v^2 / 2kT), with k = 1.
+ */
+public class SpeedDistribution {
+    private final int[] counts;
+    private final double binWidth;
+    private final int particles;
+    private final double mass;
+    private final double temperature;
+    private final double time;
+
+    /**
+     * @param counts, particles per bin, the last bin also counts everything faster
+     * @param binWidth, speed range of one bin
+     * @param particles, number of particles counted
+     * @param mass, mean particle mass
+     * @param temperature, temperature at the time of the sample
+     * @param time, simulation time of the sample
+     */
+    public SpeedDistribution(int[] counts, double binWidth, int particles, double mass, double temperature, double time){
+        this.counts = counts;
+        this.binWidth = binWidth;
+        this.particles = particles;
+        this.mass = mass;
+        this.temperature = temperature;
+        this.time = time;
+    }
+
+    /**
+     * @param speed, particle speed
+     * @return Maxwell-Boltzmann probability density of the speed
+     */
+    public double getDensity(double speed){
+        if(temperature <= 0 || mass <= 0){
+            return 0;
+        }
+        return mass * speed / temperature * Math.exp(-mass * speed * speed / (2 * temperature));
+    }
+
+    /**
+     * @param bin, index of the bin
+     * @return particles a Maxwell-Boltzmann gas would have in the bin (the exact integral over the bin, open-ended for the last one)
+     */
+    public double getExpectedCount(int bin){
+        if(temperature <= 0 || mass <= 0){
+            return 0;
+        }
+        double low = bin * binWidth;
+        double high = (bin + 1) * binWidth;
+        double below = Math.exp(-mass * low * low / (2 * temperature));
+        double above = (bin == counts.length - 1)? 0 : Math.exp(-mass * high * high / (2 * temperature));
+        return particles * (below - above);
+    }
+
+
+    /* GET METHODS */
+    public int getBins() {
+        return counts.length;
+    }
+    public int getCount(int bin) {
+        return counts[bin];
+    }
+    public double getBinWidth() {
+        return binWidth;
+    }
+    public int getParticles() {
+        return particles;
+    }
+    public double getMass() {
+        return mass;
+    }
+    public double getTemperature() {
+        return temperature;
+    }
+    public double getTime() {
+        return time;
+    }
+}
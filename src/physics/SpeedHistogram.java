@@ -0,0 +1,139 @@
+package physics;
+
+import models.ParticleStore;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * About: Histogram of the particle speeds, kept up to date one particle at a time.
+ * Every particle remembers the bin it is counted in; when a collision changes its velocity only that particle is
+ * moved to its new bin, so keeping the histogram costs a few operations per collision instead of a pass over all particles.
+ * Wall bounces only flip a velocity component and leave the speed alone, so they need no update.
+ * Bin counts are atomic, so the workers of a parallel step may update particles of different cells at the same time.
+ *
+ * The bins cover speeds up to RANGE thermal speeds (sqrt(kT/m)) at the temperature of the last rebuild,
+ * faster particles are counted in the last bin.
+ */
+public class SpeedHistogram {
+    public static final int DEFAULT_BINS = 40;
+    //thermal speeds covered by the bins, the 2D Maxwell-Boltzmann tail beyond 4 holds exp(-8) of the particles
+    public static final double RANGE = 4;
+
+    private final int bins;
+    private final AtomicIntegerArray counts;
+    private int[] binOf = new int[0];
+    private double binWidth;
+    private double mass;
+    private int size = -1;
+    private boolean valid;
+
+    public SpeedHistogram(){
+        this(DEFAULT_BINS);
+    }
+
+    /**
+     * @param bins, number of speed bins
+     */
+    public SpeedHistogram(int bins){
+        this.bins = Math.max(1, bins);
+        this.counts = new AtomicIntegerArray(this.bins);
+    }
+
+    /**
+     * count every particle afresh, choosing the bin width from the current temperature
+     * @param store, particle state
+     */
+    public void rebuild(ParticleStore store){
+        int size = store.size();
+        double[] vx = store.getXVelocity();
+        double[] vy = store.getYVelocity();
+        double[] particleMass = store.getMass();
+        double kineticEnergy = 0;
+        double totalMass = 0;
+        for(int i = 0; i < size; i++){
+            kineticEnergy += 0.5 * particleMass[i] * (vx[i]*vx[i] + vy[i]*vy[i]);
+            totalMass += particleMass[i];
+        }
+        this.mass = (size > 0)? totalMass / size : 0;
+        double temperature = (size > 0)? kineticEnergy / size : 0;
+        double thermalSpeed = (mass > 0)? Math.sqrt(temperature / mass) : 0;
+        this.binWidth = (thermalSpeed > 0)? RANGE * thermalSpeed / bins : 1;
+
+        if(binOf.length < size){
+            binOf = new int[store.getCapacity()];
+        }
+        for(int k = 0; k < bins; k++){
+            counts.set(k, 0);
+        }
+        for(int i = 0; i < size; i++){
+            int bin = binOf(vx[i], vy[i]);
+            binOf[i] = bin;
+            counts.set(bin, counts.get(bin) + 1);
+        }
+        this.size = size;
+        this.valid = true;
+    }
+
+    /**
+     * move a particle whose velocity changed to its new bin
+     * @param store, particle state
+     * @param i, index of the particle
+     */
+    public void update(ParticleStore store, int i){
+        if(!valid){
+            return;
+        }
+        int bin = binOf(store.getXVelocity()[i], store.getYVelocity()[i]);
+        int oldBin = binOf[i];
+        if(bin != oldBin){
+            binOf[i] = bin;
+            counts.decrementAndGet(oldBin);
+            counts.incrementAndGet(bin);
+        }
+    }
+
+    /**
+     * every speed may have changed, e.g. after the velocities were rescaled, the next sample rebuilds
+     */
+    public void invalidate(){
+        valid = false;
+    }
+
+    /**
+     * copy the current counts, rebuilding first if particles were added or removed or the histogram was invalidated
+     * @param store, particle state
+     * @param temperature, current temperature (k = 1) for the Maxwell-Boltzmann curve
+     * @param time, simulation time of the sample
+     * @return immutable copy of the histogram
+     */
+    public SpeedDistribution sample(ParticleStore store, double temperature, double time){
+        if(!valid || size != store.size()){
+            rebuild(store);
+        }
+        int[] copy = new int[bins];
+        for(int k = 0; k < bins; k++){
+            copy[k] = counts.get(k);
+        }
+        return new SpeedDistribution(copy, binWidth, size, mass, temperature, time);
+    }
+
+    private int binOf(double vx, double vy){
+        return Math.min(bins - 1, (int) (Math.sqrt(vx*vx + vy*vy) / binWidth));
+    }
+
+
+    /* GET METHODS */
+    public int getBins() {
+        return bins;
+    }
+    public double getBinWidth() {
+        return binWidth;
+    }
+    /**
+     * @param bin, index of the bin
+     * @return particles counted in the bin right now
+     */
+    public int getCount(int bin) {
+        return counts.get(bin);
+    }
+}
@@ -35,28 +35,76 @@ public class Vector2 {
     public void invert(){
         double temp = this.x;
         this.x  = this.y;
-        this.y = this.x;
+        this.y = temp;
     }
     public void negate(){
         this.x *= -1;
         this.y *= -1;
     }
+    //in-place operations, they mutate this vector instead of allocating a new one
+    public Vector2 set(double x, double y){
+        this.x = x;
+        this.y = y;
+        return this;
+    }
+    public Vector2 set(Vector2 other){
+        this.x = other.x;
+        this.y = other.y;
+        return this;
+    }
+    public Vector2 add(Vector2 other){
+        this.x += other.x;
+        this.y += other.y;
+        return this;
+    }
+    public Vector2 subtract(Vector2 other){
+        this.x -= other.x;
+        this.y -= other.y;
+        return this;
+    }
+    public Vector2 scale(double scalar){
+        this.x *= scalar;
+        this.y *= scalar;
+        return this;
+    }
+    public double lengthSquared(){
+        return x*x + y*y;
+    }
 
     /* STATIC METHODS */
     public static double distance(Vector2 a, Vector2 b){
-        double v1 = b.getX() - a.getX();
-        double v2 = b.getY() - a.getY();
-        return Math.sqrt(v1*v1 + v2*v2);
+        return Math.sqrt(distanceSquared(a, b));
+    }
+    /**
+     * squared distance, enough for comparisons and avoids the sqrt
+     */
+    public static double distanceSquared(Vector2 a, Vector2 b){
+        return distanceSquared(a.getX(), a.getY(), b.getX(), b.getY());
+    }
+    public static double distanceSquared(double ax, double ay, double bx, double by){
+        double v1 = bx - ax;
+        double v2 = by - ay;
+        return v1*v1 + v2*v2;
     }
     public static double dotProduct(Vector2 a, Vector2 b){
-        return (a.getX() * b.getX()) + (a.getY() * b.getY());
+        return dotProduct(a.getX(), a.getY(), b.getX(), b.getY());
     }
-    public static Vector2 multiply(Vector2 vector, Double scalar){
+    public static double dotProduct(double ax, double ay, double bx, double by){
+        return (ax * bx) + (ay * by);
+    }
+    public static Vector2 multiply(Vector2 vector, double scalar){
         return new Vector2(vector.getX() * scalar, vector.getY() * scalar);
     }
     public static Vector2 subtract(Vector2 a, Vector2 b){
         return new Vector2(a.getX() - b.getX(), a.getY() - b.getY());
     }
+    //scratch-object variants, the result is written into an existing vector
+    public static Vector2 multiply(Vector2 vector, double scalar, Vector2 result){
+        return result.set(vector.getX() * scalar, vector.getY() * scalar);
+    }
+    public static Vector2 subtract(Vector2 a, Vector2 b, Vector2 result){
+        return result.set(a.getX() - b.getX(), a.getY() - b.getY());
+    }
 
     /* GET METHODS */
     public double getX() {
@@ -0,0 +1,198 @@
+package physics;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import models.OffHeapParticleStore;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * About: Integration and wall reflection with the Vector API, as many particles per instruction as the CPU's
+ * widest vectors hold (4 doubles with AVX2, 8 with AVX-512). Wall hits become lane masks, so there is no branch per particle.
+ * The particles left over after the last full vector go through the scalar kernel.
+ * Off-heap particles are loaded from the store's columns as buffers, the only memory besides arrays the Vector API of JDK 17 loads from.
+ * Needs --add-modules jdk.incubator.vector at compile and run time, IntegrationKernel.preferred() only loads it then.
+ */
+public class VectorIntegrationKernel extends IntegrationKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    //calls on scratch particles before the kernel is used, enough for C2 to compile it
+    private static final int WARMUP_CALLS = 20_000;
+    private final ScalarIntegrationKernel tail = new ScalarIntegrationKernel();
+
+    @Override
+    public void integrate(double[] x, double[] y, double[] vx, double[] vy, double[] radius, double[] mass,
+                          int from, int to, double dt, double xBounds, double yBounds, double[] sums, int offset) {
+        int lanes = SPECIES.length();
+        int upper = from + SPECIES.loopBound(to - from);
+        //scalars are broadcast once, outside the loop: a broadcast inside it sits deep enough in the Vector API's call
+        //chain that C2 may give up inlining it, and then every vector in the loop is boxed on the heap
+        DoubleVector step = DoubleVector.broadcast(SPECIES, dt);
+        DoubleVector right = DoubleVector.broadcast(SPECIES, xBounds);
+        DoubleVector bottom = DoubleVector.broadcast(SPECIES, yBounds);
+        DoubleVector two = DoubleVector.broadcast(SPECIES, 2);
+        DoubleVector half = DoubleVector.broadcast(SPECIES, 0.5);
+        DoubleVector zero = DoubleVector.zero(SPECIES);
+        DoubleVector wallImpulse = zero;
+        DoubleVector kineticEnergy = zero;
+        DoubleVector maxSpeedRatio = zero;
+        long wallCollisions = 0;
+        for(int i = from; i < upper; i += lanes){
+            DoubleVector px = DoubleVector.fromArray(SPECIES, x, i);
+            DoubleVector py = DoubleVector.fromArray(SPECIES, y, i);
+            DoubleVector pvx = DoubleVector.fromArray(SPECIES, vx, i);
+            DoubleVector pvy = DoubleVector.fromArray(SPECIES, vy, i);
+            DoubleVector r = DoubleVector.fromArray(SPECIES, radius, i);
+            DoubleVector m = DoubleVector.fromArray(SPECIES, mass, i);
+
+            //update particle positions
+            px = px.add(pvx.mul(step));
+            py = py.add(pvy.mul(step));
+
+            //a wall is hit when the next step would take the particle past it (see Collision.isHorizontalColliding)
+            DoubleVector nextX = px.add(pvx.mul(step));
+            VectorMask<Double> hitX = nextX.compare(VectorOperators.GT, right.sub(r))
+                    .or(nextX.compare(VectorOperators.LT, r));
+            DoubleVector nextY = py.add(pvy.mul(step));
+            VectorMask<Double> hitY = nextY.compare(VectorOperators.GT, bottom.sub(r))
+                    .or(nextY.compare(VectorOperators.LT, r));
+            DoubleVector twiceMass = m.mul(two);
+            wallImpulse = wallImpulse.add(zero.blend(twiceMass.mul(pvx.abs()), hitX));
+            wallImpulse = wallImpulse.add(zero.blend(twiceMass.mul(pvy.abs()), hitY));
+            pvx = pvx.blend(pvx.neg(), hitX);
+            pvy = pvy.blend(pvy.neg(), hitY);
+            wallCollisions += hitX.trueCount() + hitY.trueCount();
+
+            DoubleVector speedSquared = pvx.mul(pvx).add(pvy.mul(pvy));
+            kineticEnergy = kineticEnergy.add(m.mul(half).mul(speedSquared));
+            maxSpeedRatio = maxSpeedRatio.max(speedSquared.div(r.mul(r)));
+
+            px.intoArray(x, i);
+            py.intoArray(y, i);
+            pvx.intoArray(vx, i);
+            pvy.intoArray(vy, i);
+        }
+        //the rest one at a time
+        tail.integrate(x, y, vx, vy, radius, mass, upper, to, dt, xBounds, yBounds, sums, offset);
+        sums[offset + WALL_IMPULSE] += wallImpulse.reduceLanes(VectorOperators.ADD);
+        sums[offset + KINETIC_ENERGY] += kineticEnergy.reduceLanes(VectorOperators.ADD);
+        sums[offset + WALL_COLLISIONS] += wallCollisions;
+        sums[offset + MAX_SPEED_RATIO] = Math.max(sums[offset + MAX_SPEED_RATIO], maxSpeedRatio.reduceLanes(VectorOperators.MAX));
+    }
+
+    @Override
+    public void integrate(OffHeapParticleStore store, int from, int to, double dt, double xBounds, double yBounds, double[] sums, int offset) {
+        ByteBuffer x = store.getColumnBuffer(OffHeapParticleStore.X);
+        ByteBuffer y = store.getColumnBuffer(OffHeapParticleStore.Y);
+        ByteBuffer vx = store.getColumnBuffer(OffHeapParticleStore.X_VELOCITY);
+        ByteBuffer vy = store.getColumnBuffer(OffHeapParticleStore.Y_VELOCITY);
+        ByteBuffer radius = store.getColumnBuffer(OffHeapParticleStore.RADIUS);
+        ByteBuffer mass = store.getColumnBuffer(OffHeapParticleStore.MASS);
+        ByteOrder order = ByteOrder.nativeOrder();
+        int lanes = SPECIES.length();
+        int upper = from + SPECIES.loopBound(to - from);
+        DoubleVector step = DoubleVector.broadcast(SPECIES, dt);
+        DoubleVector right = DoubleVector.broadcast(SPECIES, xBounds);
+        DoubleVector bottom = DoubleVector.broadcast(SPECIES, yBounds);
+        DoubleVector two = DoubleVector.broadcast(SPECIES, 2);
+        DoubleVector half = DoubleVector.broadcast(SPECIES, 0.5);
+        DoubleVector zero = DoubleVector.zero(SPECIES);
+        DoubleVector wallImpulse = zero;
+        DoubleVector kineticEnergy = zero;
+        DoubleVector maxSpeedRatio = zero;
+        long wallCollisions = 0;
+        for(int i = from; i < upper; i += lanes){
+            int at = i * 8;
+            DoubleVector px = DoubleVector.fromByteBuffer(SPECIES, x, at, order);
+            DoubleVector py = DoubleVector.fromByteBuffer(SPECIES, y, at, order);
+            DoubleVector pvx = DoubleVector.fromByteBuffer(SPECIES, vx, at, order);
+            DoubleVector pvy = DoubleVector.fromByteBuffer(SPECIES, vy, at, order);
+            DoubleVector r = DoubleVector.fromByteBuffer(SPECIES, radius, at, order);
+            DoubleVector m = DoubleVector.fromByteBuffer(SPECIES, mass, at, order);
+
+            //the same operations as on the arrays
+            px = px.add(pvx.mul(step));
+            py = py.add(pvy.mul(step));
+
+            DoubleVector nextX = px.add(pvx.mul(step));
+            VectorMask<Double> hitX = nextX.compare(VectorOperators.GT, right.sub(r))
+                    .or(nextX.compare(VectorOperators.LT, r));
+            DoubleVector nextY = py.add(pvy.mul(step));
+            VectorMask<Double> hitY = nextY.compare(VectorOperators.GT, bottom.sub(r))
+                    .or(nextY.compare(VectorOperators.LT, r));
+            DoubleVector twiceMass = m.mul(two);
+            wallImpulse = wallImpulse.add(zero.blend(twiceMass.mul(pvx.abs()), hitX));
+            wallImpulse = wallImpulse.add(zero.blend(twiceMass.mul(pvy.abs()), hitY));
+            pvx = pvx.blend(pvx.neg(), hitX);
+            pvy = pvy.blend(pvy.neg(), hitY);
+            wallCollisions += hitX.trueCount() + hitY.trueCount();
+
+            DoubleVector speedSquared = pvx.mul(pvx).add(pvy.mul(pvy));
+            kineticEnergy = kineticEnergy.add(m.mul(half).mul(speedSquared));
+            maxSpeedRatio = maxSpeedRatio.max(speedSquared.div(r.mul(r)));
+
+            px.intoByteBuffer(x, at, order);
+            py.intoByteBuffer(y, at, order);
+            pvx.intoByteBuffer(vx, at, order);
+            pvy.intoByteBuffer(vy, at, order);
+        }
+        tail.integrate(store, upper, to, dt, xBounds, yBounds, sums, offset);
+        sums[offset + WALL_IMPULSE] += wallImpulse.reduceLanes(VectorOperators.ADD);
+        sums[offset + KINETIC_ENERGY] += kineticEnergy.reduceLanes(VectorOperators.ADD);
+        sums[offset + WALL_COLLISIONS] += wallCollisions;
+        sums[offset + MAX_SPEED_RATIO] = Math.max(sums[offset + MAX_SPEED_RATIO], maxSpeedRatio.reduceLanes(VectorOperators.MAX));
+    }
+
+    /**
+     * Until C2 compiles integrate, every vector operation runs as boxed objects and a step is about a thousand times
+     * slower than with the scalar kernel, which for a small system lasts a second of wall time or more. Running it on a
+     * few scratch particles first costs under a second once per JVM (per path), before any simulation steps.
+     */
+    @Override
+    protected void warmUp() {
+        //not a multiple of the lanes, so the scalar tail is compiled as well
+        int particles = 8 * SPECIES.length() + SPECIES.length() / 2 + 1;
+        double[] x = new double[particles];
+        double[] y = new double[particles];
+        double[] vx = new double[particles];
+        double[] vy = new double[particles];
+        double[] radius = new double[particles];
+        double[] mass = new double[particles];
+        for(int i = 0; i < particles; i++){
+            //some of them bounce, so both sides of every mask are taken
+            x[i] = y[i] = 50;
+            vx[i] = i % 3 - 1;
+            vy[i] = i % 5 - 2;
+            radius[i] = mass[i] = 10;
+        }
+        double[] sums = new double[SUMS];
+        for(int call = 0; call < WARMUP_CALLS; call++){
+            //every few calls a range too short for a single vector, as the last block of a parallel step may be
+            int to = (call % 4 == 3)? 1 : particles;
+            integrate(x, y, vx, vy, radius, mass, 0, to, 1, 100, 100, sums, 0);
+        }
+        //the off-heap path is a method of its own, compiled separately (checked by name, so the store is only loaded with its module)
+        if(ModuleLayer.boot().findModule(OffHeapParticleStore.MODULE).isPresent()){
+            OffHeapParticleStore store = new OffHeapParticleStore(particles);
+            for(int i = 0; i < particles; i++){
+                store.add(x[i], y[i], vx[i], vy[i], radius[i], mass[i]);
+            }
+            for(int call = 0; call < WARMUP_CALLS; call++){
+                int to = (call % 4 == 3)? 1 : particles;
+                integrate(store, 0, to, 1, 100, 100, sums, 0);
+            }
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "vector x" + SPECIES.length();
+    }
+
+    @Override
+    public int getLanes() {
+        return SPECIES.length();
+    }
+}